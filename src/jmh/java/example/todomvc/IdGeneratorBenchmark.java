@@ -0,0 +1,55 @@
+package example.todomvc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.AlternativeJdkIdGenerator;
+import org.springframework.util.IdGenerator;
+import org.springframework.util.JdkIdGenerator;
+
+/**
+ * Compares the throughput of creating todos with different id generators when
+ * all cores create todos at the same time, as under a burst of {@code POST /}
+ * requests. {@code random} is {@link java.util.UUID#randomUUID()}, i.e. what
+ * todos used before time-ordered ids.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(Threads.MAX)
+public class IdGeneratorBenchmark {
+
+	@Param({ "random", "alternative", "time-ordered" })
+	String generator;
+
+	private IdGenerator ids;
+
+	@Setup
+	public void setup() {
+
+		ids = switch (generator) {
+		case "random" -> new JdkIdGenerator();
+		case "alternative" -> new AlternativeJdkIdGenerator();
+		default -> new TimeOrderedIdGenerator();
+		};
+	}
+
+	@Benchmark
+	public Todo create() {
+		return new Todo(ids.generateId(), "Todo");
+	}
+}
@@ -0,0 +1,104 @@
+package example.todomvc;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import example.todomvc.TodoProperties.Storage;
+
+/**
+ * Measures how long a store takes to recover on startup, either from a
+ * snapshot or by replaying the journal alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgs = "-Xmx8g")
+public class JournalRecoveryBenchmark {
+
+	private static final int BATCH_SIZE = 10_000;
+
+	@Param({ "1000000" })
+	int size;
+
+	@Param({ "MAP", "COLUMNAR" })
+	Storage storage;
+
+	@Param({ "true", "false" })
+	boolean snapshot;
+
+	private Path directory;
+
+	@Setup(Level.Trial)
+	public void journal() throws IOException {
+
+		directory = Files.createTempDirectory("journal");
+
+		try (var journal = new TodoJournal(directory)) {
+
+			var todos = new JournalingTodos(new InMemoryTodos(), journal, Long.MAX_VALUE);
+			var batch = new ArrayList<Todo>(BATCH_SIZE);
+
+			for (int i = 0; i < size; i++) {
+
+				var todo = new Todo("Todo " + i);
+
+				batch.add(i % 2 == 0 ? todo : todo.toggleCompletion());
+
+				if (batch.size() == BATCH_SIZE || i == size - 1) {
+					todos.saveAll(batch);
+					batch.clear();
+				}
+			}
+
+			if (snapshot) {
+				todos.snapshot();
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void delete() throws IOException {
+
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (var file : files.sorted(Comparator.reverseOrder()).toList()) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	@Benchmark
+	public Todos recover() throws IOException {
+
+		Todos todos = switch (storage) {
+		case MAP -> new InMemoryTodos();
+		case COLUMNAR -> new ColumnarTodos();
+		};
+
+		try (var journal = new TodoJournal(directory)) {
+			new JournalingTodos(todos, journal, Long.MAX_VALUE);
+		}
+
+		return todos;
+	}
+}
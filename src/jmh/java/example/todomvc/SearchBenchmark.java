@@ -0,0 +1,80 @@
+package example.todomvc;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.Sort;
+
+/**
+ * Compares title searches through {@link TitleIndex} with a scan of the whole
+ * store, for a query matching a handful of todos and one matching most of
+ * them. Both stop after a page of results.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class SearchBenchmark {
+
+	private static final String[] WORDS = { "buy", "milk", "call", "mum", "write", "report", "fix", "bike", "book",
+			"flights", "water", "plants", "pay", "rent", "clean", "kitchen" };
+
+	private static final int LIMIT = 100;
+
+	@Param({ "100000", "1000000" })
+	int size;
+
+	@Param({ "todo 12345", "milk" })
+	String query;
+
+	private Todos todos;
+	private TitleIndex index;
+
+	@Setup
+	public void setup() {
+
+		var changes = new TodoChanges();
+
+		todos = new PublishingTodos(new InMemoryTodos(), changes);
+		index = TitleIndex.of(todos, changes, Runnable::run);
+
+		for (int i = 0; i < size; i++) {
+			todos.save(new Todo(WORDS[i % WORDS.length] + " " + WORDS[i * 7 % WORDS.length] + " todo " + i));
+		}
+	}
+
+	@TearDown
+	public void close() {
+		index.close();
+	}
+
+	@Benchmark
+	public List<UUID> index() {
+		return index.search(query, null, LIMIT);
+	}
+
+	@Benchmark
+	public List<UUID> scan() {
+		return todos.findAll(Sort.unsorted()).stream()
+				.filter(todo -> todo.getTitle().toLowerCase(Locale.ROOT).contains(query))
+				.limit(LIMIT)
+				.map(Todo::getId)
+				.toList();
+	}
+}
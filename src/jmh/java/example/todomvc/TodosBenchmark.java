@@ -0,0 +1,79 @@
+package example.todomvc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.data.domain.Sort;
+
+import example.todomvc.TodoProperties.Storage;
+
+/**
+ * Measures the queries behind the todo list and the footer against both
+ * in-memory stores at different sizes. Half of the todos are completed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class TodosBenchmark {
+
+	private static final Sort DEFAULT_SORT = Sort.by("created");
+
+	@Param({ "10000", "100000", "1000000" })
+	int size;
+
+	@Param({ "MAP", "COLUMNAR" })
+	Storage storage;
+
+	private Todos todos;
+
+	@Setup
+	public void setup() {
+		todos = populate(storage, size);
+	}
+
+	@Benchmark
+	public void findAll(Blackhole blackhole) {
+		todos.findAll(DEFAULT_SORT).forEach(blackhole::consume);
+	}
+
+	@Benchmark
+	public void findByCompleted(Blackhole blackhole) {
+		todos.findByCompleted(false, DEFAULT_SORT).forEach(blackhole::consume);
+	}
+
+	@Benchmark
+	public long countByCompleted() {
+		return todos.countByCompleted(false) + todos.count();
+	}
+
+	static Todos populate(Storage storage, int size) {
+
+		Todos todos = switch (storage) {
+		case MAP -> new InMemoryTodos();
+		case COLUMNAR -> new ColumnarTodos();
+		};
+
+		for (int i = 0; i < size; i++) {
+
+			var todo = new Todo("Todo " + i);
+
+			todos.save(i % 2 == 0 ? todo : todo.toggleCompletion());
+		}
+
+		return todos;
+	}
+}
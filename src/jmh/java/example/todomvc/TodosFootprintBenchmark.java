@@ -0,0 +1,71 @@
+package example.todomvc;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import example.todomvc.TodoProperties.Storage;
+
+/**
+ * Fills each store from scratch and reports the heap it retains per todo as
+ * the {@code retainedBytesPerTodo} counter, next to the time and allocations
+ * it took. Run with {@code -prof gc} to compare collection counts too.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgs = "-Xmx8g")
+public class TodosFootprintBenchmark {
+
+	@Param({ "1000000", "5000000" })
+	int size;
+
+	@Param({ "MAP", "COLUMNAR" })
+	Storage storage;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Footprint {
+
+		public long retainedBytesPerTodo;
+
+		private long baseline;
+
+		@Setup(Level.Iteration)
+		public void baseline() {
+			baseline = usedHeap();
+		}
+	}
+
+	@Benchmark
+	public Todos populate(Footprint footprint) {
+
+		var todos = TodosBenchmark.populate(storage, size);
+
+		footprint.retainedBytesPerTodo = (usedHeap() - footprint.baseline) / size;
+
+		return todos;
+	}
+
+	private static long usedHeap() {
+
+		System.gc();
+
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+}
@@ -0,0 +1,34 @@
+package example.todomvc.web;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import example.todomvc.Application;
+import example.todomvc.Todo;
+import example.todomvc.Todos;
+
+/**
+ * Boots the application on a random port with logging turned down and fills
+ * the store with the given number of todos, half of them completed.
+ */
+class BenchmarkApplication {
+
+	static ConfigurableApplicationContext start(int size) {
+
+		var context = new SpringApplicationBuilder(Application.class)
+				.properties("server.port=0", "spring.profiles.active=htmx", "logging.level.root=warn",
+						"logging.level.org.springframework.web=warn", "logging.level.example=warn")
+				.run();
+
+		var todos = context.getBean(Todos.class);
+
+		for (int i = 0; i < size; i++) {
+
+			var todo = new Todo("Todo " + i);
+
+			todos.save(i % 2 == 0 ? todo : todo.toggleCompletion());
+		}
+
+		return context;
+	}
+}
@@ -0,0 +1,119 @@
+package example.todomvc.web;
+
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.ui.ConcurrentModel;
+import org.springframework.web.reactive.result.view.View;
+import org.springframework.web.reactive.result.view.ViewResolutionResultHandler;
+import org.thymeleaf.spring6.view.reactive.ThymeleafReactiveViewResolver;
+
+import example.todomvc.Tenants;
+import example.todomvc.Todo;
+import reactor.core.publisher.Flux;
+
+/**
+ * Renders the fragments returned by {@link HtmxTodoController} through the view
+ * resolver the application uses, from view resolution to the response body,
+ * either from the {@link CompiledFragments precompiled skeletons} or straight
+ * through Thymeleaf.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class RenderingBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	int size;
+
+	@Param({ "true", "false" })
+	boolean compiled;
+
+	private ConfigurableApplicationContext context;
+	private ConcurrentModel model;
+	private View todos, foot, updateTodo;
+
+	@Setup
+	public void setup() {
+
+		context = BenchmarkApplication.start(size);
+
+		var template = context.getBean(TemplateModel.class);
+		var tenant = context.getBean(Tenants.class).get(Tenants.DEFAULT);
+
+		model = new ConcurrentModel();
+		model.addAttribute("action", "true");
+		template.prepareForm(tenant, model, Optional.empty()).block();
+		template.prepareReferenceData(tenant, new Todo("Updated"), model, Optional.empty()).block();
+
+		todos = resolve("index :: todos");
+		foot = resolve("index :: foot");
+		updateTodo = resolve("fragments :: update-todo");
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	public String todos() {
+		return render(todos);
+	}
+
+	@Benchmark
+	public String foot() {
+		return render(foot);
+	}
+
+	@Benchmark
+	public String updateTodo() {
+		return render(updateTodo);
+	}
+
+	/**
+	 * Resolves the view through the same resolver chain as the application, or
+	 * through Thymeleaf only.
+	 */
+	private View resolve(String name) {
+
+		if (!compiled) {
+			return context.getBean(ThymeleafReactiveViewResolver.class).resolveViewName(name, Locale.ENGLISH).block();
+		}
+
+		var resolvers = context.getBean(ViewResolutionResultHandler.class).getViewResolvers();
+
+		return Flux.fromIterable(resolvers)
+				.concatMap(it -> it.resolveViewName(name, Locale.ENGLISH))
+				.blockFirst();
+	}
+
+	private String render(View view) {
+
+		var exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/").header("HX-Request", "true"));
+
+		view.render(model.asMap(), MediaType.TEXT_HTML, exchange).block();
+
+		return exchange.getResponse().getBodyAsString().block();
+	}
+}
@@ -0,0 +1,79 @@
+package example.todomvc.web;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.ui.ConcurrentModel;
+import org.springframework.ui.Model;
+
+import example.todomvc.Tenant;
+import example.todomvc.Tenants;
+
+/**
+ * Measures how long {@link TemplateModel} takes to prepare the model for the
+ * list and for the footer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class TemplateModelBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	int size;
+
+	@Param({ "", "active", "completed" })
+	String filter;
+
+	private ConfigurableApplicationContext context;
+	private TemplateModel template;
+	private Tenant tenant;
+
+	@Setup
+	public void setup() {
+
+		context = BenchmarkApplication.start(size);
+		template = context.getBean(TemplateModel.class);
+		tenant = context.getBean(Tenants.class).get(Tenants.DEFAULT);
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	public Model prepareTodos() {
+
+		var model = new ConcurrentModel();
+
+		template.prepareTodos(tenant, model, Optional.of(filter)).block();
+
+		return model;
+	}
+
+	@Benchmark
+	public Model prepareReferenceData() {
+
+		var model = new ConcurrentModel();
+
+		template.prepareReferenceData(tenant, model, Optional.of(filter)).block();
+
+		return model;
+	}
+}
@@ -0,0 +1,250 @@
+package example.todomvc.web;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.util.IdGenerator;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import example.todomvc.Application;
+import example.todomvc.Todo;
+import example.todomvc.Todos;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * Starts the application on a random port and drives a configurable mix of
+ * HTMX requests against it from a number of concurrent clients, reporting
+ * throughput and latency percentiles per endpoint. Configured through system
+ * properties, all other system properties are passed on to the application
+ * (e.g. {@code -Dtodos.execution=virtual}):
+ * <ul>
+ * <li>{@code load.concurrency}: number of concurrent clients (default 100)</li>
+ * <li>{@code load.duration}: measured run time (default {@code 30s})</li>
+ * <li>{@code load.warmup}: run time before measuring (default {@code 5s})</li>
+ * <li>{@code load.size}: number of todos in the store up front (default 1000)</li>
+ * <li>{@code load.mix}: relative weights per endpoint (default
+ * {@code index=60,create=15,toggle=15,delete=8,clear=2})</li>
+ * </ul>
+ */
+public class LoadGenerator {
+
+	enum Endpoint {
+		INDEX("GET /"), CREATE("POST /"), TOGGLE("PUT /{id}/toggle"), DELETE("DELETE /{id}"),
+		CLEAR("DELETE /completed");
+
+		private final String label;
+
+		Endpoint(String label) {
+			this.label = label;
+		}
+	}
+
+	private final WebClient client;
+	private final List<UUID> ids;
+	private final Queue<UUID> deletable;
+	private final Map<Endpoint, Integer> mix;
+	private final Map<Endpoint, Histogram> latencies = new EnumMap<>(Endpoint.class);
+	private final Map<Endpoint, Map<Integer, LongAdder>> statuses = new EnumMap<>(Endpoint.class);
+	private final int totalWeight;
+
+	LoadGenerator(WebClient client, List<UUID> ids, Map<Endpoint, Integer> mix) {
+
+		this.client = client;
+		this.ids = ids;
+		this.deletable = new ConcurrentLinkedQueue<>(ids);
+		this.mix = mix;
+		this.totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+
+		for (var endpoint : Endpoint.values()) {
+			latencies.put(endpoint, new ConcurrentHistogram(TimeUnit.SECONDS.toMicros(60), 3));
+			statuses.put(endpoint, new LinkedHashMap<>());
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		int concurrency = Integer.getInteger("load.concurrency", 100);
+		int size = Integer.getInteger("load.size", 1000);
+		var duration = duration("load.duration", "30s");
+		var warmup = duration("load.warmup", "5s");
+		var mix = mix(System.getProperty("load.mix", "index=60,create=15,toggle=15,delete=8,clear=2"));
+
+		var context = new SpringApplicationBuilder(Application.class)
+				.properties("server.port=0", "spring.profiles.active=htmx", "logging.level.root=warn",
+						"logging.level.org.springframework.web=warn", "logging.level.example=warn")
+				.run(args);
+
+		try {
+
+			var todos = context.getBean(Todos.class);
+			var idGenerator = context.getBean(IdGenerator.class);
+			var ids = new ArrayList<UUID>(size);
+
+			for (int i = 0; i < size; i++) {
+
+				var todo = new Todo(idGenerator.generateId(), "Todo " + i);
+
+				todos.save(i % 2 == 0 ? todo : todo.toggleCompletion());
+				ids.add(todo.getId());
+			}
+
+			var connections = ConnectionProvider.builder("load")
+					.maxConnections(concurrency)
+					.pendingAcquireMaxCount(-1)
+					.build();
+
+			var client = WebClient.builder()
+					.baseUrl("http://localhost:" + context.getEnvironment().getProperty("local.server.port"))
+					.defaultHeader("HX-Request", "true")
+					.clientConnector(new ReactorClientHttpConnector(HttpClient.create(connections)))
+					.build();
+
+			var generator = new LoadGenerator(client, ids, mix);
+
+			System.out.printf("Warming up for %s with %d clients against %d todos%n", warmup, concurrency, size);
+			generator.run(concurrency, warmup, false);
+
+			System.out.printf("Measuring for %s%n", duration);
+			generator.run(concurrency, duration, true);
+			generator.report(duration);
+
+			connections.dispose();
+
+		} finally {
+			context.close();
+		}
+	}
+
+	void run(int concurrency, Duration duration, boolean record) {
+
+		long deadline = System.nanoTime() + duration.toNanos();
+
+		Flux.range(0, concurrency)
+				.flatMap(worker -> Mono.defer(() -> request(record)).repeat(() -> System.nanoTime() < deadline),
+						concurrency)
+				.blockLast();
+	}
+
+	private Mono<Void> request(boolean record) {
+
+		var endpoint = next();
+		WebClient.RequestHeadersSpec<?> spec = switch (endpoint) {
+		case INDEX -> client.get().uri("/");
+		case CREATE -> client.post().uri("/")
+				.contentType(MediaType.APPLICATION_FORM_URLENCODED)
+				.bodyValue("title=Load+test");
+		case TOGGLE -> client.put().uri("/{id}/toggle", randomId());
+		case DELETE -> client.delete().uri("/{id}", deletableId());
+		case CLEAR -> client.delete().uri("/completed");
+		};
+
+		long start = System.nanoTime();
+
+		return spec.exchangeToMono(response -> response.releaseBody().thenReturn(response.statusCode()))
+				.onErrorResume(__ -> Mono.just(HttpStatusCode.valueOf(599)))
+				.doOnNext(status -> {
+					if (record) {
+						latencies.get(endpoint).recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+						countStatus(endpoint, status.value());
+					}
+				})
+				.then();
+	}
+
+	private void countStatus(Endpoint endpoint, int status) {
+
+		var counters = statuses.get(endpoint);
+
+		synchronized (counters) {
+			counters.computeIfAbsent(status, __ -> new LongAdder()).increment();
+		}
+	}
+
+	void report(Duration duration) {
+
+		System.out.printf("%n%-20s %10s %10s %10s %10s %10s %10s %10s  %s%n", "endpoint", "requests", "req/s",
+				"p50 (ms)", "p90 (ms)", "p99 (ms)", "p99.9 (ms)", "max (ms)", "statuses");
+
+		for (var endpoint : Endpoint.values()) {
+
+			var histogram = latencies.get(endpoint);
+
+			if (histogram.getTotalCount() == 0) {
+				continue;
+			}
+
+			System.out.printf("%-20s %10d %10.1f %10.2f %10.2f %10.2f %10.2f %10.2f  %s%n", endpoint.label,
+					histogram.getTotalCount(), histogram.getTotalCount() / (double) duration.toSeconds(),
+					millis(histogram, 50), millis(histogram, 90), millis(histogram, 99), millis(histogram, 99.9),
+					histogram.getMaxValue() / 1000.0, statuses.get(endpoint));
+		}
+	}
+
+	private Endpoint next() {
+
+		int value = ThreadLocalRandom.current().nextInt(totalWeight);
+
+		for (var entry : mix.entrySet()) {
+
+			value -= entry.getValue();
+
+			if (value < 0) {
+				return entry.getKey();
+			}
+		}
+
+		return Endpoint.INDEX;
+	}
+
+	private UUID randomId() {
+		return ids.isEmpty() ? UUID.randomUUID() : ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+	}
+
+	private UUID deletableId() {
+
+		var id = deletable.poll();
+
+		return id != null ? id : randomId();
+	}
+
+	private static double millis(Histogram histogram, double percentile) {
+		return histogram.getValueAtPercentile(percentile) / 1000.0;
+	}
+
+	private static Duration duration(String property, String defaultValue) {
+		return Duration.parse("PT" + System.getProperty(property, defaultValue).toUpperCase());
+	}
+
+	private static Map<Endpoint, Integer> mix(String value) {
+
+		var result = new EnumMap<Endpoint, Integer>(Endpoint.class);
+
+		for (var entry : value.split(",")) {
+
+			var parts = entry.trim().split("=");
+
+			result.put(Endpoint.valueOf(parts[0].trim().toUpperCase()), Integer.parseInt(parts[1].trim()));
+		}
+
+		return result;
+	}
+}
@@ -17,21 +17,27 @@ package example.todomvc;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.data.map.repository.config.EnableMapRepositories;
+import org.springframework.util.IdGenerator;
 
 /**
  * @author Oliver Drotbohm
  */
 @SpringBootApplication
-@EnableMapRepositories
 public class Application {
 
 	public static void main(String[] args) throws Exception {
 
 		var context = SpringApplication.run(Application.class, args);
 		var todos = context.getBean(Todos.class);
+		var ids = context.getBean(IdGenerator.class);
+		var replication = context.getBean(TodoProperties.class).replication();
 
-		todos.save(new Todo("Completed").toggleCompletion());
-		todos.save(new Todo("Incomplete"));
+		// Nodes joining others get their todos from them
+		if (todos.count() > 0 || replication.enabled() && !replication.peers().isEmpty()) {
+			return;
+		}
+
+		todos.save(new Todo(ids.generateId(), "Completed").toggleCompletion());
+		todos.save(new Todo(ids.generateId(), "Incomplete"));
 	}
 }
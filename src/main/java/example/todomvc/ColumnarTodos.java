@@ -0,0 +1,865 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
+
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.domain.Window;
+import org.springframework.data.util.Streamable;
+import org.springframework.lang.Nullable;
+
+import example.todomvc.InMemoryTodos.Key;
+
+/**
+ * Compact {@link Todos} implementation for millions of todos. Instead of one
+ * object graph per todo, every field is kept in a column of primitives indexed
+ * by slot: ids and creation times as {@code long}s, the completion state in a
+ * {@link BitSet} and titles as UTF-8 bytes in a shared arena. {@link Todo}
+ * instances are only created for the rows that are actually read, e.g. the page
+ * of todos being rendered, so the heap holds a handful of large arrays rather
+ * than millions of small objects for the garbage collector to trace.
+ * <p>
+ * Slots are appended and never reused. Next to them, the store keeps an
+ * open-addressing hash index from id to slot and the slots sorted by creation
+ * time and id, which is the order all queries return todos in. With
+ * time-ordered ids, new todos go to the end of that order. Saving a single
+ * todo that sorts before others shifts all of them, so inserting many such
+ * todos one by one takes quadratic time. {@link #saveAll(List)} avoids that by
+ * appending the new todos of a batch and merging them into the order once.
+ * Deleted slots stay in place until they make up half of all slots, at which
+ * point the columns are rewritten in query order without them.
+ * <p>
+ * Unlike {@link InMemoryTodos}, writes take an exclusive lock and reads a
+ * shared one, so reads may block. Full scans release the lock between batches
+ * of rows and continue from the last row returned, so they see a weakly
+ * consistent view of concurrent writes, but never block them for long.
+ */
+class ColumnarTodos implements Todos {
+
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final int BATCH_SIZE = 256;
+
+	// The largest array the VM reliably allocates
+	private static final int MAX_TITLE_BYTES = Integer.MAX_VALUE - 8;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final AtomicLong version = new AtomicLong();
+	private final IdIndex index = new IdIndex();
+
+	private long[] mostSignificantBits = new long[INITIAL_CAPACITY];
+	private long[] leastSignificantBits = new long[INITIAL_CAPACITY];
+	private long[] createdSeconds = new long[INITIAL_CAPACITY];
+	private int[] createdNanos = new int[INITIAL_CAPACITY];
+	private long[] versions = new long[INITIAL_CAPACITY];
+	private int[] titleOffsets = new int[INITIAL_CAPACITY];
+	private int[] titleLengths = new int[INITIAL_CAPACITY];
+	private BitSet live = new BitSet();
+	private BitSet completed = new BitSet();
+	private byte[] titles = new byte[INITIAL_CAPACITY * 16];
+
+	/**
+	 * All slots in use, deleted ones included, sorted by creation time and id.
+	 */
+	private int[] order = new int[INITIAL_CAPACITY];
+
+	private int slots;
+	private int deletedSlots;
+	private int titleBytes;
+	private int garbageTitleBytes;
+
+	private volatile long numberOfTodos;
+	private volatile long numberOfCompleted;
+
+	@Override
+	public Optional<Todo> findById(UUID id) {
+
+		return InMemoryTodos.locked(lock.readLock(), () -> {
+
+			int slot = index.get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+
+			return slot < 0 ? Optional.<Todo> empty() : Optional.of(materialize(slot));
+		});
+	}
+
+	@Override
+	public Todo save(Todo item) {
+		return write(() -> saveLocked(item), Objects::nonNull);
+	}
+
+	/**
+	 * Saves all todos under a single write lock, which keeps a bulk import from
+	 * taking turns with readers for every single todo. New todos are processed in
+	 * query order and only merged into {@link #order} once they are all in,
+	 * or before an existing todo needs to be replaced, so that importing old
+	 * todos doesn't shift the newer ones for every single todo.
+	 */
+	@Override
+	public List<Todo> saveAll(List<Todo> items) {
+
+		return InMemoryTodos.locked(lock.writeLock(), () -> {
+
+			var result = new Todo[items.size()];
+			var appended = new int[items.size()];
+			int count = 0;
+			boolean changed = false;
+
+			try {
+				for (int i : inQueryOrder(items)) {
+
+					var item = items.get(i);
+
+					if (index.get(item.getId().getMostSignificantBits(), item.getId().getLeastSignificantBits()) < 0) {
+						ensureCapacity(slots + count + 1);
+						writeRow(slots + count, item);
+						appended[count] = slots + count;
+						count++;
+						result[i] = item;
+						changed = true;
+						continue;
+					}
+
+					merge(appended, count);
+					count = 0;
+
+					try {
+						result[i] = saveLocked(item);
+						changed = true;
+					} catch (OptimisticLockingFailureException e) {
+						// Skipped
+					}
+				}
+			} finally {
+
+				merge(appended, count);
+
+				if (changed) {
+					version.incrementAndGet();
+				}
+			}
+
+			return Arrays.stream(result).filter(Objects::nonNull).toList();
+		});
+	}
+
+	private Todo saveLocked(Todo item) {
+
+		int slot = index.get(item.getId().getMostSignificantBits(), item.getId().getLeastSignificantBits());
+
+		if (slot < 0) {
+			insert(item);
+			return item;
+		}
+
+		verify(slot, item.getVersion());
+
+		return replace(slot, item.withVersion(item.getVersion() + 1));
+	}
+
+	@Override
+	public Optional<Todo> update(UUID id, long expectedVersion, UnaryOperator<Todo> update) {
+
+		return write(() -> {
+
+			int slot = index.get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+
+			if (slot < 0) {
+				return Optional.<Todo> empty();
+			}
+
+			verify(slot, expectedVersion);
+
+			return Optional.of(replace(slot, InMemoryTodos.apply(update, materialize(slot)).withVersion(expectedVersion + 1)));
+		}, Optional::isPresent);
+	}
+
+	@Override
+	public Optional<Todo> replace(Todo todo, long expectedVersion) {
+
+		return write(() -> {
+
+			int slot = index.get(todo.getId().getMostSignificantBits(), todo.getId().getLeastSignificantBits());
+
+			if (slot < 0) {
+				return Optional.<Todo> empty();
+			}
+
+			verify(slot, expectedVersion);
+
+			return Optional.of(replace(slot, todo));
+		}, Optional::isPresent);
+	}
+
+	@Override
+	public Optional<Todo> deleteById(UUID id) {
+
+		return write(() -> {
+
+			int slot = index.get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+
+			if (slot < 0) {
+				return Optional.<Todo> empty();
+			}
+
+			var result = materialize(slot);
+
+			remove(slot);
+			compactIfNecessary();
+
+			return Optional.of(result);
+		}, Optional::isPresent);
+	}
+
+	@Override
+	public List<Todo> deleteAllByCompleted(boolean completed) {
+
+		return write(() -> {
+
+			var result = new ArrayList<Todo>();
+
+			for (int i = 0; i < slots; i++) {
+
+				int slot = order[i];
+
+				if (live.get(slot) && this.completed.get(slot) == completed) {
+					result.add(materialize(slot));
+					remove(slot);
+				}
+			}
+
+			compactIfNecessary();
+
+			return result;
+		}, result -> !result.isEmpty());
+	}
+
+	@Override
+	public List<Todo> setCompletedForAll(boolean completed) {
+
+		return write(() -> {
+
+			var result = new ArrayList<Todo>();
+
+			for (int i = 0; i < slots; i++) {
+
+				int slot = order[i];
+
+				if (live.get(slot) && this.completed.get(slot) != completed) {
+					this.completed.set(slot, completed);
+					versions[slot]++;
+					result.add(materialize(slot));
+				}
+			}
+
+			numberOfCompleted += completed ? result.size() : -result.size();
+
+			return result;
+		}, result -> !result.isEmpty());
+	}
+
+	@Override
+	public Streamable<Todo> findAll(Sort sort) {
+		return scan(null, InMemoryTodos.direction(sort));
+	}
+
+	@Override
+	public Streamable<Todo> findByCompleted(boolean completed, Sort sort) {
+		return scan(completed, InMemoryTodos.direction(sort));
+	}
+
+	@Override
+	public Window<Todo> findAll(KeysetScrollPosition position, Limit limit) {
+		return window(null, position, limit);
+	}
+
+	@Override
+	public Window<Todo> findByCompleted(boolean completed, KeysetScrollPosition position, Limit limit) {
+		return window(completed, position, limit);
+	}
+
+	@Override
+	public long version() {
+		return version.get();
+	}
+
+	@Override
+	public long count() {
+		return numberOfTodos;
+	}
+
+	@Override
+	public long countByCompleted(boolean completed) {
+
+		long result = numberOfCompleted;
+
+		return completed ? result : numberOfTodos - result;
+	}
+
+	/**
+	 * Runs the given change under the write lock and bumps the version of the
+	 * store afterwards if the result says that the change took effect.
+	 */
+	private <T> T write(Supplier<T> change, Predicate<? super T> changed) {
+
+		return InMemoryTodos.locked(lock.writeLock(), () -> {
+
+			var result = change.get();
+
+			if (changed.test(result)) {
+				version.incrementAndGet();
+			}
+
+			return result;
+		});
+	}
+
+	private Window<Todo> window(@Nullable Boolean completed, KeysetScrollPosition position, Limit limit) {
+
+		var after = InMemoryTodos.key(position);
+		int max = limit.isLimited() ? limit.max() + 1 : Integer.MAX_VALUE;
+
+		// Fetch one more row than requested so that the window knows whether there are more
+		return InMemoryTodos.window(rows(completed, after, Direction.ASC, max).iterator(), limit);
+	}
+
+	private Streamable<Todo> scan(@Nullable Boolean completed, Direction direction) {
+
+		Iterable<Todo> rows = () -> new BatchIterator(completed, direction);
+
+		return Streamable.of(rows);
+	}
+
+	/**
+	 * Materializes up to the given number of live rows following the given key
+	 * in the given direction, optionally restricted to a completion state.
+	 */
+	private List<Todo> rows(@Nullable Boolean completed, @Nullable Key after, Direction direction, int limit) {
+
+		return InMemoryTodos.locked(lock.readLock(), () -> {
+
+			var result = new ArrayList<Todo>(Math.min(limit, BATCH_SIZE));
+
+			if (direction.isAscending()) {
+				for (int i = after == null ? 0 : bound(after, true); i < slots && result.size() < limit; i++) {
+					collect(order[i], completed, result);
+				}
+			} else {
+				for (int i = (after == null ? slots : bound(after, false)) - 1; i >= 0 && result.size() < limit; i--) {
+					collect(order[i], completed, result);
+				}
+			}
+
+			return result;
+		});
+	}
+
+	private void collect(int slot, @Nullable Boolean completed, List<Todo> result) {
+
+		if (live.get(slot) && (completed == null || this.completed.get(slot) == completed)) {
+			result.add(materialize(slot));
+		}
+	}
+
+	private Todo materialize(int slot) {
+
+		return new Todo(new UUID(mostSignificantBits[slot], leastSignificantBits[slot]),
+				new String(titles, titleOffsets[slot], titleLengths[slot], UTF_8), completed.get(slot),
+				Instant.ofEpochSecond(createdSeconds[slot], createdNanos[slot]), versions[slot]);
+	}
+
+	private void verify(int slot, long expectedVersion) {
+
+		if (versions[slot] != expectedVersion) {
+			throw new OptimisticLockingFailureException("Todo %s is at version %d, expected %d"
+					.formatted(new UUID(mostSignificantBits[slot], leastSignificantBits[slot]), versions[slot],
+							expectedVersion));
+		}
+	}
+
+	private void insert(Todo todo) {
+
+		ensureCapacity(slots + 1);
+
+		int slot = slots;
+
+		writeRow(slot, todo);
+
+		// Time-ordered ids make this an append in the common case
+		int position = slots == 0 || compare(order[slots - 1], slot) < 0 ? slots : bound(slot, true);
+
+		System.arraycopy(order, position, order, position + 1, slots - position);
+		order[position] = slot;
+		slots++;
+	}
+
+	/**
+	 * Adds the given slots, which must be sorted by creation time and id and
+	 * directly follow the ones in use, to {@link #order} in a single pass from
+	 * the back, which is just a copy if they all sort after the existing ones.
+	 */
+	private void merge(int[] appended, int count) {
+
+		int i = slots - 1;
+		int j = count - 1;
+
+		for (int k = slots + count - 1; j >= 0; k--) {
+			order[k] = i >= 0 && compare(order[i], appended[j]) > 0 ? order[i--] : appended[j--];
+		}
+
+		slots += count;
+	}
+
+	/**
+	 * Writes the given todo to the given, unused slot and indexes it, but leaves
+	 * adding the slot to {@link #order} to the caller.
+	 */
+	private void writeRow(int slot, Todo todo) {
+
+		var id = todo.getId();
+		var created = todo.getCreated();
+
+		// First, as the only part that may fail
+		appendTitle(slot, todo.getTitle().getBytes(UTF_8));
+		mostSignificantBits[slot] = id.getMostSignificantBits();
+		leastSignificantBits[slot] = id.getLeastSignificantBits();
+		createdSeconds[slot] = created.getEpochSecond();
+		createdNanos[slot] = created.getNano();
+		versions[slot] = todo.getVersion();
+		live.set(slot);
+		completed.set(slot, todo.isCompleted());
+
+		index.put(id.getMostSignificantBits(), id.getLeastSignificantBits(), slot);
+
+		numberOfTodos++;
+
+		if (todo.isCompleted()) {
+			numberOfCompleted++;
+		}
+	}
+
+	/**
+	 * Returns the positions of the given todos sorted by creation time and id.
+	 * The sort is stable, so repeated saves of the same todo keep their order.
+	 */
+	private static int[] inQueryOrder(List<Todo> todos) {
+
+		return IntStream.range(0, todos.size())
+				.boxed()
+				.sorted(Comparator.comparing(i -> new Key(todos.get(i).getCreated(), todos.get(i).getId())))
+				.mapToInt(Integer::intValue)
+				.toArray();
+	}
+
+	private Todo replace(int slot, Todo todo) {
+
+		var created = todo.getCreated();
+		var title = todo.getTitle().getBytes(UTF_8);
+
+		if (createdSeconds[slot] != created.getEpochSecond() || createdNanos[slot] != created.getNano()) {
+
+			// Fail before the todo is removed, not after
+			ensureTitleCapacity(title.length);
+
+			remove(slot);
+			insert(todo);
+			compactIfNecessary();
+
+			return todo;
+		}
+
+		if (!Arrays.equals(titles, titleOffsets[slot], titleOffsets[slot] + titleLengths[slot], title, 0, title.length)) {
+
+			int previous = titleLengths[slot];
+
+			appendTitle(slot, title);
+			garbageTitleBytes += previous;
+		}
+
+		if (completed.get(slot) != todo.isCompleted()) {
+			completed.set(slot, todo.isCompleted());
+			numberOfCompleted += todo.isCompleted() ? 1 : -1;
+		}
+
+		versions[slot] = todo.getVersion();
+
+		return todo;
+	}
+
+	private void remove(int slot) {
+
+		live.clear(slot);
+		index.remove(mostSignificantBits[slot], leastSignificantBits[slot]);
+		deletedSlots++;
+		garbageTitleBytes += titleLengths[slot];
+		numberOfTodos--;
+
+		if (completed.get(slot)) {
+			numberOfCompleted--;
+		}
+	}
+
+	private void appendTitle(int slot, byte[] title) {
+
+		ensureTitleCapacity(title.length);
+
+		System.arraycopy(title, 0, titles, titleBytes, title.length);
+		titleOffsets[slot] = titleBytes;
+		titleLengths[slot] = title.length;
+		titleBytes += title.length;
+	}
+
+	/**
+	 * Grows the titles by half, or as much as needed, but never beyond what an
+	 * array can hold.
+	 *
+	 * @throws DataAccessResourceFailureException if the titles would outgrow
+	 *                                            an array
+	 */
+	private void ensureTitleCapacity(int length) {
+
+		long required = (long) titleBytes + length;
+
+		if (required <= titles.length) {
+			return;
+		}
+
+		if (required > MAX_TITLE_BYTES) {
+			throw new DataAccessResourceFailureException(
+					"Titles of a columnar store are limited to %d bytes in total".formatted(MAX_TITLE_BYTES));
+		}
+
+		long grown = Math.max((long) titles.length + (titles.length >> 1), required);
+
+		titles = Arrays.copyOf(titles, (int) Math.min(grown, MAX_TITLE_BYTES));
+	}
+
+	private void ensureCapacity(int capacity) {
+
+		if (capacity <= order.length) {
+			return;
+		}
+
+		int length = Math.max(capacity, order.length + (order.length >> 1));
+
+		mostSignificantBits = Arrays.copyOf(mostSignificantBits, length);
+		leastSignificantBits = Arrays.copyOf(leastSignificantBits, length);
+		createdSeconds = Arrays.copyOf(createdSeconds, length);
+		createdNanos = Arrays.copyOf(createdNanos, length);
+		versions = Arrays.copyOf(versions, length);
+		titleOffsets = Arrays.copyOf(titleOffsets, length);
+		titleLengths = Arrays.copyOf(titleLengths, length);
+		order = Arrays.copyOf(order, length);
+	}
+
+	/**
+	 * Rewrites all columns without the deleted slots once they, or titles that
+	 * are no longer referenced, make up half of the store. The rewritten
+	 * columns are in query order, so that scans read them sequentially.
+	 */
+	private void compactIfNecessary() {
+
+		boolean slotsWasted = deletedSlots > INITIAL_CAPACITY && deletedSlots >= slots / 2;
+		boolean titlesWasted = garbageTitleBytes > INITIAL_CAPACITY * 16 && garbageTitleBytes >= titleBytes / 2;
+
+		if (!slotsWasted && !titlesWasted) {
+			return;
+		}
+
+		int size = slots - deletedSlots;
+		int length = Math.max(INITIAL_CAPACITY, size + (size >> 1));
+		var target = new ColumnarTodos();
+
+		target.ensureCapacity(length);
+		target.titles = new byte[Math.max(INITIAL_CAPACITY * 16, titleBytes - garbageTitleBytes)];
+
+		for (int i = 0; i < slots; i++) {
+
+			int slot = order[i];
+
+			if (live.get(slot)) {
+				target.insert(materialize(slot));
+			}
+		}
+
+		mostSignificantBits = target.mostSignificantBits;
+		leastSignificantBits = target.leastSignificantBits;
+		createdSeconds = target.createdSeconds;
+		createdNanos = target.createdNanos;
+		versions = target.versions;
+		titleOffsets = target.titleOffsets;
+		titleLengths = target.titleLengths;
+		live = target.live;
+		completed = target.completed;
+		titles = target.titles;
+		order = target.order;
+		slots = target.slots;
+		titleBytes = target.titleBytes;
+		deletedSlots = 0;
+		garbageTitleBytes = 0;
+		index.replaceWith(target.index);
+	}
+
+	/**
+	 * Returns the first position in {@link #order} whose row sorts after (or, if
+	 * not {@code strict}, not before) the given key.
+	 */
+	private int bound(Key key, boolean strict) {
+
+		var created = key.created();
+
+		return bound(created.getEpochSecond(), created.getNano(), key.id().getMostSignificantBits(),
+				key.id().getLeastSignificantBits(), strict);
+	}
+
+	private int bound(int slot, boolean strict) {
+		return bound(createdSeconds[slot], createdNanos[slot], mostSignificantBits[slot], leastSignificantBits[slot],
+				strict);
+	}
+
+	private int bound(long seconds, int nanos, long most, long least, boolean strict) {
+
+		int low = 0;
+		int high = slots;
+
+		while (low < high) {
+
+			int middle = (low + high) >>> 1;
+			int result = compare(order[middle], seconds, nanos, most, least);
+
+			if (result < 0 || strict && result == 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+
+		return low;
+	}
+
+	private int compare(int slot, int other) {
+		return compare(slot, createdSeconds[other], createdNanos[other], mostSignificantBits[other],
+				leastSignificantBits[other]);
+	}
+
+	/**
+	 * Compares the given slot to the given key the same way {@link Key} does,
+	 * i.e. by creation time and then by id as {@link UUID#compareTo(UUID)}.
+	 */
+	private int compare(int slot, long seconds, int nanos, long most, long least) {
+
+		int result = Long.compare(createdSeconds[slot], seconds);
+
+		if (result == 0) {
+			result = Integer.compare(createdNanos[slot], nanos);
+		}
+
+		if (result == 0) {
+			result = Long.compare(mostSignificantBits[slot], most);
+		}
+
+		return result != 0 ? result : Long.compare(leastSignificantBits[slot], least);
+	}
+
+	/**
+	 * Iterates rows in batches, each read under the lock and continuing after the
+	 * last row of the previous one.
+	 */
+	private class BatchIterator implements Iterator<Todo> {
+
+		private final @Nullable Boolean completed;
+		private final Direction direction;
+		private Iterator<Todo> batch = Collections.emptyIterator();
+		private @Nullable Key last;
+		private boolean exhausted;
+
+		BatchIterator(@Nullable Boolean completed, Direction direction) {
+			this.completed = completed;
+			this.direction = direction;
+		}
+
+		@Override
+		public boolean hasNext() {
+
+			if (!batch.hasNext() && !exhausted) {
+
+				var rows = rows(completed, last, direction, BATCH_SIZE);
+
+				if (!rows.isEmpty()) {
+					var tail = rows.get(rows.size() - 1);
+					last = new Key(tail.getCreated(), tail.getId());
+				}
+
+				exhausted = rows.size() < BATCH_SIZE;
+				batch = rows.iterator();
+			}
+
+			return batch.hasNext();
+		}
+
+		@Override
+		public Todo next() {
+
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+
+			return batch.next();
+		}
+	}
+
+	/**
+	 * Open-addressing hash index from id to slot with linear probing, keeping
+	 * the ids in two primitive arrays.
+	 */
+	private static class IdIndex {
+
+		private long[] mostSignificantBits = new long[INITIAL_CAPACITY * 2];
+		private long[] leastSignificantBits = new long[INITIAL_CAPACITY * 2];
+		private int[] slots = new int[INITIAL_CAPACITY * 2]; // slot + 1, 0 marks an empty bucket
+		private int size;
+
+		int get(long most, long least) {
+
+			int mask = slots.length - 1;
+
+			for (int i = hash(most, least) & mask;; i = i + 1 & mask) {
+
+				if (slots[i] == 0) {
+					return -1;
+				}
+
+				if (mostSignificantBits[i] == most && leastSignificantBits[i] == least) {
+					return slots[i] - 1;
+				}
+			}
+		}
+
+		void put(long most, long least, int slot) {
+
+			if ((size + 1) * 2 > slots.length) {
+				resize(slots.length * 2);
+			}
+
+			int mask = slots.length - 1;
+			int i = hash(most, least) & mask;
+
+			while (slots[i] != 0 && (mostSignificantBits[i] != most || leastSignificantBits[i] != least)) {
+				i = i + 1 & mask;
+			}
+
+			if (slots[i] == 0) {
+				size++;
+			}
+
+			mostSignificantBits[i] = most;
+			leastSignificantBits[i] = least;
+			slots[i] = slot + 1;
+		}
+
+		void remove(long most, long least) {
+
+			int mask = slots.length - 1;
+			int i = hash(most, least) & mask;
+
+			while (slots[i] != 0 && (mostSignificantBits[i] != most || leastSignificantBits[i] != least)) {
+				i = i + 1 & mask;
+			}
+
+			if (slots[i] == 0) {
+				return;
+			}
+
+			slots[i] = 0;
+			size--;
+
+			// Shift back entries that would otherwise no longer be found from their home bucket
+			for (int j = i + 1 & mask; slots[j] != 0; j = j + 1 & mask) {
+
+				int home = hash(mostSignificantBits[j], leastSignificantBits[j]) & mask;
+				boolean reachable = i <= j ? i < home && home <= j : i < home || home <= j;
+
+				if (!reachable) {
+					mostSignificantBits[i] = mostSignificantBits[j];
+					leastSignificantBits[i] = leastSignificantBits[j];
+					slots[i] = slots[j];
+					slots[j] = 0;
+					i = j;
+				}
+			}
+		}
+
+		void replaceWith(IdIndex other) {
+			mostSignificantBits = other.mostSignificantBits;
+			leastSignificantBits = other.leastSignificantBits;
+			slots = other.slots;
+			size = other.size;
+		}
+
+		private void resize(int capacity) {
+
+			var most = mostSignificantBits;
+			var least = leastSignificantBits;
+			var previous = slots;
+
+			mostSignificantBits = new long[capacity];
+			leastSignificantBits = new long[capacity];
+			slots = new int[capacity];
+			size = 0;
+
+			for (int i = 0; i < previous.length; i++) {
+				if (previous[i] != 0) {
+					put(most[i], least[i], previous[i] - 1);
+				}
+			}
+		}
+
+		private static int hash(long most, long least) {
+
+			long hash = most ^ least;
+
+			hash ^= hash >>> 33;
+			hash *= 0xff51afd7ed558ccdL;
+			hash ^= hash >>> 33;
+
+			return (int) hash;
+		}
+	}
+}
@@ -0,0 +1,468 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.domain.Sort.Order;
+import org.springframework.data.domain.Window;
+import org.springframework.data.util.Streamable;
+import org.springframework.lang.Nullable;
+
+/**
+ * In-memory {@link Todos} implementation. Next to the primary map by id, it
+ * keeps a secondary index ordered by {@link Todo#getCreated()} that is
+ * partitioned by completion state. Filtered queries are thus a plain iteration
+ * over one partition, unfiltered ones a merge of both, and neither needs
+ * predicate evaluation or sorting. Keyset positions map directly onto the index
+ * keys, so a window starts with a seek into the index instead of skipping over
+ * the todos before it.
+ * <p>
+ * Writes for a single id are serialized through
+ * {@link ConcurrentHashMap#compute}, which keeps the index and the counters
+ * consistent with the primary map. That is also where the version of an
+ * existing todo is compared to the expected one, so concurrent updates of the
+ * same todo are compare-and-set operations that can't lose each other's
+ * changes. Bulk operations are a pass of such per-id changes over one
+ * partition, so they never stop single writes, which may interleave with them.
+ * Nothing takes a store-wide lock: reads see a weakly consistent view of
+ * concurrent writes, and a todo moving between partitions is removed from one
+ * before it is added to the other, so it is never seen twice.
+ */
+class InMemoryTodos implements Todos {
+
+	private static final String INDEX_PROPERTY = "created";
+	private static final String ID_PROPERTY = "id";
+
+	private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+	private final NavigableMap<Key, Todo> incomplete = new ConcurrentSkipListMap<>();
+	private final NavigableMap<Key, Todo> completed = new ConcurrentSkipListMap<>();
+	private final AtomicLong numberOfTodos = new AtomicLong();
+	private final AtomicLong numberOfCompleted = new AtomicLong();
+	private final AtomicLong version = new AtomicLong();
+
+	@Override
+	public Optional<Todo> findById(UUID id) {
+		return Optional.ofNullable(entries.get(id)).map(Entry::todo);
+	}
+
+	@Override
+	public Todo save(Todo item) {
+
+		var result = entries.compute(item.getId(), (id, previous) -> {
+
+			if (previous == null) {
+				return put(null, item);
+			}
+
+			verify(previous, item.getVersion());
+
+			return put(previous, item.withVersion(item.getVersion() + 1));
+		});
+
+		version.incrementAndGet();
+
+		return result.todo();
+	}
+
+	@Override
+	public Optional<Todo> update(UUID id, long expectedVersion, UnaryOperator<Todo> update) {
+
+		var result = entries.computeIfPresent(id, (__, previous) -> {
+
+			verify(previous, expectedVersion);
+
+			return put(previous, apply(update, previous.todo()).withVersion(expectedVersion + 1));
+		});
+
+		if (result != null) {
+			version.incrementAndGet();
+		}
+
+		return Optional.ofNullable(result).map(Entry::todo);
+	}
+
+	@Override
+	public Optional<Todo> replace(Todo todo, long expectedVersion) {
+
+		var result = entries.computeIfPresent(todo.getId(), (__, previous) -> {
+
+			verify(previous, expectedVersion);
+
+			return put(previous, todo);
+		});
+
+		if (result != null) {
+			version.incrementAndGet();
+		}
+
+		return Optional.ofNullable(result).map(Entry::todo);
+	}
+
+	@Override
+	public Optional<Todo> deleteById(UUID id) {
+
+		var removed = new Todo[1];
+
+		entries.computeIfPresent(id, (__, previous) -> {
+
+			removed[0] = previous.todo();
+
+			return remove(previous);
+		});
+
+		if (removed[0] != null) {
+			version.incrementAndGet();
+		}
+
+		return Optional.ofNullable(removed[0]);
+	}
+
+	@Override
+	public List<Todo> deleteAllByCompleted(boolean completed) {
+
+		var result = new ArrayList<Todo>();
+
+		// Only removes todos still in the partition by the time their id is locked
+		for (var todo : partition(completed).values()) {
+			entries.computeIfPresent(todo.getId(), (id, previous) -> {
+
+				if (previous.completed() != completed) {
+					return previous;
+				}
+
+				result.add(previous.todo());
+
+				return remove(previous);
+			});
+		}
+
+		if (!result.isEmpty()) {
+			version.incrementAndGet();
+		}
+
+		return result;
+	}
+
+	@Override
+	public List<Todo> setCompletedForAll(boolean completed) {
+
+		var result = new ArrayList<Todo>();
+
+		for (var todo : partition(!completed).values()) {
+			entries.computeIfPresent(todo.getId(), (id, previous) -> {
+
+				if (previous.completed() == completed) {
+					return previous;
+				}
+
+				var changed = previous.todo().withCompleted(completed).withVersion(previous.todo().getVersion() + 1);
+
+				result.add(changed);
+
+				return put(previous, changed);
+			});
+		}
+
+		if (!result.isEmpty()) {
+			version.incrementAndGet();
+		}
+
+		return result;
+	}
+
+	@Override
+	public Streamable<Todo> findAll(Sort sort) {
+
+		var direction = direction(sort);
+
+		Iterable<Todo> merged = () -> new MergingIterator(ordered(incomplete, direction).values().iterator(),
+				ordered(completed, direction).values().iterator(), direction);
+
+		return Streamable.of(merged);
+	}
+
+	@Override
+	public Streamable<Todo> findByCompleted(boolean completed, Sort sort) {
+		return Streamable.of(ordered(partition(completed), direction(sort)).values());
+	}
+
+	@Override
+	public Window<Todo> findAll(KeysetScrollPosition position, Limit limit) {
+
+		var after = key(position);
+
+		return window(new MergingIterator(tail(incomplete, after).values().iterator(),
+				tail(completed, after).values().iterator(), Direction.ASC), limit);
+	}
+
+	@Override
+	public Window<Todo> findByCompleted(boolean completed, KeysetScrollPosition position, Limit limit) {
+		return window(tail(partition(completed), key(position)).values().iterator(), limit);
+	}
+
+	@Override
+	public long version() {
+		return version.get();
+	}
+
+	@Override
+	public long count() {
+		return numberOfTodos.get();
+	}
+
+	@Override
+	public long countByCompleted(boolean completed) {
+
+		long result = numberOfCompleted.get();
+
+		return completed ? result : numberOfTodos.get() - result;
+	}
+
+	/**
+	 * Runs the given action holding the given lock, for the stores and indexes
+	 * that need one.
+	 */
+	static <T> T locked(Lock lock, Supplier<T> action) {
+
+		lock.lock();
+
+		try {
+			return action.get();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Applies the given update function, which must not change the id of the todo
+	 * as the stores keep it under the id it had before.
+	 */
+	static Todo apply(UnaryOperator<Todo> update, Todo todo) {
+
+		var result = update.apply(todo);
+
+		if (!result.getId().equals(todo.getId())) {
+			throw new InvalidDataAccessApiUsageException(
+					"Update of todo %s must not change its id, got %s".formatted(todo.getId(), result.getId()));
+		}
+
+		return result;
+	}
+
+	private NavigableMap<Key, Todo> partition(boolean completed) {
+		return completed ? this.completed : incomplete;
+	}
+
+	/**
+	 * Updates the index and counters for the given todo replacing the previous
+	 * entry, if any. Must be called from within {@link Map#compute} for the id.
+	 */
+	private Entry put(@Nullable Entry previous, Todo item) {
+
+		var key = new Key(item.getCreated(), item.getId());
+
+		// Remove before adding, so that lock-free readers never see the todo twice
+		if (previous == null) {
+			numberOfTodos.incrementAndGet();
+		} else if (previous.completed() != item.isCompleted() || !previous.key().equals(key)) {
+			partition(previous.completed()).remove(previous.key());
+		}
+
+		partition(item.isCompleted()).put(key, item);
+
+		boolean wasCompleted = previous != null && previous.completed();
+
+		if (wasCompleted != item.isCompleted()) {
+			numberOfCompleted.addAndGet(item.isCompleted() ? 1 : -1);
+		}
+
+		return new Entry(key, item.isCompleted(), item);
+	}
+
+	/**
+	 * Removes the given entry from the index and counters. Must be called from
+	 * within {@link Map#compute} for the id.
+	 *
+	 * @return {@literal null} to remove the entry from the primary map
+	 */
+	@Nullable
+	private Entry remove(Entry previous) {
+
+		partition(previous.completed()).remove(previous.key());
+		numberOfTodos.decrementAndGet();
+
+		if (previous.completed()) {
+			numberOfCompleted.decrementAndGet();
+		}
+
+		return null;
+	}
+
+	private static void verify(Entry previous, long expectedVersion) {
+
+		if (previous.todo().getVersion() != expectedVersion) {
+			throw new OptimisticLockingFailureException("Todo %s is at version %d, expected %d"
+					.formatted(previous.todo().getId(), previous.todo().getVersion(), expectedVersion));
+		}
+	}
+
+	private static NavigableMap<Key, Todo> tail(NavigableMap<Key, Todo> partition, @Nullable Key after) {
+		return after == null ? partition : partition.tailMap(after, false);
+	}
+
+	@Nullable
+	static Key key(KeysetScrollPosition position) {
+
+		if (position.scrollsBackward()) {
+			throw new InvalidDataAccessApiUsageException("Only forward scrolling is supported");
+		}
+
+		var keys = position.getKeys();
+
+		return keys.isEmpty() ? null : new Key((Instant) keys.get(INDEX_PROPERTY), (UUID) keys.get(ID_PROPERTY));
+	}
+
+	static Window<Todo> window(Iterator<Todo> todos, Limit limit) {
+
+		int max = limit.isLimited() ? limit.max() : Integer.MAX_VALUE;
+		var result = new ArrayList<Todo>();
+
+		while (result.size() < max && todos.hasNext()) {
+			result.add(todos.next());
+		}
+
+		return Window.from(result, index -> ScrollPosition.forward(
+				Map.of(INDEX_PROPERTY, result.get(index).getCreated(), ID_PROPERTY, result.get(index).getId())),
+				todos.hasNext());
+	}
+
+	private static NavigableMap<Key, Todo> ordered(NavigableMap<Key, Todo> partition, Direction direction) {
+		return direction.isAscending() ? partition : partition.descendingMap();
+	}
+
+	/**
+	 * Returns the direction to iterate the index in for the given {@link Sort}.
+	 * Only the index order is supported, unsorted requests are answered in
+	 * ascending order.
+	 */
+	static Direction direction(Sort sort) {
+
+		if (sort.isUnsorted()) {
+			return Direction.ASC;
+		}
+
+		Order order = sort.getOrderFor(INDEX_PROPERTY);
+
+		if (order == null || sort.stream().count() > 1) {
+			throw new InvalidDataAccessApiUsageException("Only sorting by " + INDEX_PROPERTY + " is supported, got " + sort);
+		}
+
+		return order.getDirection();
+	}
+
+	/**
+	 * Orders todos by creation time and id. For time-ordered ids, which todos
+	 * take their creation time from, that is the same as the order of the ids.
+	 */
+	record Key(Instant created, UUID id) implements Comparable<Key> {
+
+		@Override
+		public int compareTo(Key other) {
+
+			int result = created.compareTo(other.created);
+
+			return result != 0 ? result : id.compareTo(other.id);
+		}
+	}
+
+	private record Entry(Key key, boolean completed, Todo todo) {
+	}
+
+	/**
+	 * Merges two iterators that are ordered by {@link Todo#getCreated()} in the
+	 * same direction.
+	 */
+	private static class MergingIterator implements Iterator<Todo> {
+
+		private final Iterator<Todo> left, right;
+		private final Direction direction;
+		private Todo nextLeft, nextRight;
+
+		MergingIterator(Iterator<Todo> left, Iterator<Todo> right, Direction direction) {
+
+			this.left = left;
+			this.right = right;
+			this.direction = direction;
+			this.nextLeft = left.hasNext() ? left.next() : null;
+			this.nextRight = right.hasNext() ? right.next() : null;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return nextLeft != null || nextRight != null;
+		}
+
+		@Override
+		public Todo next() {
+
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+
+			boolean takeLeft = nextRight == null
+					|| nextLeft != null && compare(nextLeft, nextRight) <= 0;
+
+			if (takeLeft) {
+				var result = nextLeft;
+				nextLeft = left.hasNext() ? left.next() : null;
+				return result;
+			}
+
+			var result = nextRight;
+			nextRight = right.hasNext() ? right.next() : null;
+			return result;
+		}
+
+		private int compare(Todo first, Todo second) {
+
+			int result = new Key(first.getCreated(), first.getId()).compareTo(new Key(second.getCreated(), second.getId()));
+
+			return direction.isAscending() ? result : -result;
+		}
+	}
+}
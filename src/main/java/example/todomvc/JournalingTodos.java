@@ -0,0 +1,314 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+import org.springframework.data.util.Streamable;
+import org.springframework.lang.Nullable;
+
+import example.todomvc.TodoJournal.Entry;
+
+/**
+ * {@link Todos} decorator that records every change in a {@link TodoJournal}
+ * and only returns once the change is durable. The delegate is restored from
+ * the journal on construction.
+ * <p>
+ * A change is applied and appended under a lock striped by id, so that the
+ * journal sees changes to the same todo in the order they were applied. Bulk
+ * changes are journaled as the changes to the single todos they consist of.
+ * Every entry carries the resulting state of a todo, so replaying an entry
+ * that is already reflected in the store is a no-op. That lets snapshots copy
+ * the store after rotating the journal without stopping writes: changes that
+ * race with the copy end up in the new generation and are replayed on top of
+ * it.
+ * <p>
+ * Changes are applied before they are written, so if the journal fails to
+ * write one, the store is ahead of the disk. The change is reported as failed
+ * and the store rejects all further changes, as it can't make them durable.
+ */
+class JournalingTodos implements Todos {
+
+	private static final Log logger = LogFactory.getLog(JournalingTodos.class);
+	private static final int STRIPES = 64;
+
+	private final Todos delegate;
+	private final TodoJournal journal;
+	private final long snapshotThreshold;
+	private final Object[] stripes = new Object[STRIPES];
+	private final AtomicLong entriesSinceSnapshot = new AtomicLong();
+	private final AtomicBoolean snapshotting = new AtomicBoolean();
+
+	private volatile Throwable failure;
+
+	JournalingTodos(Todos delegate, TodoJournal journal, long snapshotThreshold) throws IOException {
+
+		this.delegate = delegate;
+		this.journal = journal;
+		this.snapshotThreshold = snapshotThreshold;
+
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Object();
+		}
+
+		entriesSinceSnapshot.set(journal.recover(delegate));
+	}
+
+	@Override
+	public Optional<Todo> findById(UUID id) {
+		return delegate.findById(id);
+	}
+
+	@Override
+	public Todo save(Todo item) {
+		return append(item.getId(), () -> delegate.save(item), Entry::save);
+	}
+
+	/**
+	 * Saves and appends all todos, and only waits for them to become durable
+	 * once per batch.
+	 */
+	@Override
+	public List<Todo> saveAll(List<Todo> items) {
+
+		var result = new ArrayList<Todo>(items.size());
+		var written = new ArrayList<CompletableFuture<Long>>(items.size());
+
+		for (var item : items) {
+			try {
+
+				var applied = apply(item.getId(), () -> delegate.save(item), Entry::save);
+
+				result.add(applied.result());
+				written.add(applied.written());
+
+			} catch (OptimisticLockingFailureException e) {
+				// Skipped
+			}
+		}
+
+		return awaitDurable(written, result);
+	}
+
+	@Override
+	public Optional<Todo> update(UUID id, long expectedVersion, UnaryOperator<Todo> update) {
+		return append(id, () -> delegate.update(id, expectedVersion, update), result -> result.map(Entry::save).orElse(null));
+	}
+
+	@Override
+	public Optional<Todo> replace(Todo todo, long expectedVersion) {
+		return append(todo.getId(), () -> delegate.replace(todo, expectedVersion), result -> result.map(Entry::save).orElse(null));
+	}
+
+	@Override
+	public Optional<Todo> deleteById(UUID id) {
+		return append(id, () -> delegate.deleteById(id), result -> result.map(Entry::delete).orElse(null));
+	}
+
+	@Override
+	public List<Todo> deleteAllByCompleted(boolean completed) {
+
+		var result = new ArrayList<Todo>();
+		var written = new ArrayList<CompletableFuture<Long>>();
+
+		for (var todo : delegate.findByCompleted(completed, Sort.unsorted()).toList()) {
+
+			// Re-read under the lock, as the todo might have changed since the query
+			var applied = apply(todo.getId(), () -> delegate.findById(todo.getId())
+					.filter(it -> it.isCompleted() == completed)
+					.flatMap(it -> delegate.deleteById(it.getId())), deleted -> deleted.map(Entry::delete).orElse(null));
+
+			applied.result().ifPresent(result::add);
+			written.add(applied.written());
+		}
+
+		return awaitDurable(written, result);
+	}
+
+	@Override
+	public List<Todo> setCompletedForAll(boolean completed) {
+
+		var result = new ArrayList<Todo>();
+		var written = new ArrayList<CompletableFuture<Long>>();
+
+		for (var todo : delegate.findByCompleted(!completed, Sort.unsorted()).toList()) {
+
+			// Re-read under the lock, as the todo might have changed since the query
+			var applied = apply(todo.getId(), () -> delegate.findById(todo.getId())
+					.filter(it -> it.isCompleted() != completed)
+					.flatMap(it -> delegate.update(it.getId(), it.getVersion(), current -> current.withCompleted(completed))),
+					updated -> updated.map(Entry::save).orElse(null));
+
+			applied.result().ifPresent(result::add);
+			written.add(applied.written());
+		}
+
+		return awaitDurable(written, result);
+	}
+
+	@Override
+	public Streamable<Todo> findAll(Sort sort) {
+		return delegate.findAll(sort);
+	}
+
+	@Override
+	public Streamable<Todo> findByCompleted(boolean completed, Sort sort) {
+		return delegate.findByCompleted(completed, sort);
+	}
+
+	@Override
+	public Window<Todo> findAll(KeysetScrollPosition position, Limit limit) {
+		return delegate.findAll(position, limit);
+	}
+
+	@Override
+	public Window<Todo> findByCompleted(boolean completed, KeysetScrollPosition position, Limit limit) {
+		return delegate.findByCompleted(completed, position, limit);
+	}
+
+	@Override
+	public long version() {
+		return delegate.version();
+	}
+
+	@Override
+	public long count() {
+		return delegate.count();
+	}
+
+	@Override
+	public long countByCompleted(boolean completed) {
+		return delegate.countByCompleted(completed);
+	}
+
+	/**
+	 * Writes the current state as a snapshot and drops the journal files it
+	 * supersedes. The store is streamed to disk after the journal has been
+	 * rotated, while writes continue, so the snapshot may already contain some
+	 * of the changes of the new generation, which are then skipped on replay.
+	 */
+	void snapshot() throws IOException {
+
+		var rotated = journal.rotate();
+
+		entriesSinceSnapshot.set(0);
+
+		long generation;
+
+		try {
+			generation = rotated.join();
+		} catch (CompletionException e) {
+			throw new IOException("Failed to rotate the todo journal", e.getCause());
+		}
+
+		journal.writeSnapshot(generation, delegate.findAll(Sort.unsorted()).map(Entry::save));
+	}
+
+	/**
+	 * Applies the given change and appends the entry derived from its result, if
+	 * any, i.e. the function may return {@literal null} if nothing changed.
+	 */
+	private <T> T append(UUID id, Supplier<T> change, Function<T, Entry> entry) {
+
+		var applied = apply(id, change, entry);
+		var written = new ArrayList<CompletableFuture<Long>>(1);
+
+		written.add(applied.written());
+
+		return awaitDurable(written, applied.result());
+	}
+
+	/**
+	 * Applies the given change and enqueues the entry derived from its result
+	 * without waiting for it to be written.
+	 */
+	private <T> Applied<T> apply(UUID id, Supplier<T> change, Function<T, Entry> entry) {
+
+		synchronized (stripes[Math.floorMod(id.hashCode(), STRIPES)]) {
+
+			if (failure != null) {
+				throw new DataAccessResourceFailureException("Todo journal failed, no longer accepting changes", failure);
+			}
+
+			var result = change.get();
+			var appended = entry.apply(result);
+
+			return new Applied<>(result, appended != null ? journal.append(appended) : null);
+		}
+	}
+
+	/**
+	 * Waits for the given writes, which may contain {@literal null} for changes
+	 * that didn't append anything.
+	 */
+	private <T> T awaitDurable(List<CompletableFuture<Long>> written, T result) {
+
+		var pending = written.stream().filter(Objects::nonNull).toList();
+
+		if (pending.isEmpty()) {
+			return result;
+		}
+
+		try {
+			CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).join();
+		} catch (CompletionException e) {
+			failure = e.getCause();
+			throw new DataAccessResourceFailureException("Failed to journal todo changes", e.getCause());
+		}
+
+		if (entriesSinceSnapshot.addAndGet(pending.size()) >= snapshotThreshold
+				&& snapshotting.compareAndSet(false, true)) {
+			journal.snapshots().execute(() -> {
+				try {
+					snapshot();
+				} catch (IOException | UncheckedIOException e) {
+					logger.error("Failed to write todo snapshot", e);
+				} finally {
+					snapshotting.set(false);
+				}
+			});
+		}
+
+		return result;
+	}
+
+	/**
+	 * The result of a change and the pending write of its journal entry, if any.
+	 */
+	private record Applied<T>(T result, @Nullable CompletableFuture<Long> written) {
+	}
+}
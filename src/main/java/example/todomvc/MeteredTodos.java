@@ -0,0 +1,192 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+import org.springframework.data.util.Streamable;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * {@link Todos} decorator recording a {@code todos.store} timer per operation.
+ * Timers are registered up front so that recording doesn't need a registry
+ * lookup. Queries are lazy, so their timer records the time spent inside the
+ * store while iterating, recorded once the iteration is exhausted.
+ */
+class MeteredTodos implements Todos {
+
+	static final String METRIC_NAME = "todos.store";
+
+	private final Todos delegate;
+	private final Timer findById, save, saveAll, update, replace, delete, deleteAllByCompleted, setCompletedForAll,
+			findAll, findByCompleted, findAllWindow, findByCompletedWindow, count, countByCompleted;
+
+	MeteredTodos(Todos delegate, MeterRegistry registry) {
+
+		this.delegate = delegate;
+		this.findById = timer(registry, "findById");
+		this.save = timer(registry, "save");
+		this.saveAll = timer(registry, "saveAll");
+		this.update = timer(registry, "update");
+		this.replace = timer(registry, "replace");
+		this.delete = timer(registry, "delete");
+		this.deleteAllByCompleted = timer(registry, "deleteAllByCompleted");
+		this.setCompletedForAll = timer(registry, "setCompletedForAll");
+		this.findAll = timer(registry, "findAll");
+		this.findByCompleted = timer(registry, "findByCompleted");
+		this.findAllWindow = timer(registry, "findAllWindow");
+		this.findByCompletedWindow = timer(registry, "findByCompletedWindow");
+		this.count = timer(registry, "count");
+		this.countByCompleted = timer(registry, "countByCompleted");
+	}
+
+	@Override
+	public Optional<Todo> findById(UUID id) {
+		return findById.record(() -> delegate.findById(id));
+	}
+
+	@Override
+	public Todo save(Todo item) {
+		return save.record(() -> delegate.save(item));
+	}
+
+	@Override
+	public List<Todo> saveAll(List<Todo> items) {
+		return saveAll.record(() -> delegate.saveAll(items));
+	}
+
+	@Override
+	public Optional<Todo> update(UUID id, long expectedVersion, UnaryOperator<Todo> update) {
+		return this.update.record(() -> delegate.update(id, expectedVersion, update));
+	}
+
+	@Override
+	public Optional<Todo> replace(Todo todo, long expectedVersion) {
+		return replace.record(() -> delegate.replace(todo, expectedVersion));
+	}
+
+	@Override
+	public Optional<Todo> deleteById(UUID id) {
+		return delete.record(() -> delegate.deleteById(id));
+	}
+
+	@Override
+	public List<Todo> deleteAllByCompleted(boolean completed) {
+		return deleteAllByCompleted.record(() -> delegate.deleteAllByCompleted(completed));
+	}
+
+	@Override
+	public List<Todo> setCompletedForAll(boolean completed) {
+		return setCompletedForAll.record(() -> delegate.setCompletedForAll(completed));
+	}
+
+	@Override
+	public Streamable<Todo> findAll(Sort sort) {
+		return timed(findAll, delegate.findAll(sort));
+	}
+
+	@Override
+	public Streamable<Todo> findByCompleted(boolean completed, Sort sort) {
+		return timed(findByCompleted, delegate.findByCompleted(completed, sort));
+	}
+
+	@Override
+	public Window<Todo> findAll(KeysetScrollPosition position, Limit limit) {
+		return findAllWindow.record(() -> delegate.findAll(position, limit));
+	}
+
+	@Override
+	public Window<Todo> findByCompleted(boolean completed, KeysetScrollPosition position, Limit limit) {
+		return findByCompletedWindow.record(() -> delegate.findByCompleted(completed, position, limit));
+	}
+
+	@Override
+	public long version() {
+		return delegate.version();
+	}
+
+	@Override
+	public long count() {
+		return count.record(delegate::count);
+	}
+
+	@Override
+	public long countByCompleted(boolean completed) {
+		return countByCompleted.record(() -> delegate.countByCompleted(completed));
+	}
+
+	private static Timer timer(MeterRegistry registry, String operation) {
+		return Timer.builder(METRIC_NAME).tag("operation", operation).register(registry);
+	}
+
+	/**
+	 * Wraps the given lazy query result so that only the time spent in the store
+	 * itself, i.e. in creating and advancing the iterator, is recorded, but not
+	 * the time the caller takes to process each todo in between.
+	 */
+	private static Streamable<Todo> timed(Timer timer, Streamable<Todo> result) {
+
+		Iterable<Todo> timed = () -> new Iterator<>() {
+
+			private long elapsed;
+			private boolean recorded;
+			private final Iterator<Todo> iterator = time(result::iterator);
+
+			@Override
+			public boolean hasNext() {
+
+				boolean hasNext = time(iterator::hasNext);
+
+				if (!hasNext && !recorded) {
+					recorded = true;
+					timer.record(elapsed, TimeUnit.NANOSECONDS);
+				}
+
+				return hasNext;
+			}
+
+			@Override
+			public Todo next() {
+				return time(iterator::next);
+			}
+
+			private <T> T time(Supplier<T> action) {
+
+				long start = System.nanoTime();
+
+				try {
+					return action.get();
+				} finally {
+					elapsed += System.nanoTime() - start;
+				}
+			}
+		};
+
+		return Streamable.of(timed);
+	}
+}
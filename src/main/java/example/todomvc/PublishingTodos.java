@@ -0,0 +1,153 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.UnaryOperator;
+
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+import org.springframework.data.util.Streamable;
+
+/**
+ * {@link Todos} decorator publishing a {@link TodoChange} to {@link TodoChanges}
+ * for every todo saved or deleted, after the delegate has returned. Queries are
+ * passed through as is.
+ */
+class PublishingTodos implements Todos {
+
+	private final Todos delegate;
+	private final TodoChanges changes;
+
+	PublishingTodos(Todos delegate, TodoChanges changes) {
+		this.delegate = delegate;
+		this.changes = changes;
+	}
+
+	@Override
+	public Optional<Todo> findById(UUID id) {
+		return delegate.findById(id);
+	}
+
+	@Override
+	public Todo save(Todo item) {
+
+		var result = delegate.save(item);
+
+		changes.publish(TodoChange.saved(result));
+
+		return result;
+	}
+
+	@Override
+	public List<Todo> saveAll(List<Todo> items) {
+
+		var result = delegate.saveAll(items);
+
+		result.forEach(todo -> changes.publish(TodoChange.saved(todo)));
+
+		return result;
+	}
+
+	@Override
+	public Optional<Todo> update(UUID id, long expectedVersion, UnaryOperator<Todo> update) {
+
+		var result = delegate.update(id, expectedVersion, update);
+
+		result.map(TodoChange::saved).ifPresent(changes::publish);
+
+		return result;
+	}
+
+	@Override
+	public Optional<Todo> replace(Todo todo, long expectedVersion) {
+
+		var result = delegate.replace(todo, expectedVersion);
+
+		result.map(TodoChange::saved).ifPresent(changes::publish);
+
+		return result;
+	}
+
+	@Override
+	public Optional<Todo> deleteById(UUID id) {
+
+		var result = delegate.deleteById(id);
+
+		result.map(TodoChange::deleted).ifPresent(changes::publish);
+
+		return result;
+	}
+
+	@Override
+	public List<Todo> deleteAllByCompleted(boolean completed) {
+
+		var result = delegate.deleteAllByCompleted(completed);
+
+		result.forEach(todo -> changes.publish(TodoChange.deleted(todo)));
+
+		return result;
+	}
+
+	@Override
+	public List<Todo> setCompletedForAll(boolean completed) {
+
+		var result = delegate.setCompletedForAll(completed);
+
+		result.forEach(todo -> changes.publish(TodoChange.saved(todo)));
+
+		return result;
+	}
+
+	@Override
+	public Streamable<Todo> findAll(Sort sort) {
+		return delegate.findAll(sort);
+	}
+
+	@Override
+	public Streamable<Todo> findByCompleted(boolean completed, Sort sort) {
+		return delegate.findByCompleted(completed, sort);
+	}
+
+	@Override
+	public Window<Todo> findAll(KeysetScrollPosition position, Limit limit) {
+		return delegate.findAll(position, limit);
+	}
+
+	@Override
+	public Window<Todo> findByCompleted(boolean completed, KeysetScrollPosition position, Limit limit) {
+		return delegate.findByCompleted(completed, position, limit);
+	}
+
+	@Override
+	public long version() {
+		return delegate.version();
+	}
+
+	@Override
+	public long count() {
+		return delegate.count();
+	}
+
+	@Override
+	public long countByCompleted(boolean completed) {
+		return delegate.countByCompleted(completed);
+	}
+}
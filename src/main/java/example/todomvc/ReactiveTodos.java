@@ -0,0 +1,76 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.function.UnaryOperator;
+
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking variant of {@link Todos} for use on the WebFlux request path.
+ *
+ * @see ReactiveTodosAdapter
+ */
+public interface ReactiveTodos {
+
+	Mono<Todo> findById(UUID id);
+
+	Mono<Todo> save(Todo item);
+
+	/**
+	 * @see Todos#saveAll(List)
+	 */
+	Flux<Todo> saveAll(List<Todo> items);
+
+	/**
+	 * @see Todos#update(UUID, UnaryOperator)
+	 */
+	Mono<Todo> update(UUID id, UnaryOperator<Todo> update);
+
+	Mono<Todo> delete(Todo item);
+
+	Flux<Todo> deleteAllByCompleted(boolean completed);
+
+	Flux<Todo> setCompletedForAll(boolean completed);
+
+	Flux<Todo> findAll(Sort sort);
+
+	Flux<Todo> findByCompleted(boolean completed, Sort sort);
+
+	Mono<Window<Todo>> findAll(KeysetScrollPosition position, Limit limit);
+
+	Mono<Window<Todo>> findByCompleted(boolean completed, KeysetScrollPosition position, Limit limit);
+
+	/**
+	 * Returns the version of the underlying store. As that never blocks, it's
+	 * read directly instead of through a publisher.
+	 *
+	 * @see Todos#version()
+	 */
+	long version();
+
+	Mono<Long> count();
+
+	Mono<Long> countByCompleted(boolean completed);
+}
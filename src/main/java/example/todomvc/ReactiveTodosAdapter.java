@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.function.UnaryOperator;
+
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * {@link ReactiveTodos} on top of a {@link Todos} store. All calls are deferred
+ * until subscription and results are emitted lazily as the underlying index is
+ * iterated instead of being collected up front. The work is subscribed on the
+ * configured {@link Scheduler}: inline on the calling thread for the in-memory
+ * store, which never blocks, or offloaded from the event loop otherwise.
+ *
+ * @see TodoProperties#execution()
+ */
+@RequiredArgsConstructor
+class ReactiveTodosAdapter implements ReactiveTodos {
+
+	private final Todos todos;
+	private final Scheduler scheduler;
+
+	@Override
+	public Mono<Todo> findById(UUID id) {
+		return Mono.defer(() -> Mono.justOrEmpty(todos.findById(id))).subscribeOn(scheduler);
+	}
+
+	@Override
+	public Mono<Todo> save(Todo item) {
+		return Mono.fromSupplier(() -> todos.save(item)).subscribeOn(scheduler);
+	}
+
+	@Override
+	public Flux<Todo> saveAll(List<Todo> items) {
+		return Flux.defer(() -> Flux.fromIterable(todos.saveAll(items))).subscribeOn(scheduler);
+	}
+
+	@Override
+	public Mono<Todo> update(UUID id, UnaryOperator<Todo> update) {
+		return Mono.defer(() -> Mono.justOrEmpty(todos.update(id, update))).subscribeOn(scheduler);
+	}
+
+	@Override
+	public Mono<Todo> delete(Todo item) {
+		return Mono.fromSupplier(() -> todos.delete(item)).subscribeOn(scheduler);
+	}
+
+	@Override
+	public Flux<Todo> deleteAllByCompleted(boolean completed) {
+		return Flux.defer(() -> Flux.fromIterable(todos.deleteAllByCompleted(completed))).subscribeOn(scheduler);
+	}
+
+	@Override
+	public Flux<Todo> setCompletedForAll(boolean completed) {
+		return Flux.defer(() -> Flux.fromIterable(todos.setCompletedForAll(completed))).subscribeOn(scheduler);
+	}
+
+	@Override
+	public Flux<Todo> findAll(Sort sort) {
+		return Flux.defer(() -> Flux.fromIterable(todos.findAll(sort))).subscribeOn(scheduler);
+	}
+
+	@Override
+	public Flux<Todo> findByCompleted(boolean completed, Sort sort) {
+		return Flux.defer(() -> Flux.fromIterable(todos.findByCompleted(completed, sort))).subscribeOn(scheduler);
+	}
+
+	@Override
+	public Mono<Window<Todo>> findAll(KeysetScrollPosition position, Limit limit) {
+		return Mono.fromSupplier(() -> todos.findAll(position, limit)).subscribeOn(scheduler);
+	}
+
+	@Override
+	public Mono<Window<Todo>> findByCompleted(boolean completed, KeysetScrollPosition position, Limit limit) {
+		return Mono.fromSupplier(() -> todos.findByCompleted(completed, position, limit)).subscribeOn(scheduler);
+	}
+
+	@Override
+	public long version() {
+		return todos.version();
+	}
+
+	@Override
+	public Mono<Long> count() {
+		return Mono.fromSupplier(todos::count).subscribeOn(scheduler);
+	}
+
+	@Override
+	public Mono<Long> countByCompleted(boolean completed) {
+		return Mono.fromSupplier(() -> todos.countByCompleted(completed)).subscribeOn(scheduler);
+	}
+}
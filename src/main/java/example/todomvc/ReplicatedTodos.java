@@ -0,0 +1,325 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.UnaryOperator;
+
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+import org.springframework.data.util.Streamable;
+
+/**
+ * {@link Todos} decorator sending every todo saved or deleted to the peers of
+ * a {@link TodoReplication}, and applying the changes received from them to the
+ * delegate. Queries are served by the delegate as is.
+ * <p>
+ * A change received only replaces the local todo if it
+ * {@link TodoChange#supersedes(TodoChange) supersedes} it: later versions win
+ * and deletions win over saves of the same version. Concurrent saves of the
+ * same version on two nodes are resolved in favour of the node with the higher
+ * id, so that all nodes end up with the same todo.
+ * <p>
+ * As a deleted todo is gone from the delegate, the version it was deleted at is
+ * kept as a tombstone, and saves received for it are only applied if they
+ * supersede the deletion. That way a save crossing a deletion of the same
+ * version on the wire doesn't bring the todo back on the node that deleted it,
+ * while the other node deletes it. Tombstones are kept for
+ * {@value #TOMBSTONE_MINUTES} minutes and for the last
+ * {@value #MAX_TOMBSTONES} deletions at most, so saves delayed any longer
+ * than that may still resurrect a todo.
+ */
+class ReplicatedTodos implements Todos {
+
+	private static final int MAX_TOMBSTONES = 10_000;
+
+	private static final long TOMBSTONE_MINUTES = 10;
+
+	private static final long TOMBSTONE_NANOS = Duration.ofMinutes(TOMBSTONE_MINUTES).toNanos();
+
+	private final String tenant;
+	private final Todos delegate;
+	private final TodoReplication replication;
+
+	// By id, in the order of deletion, guarding deletions and inserts of todos
+	// received as well
+	private final Map<UUID, Tombstone> tombstones = new LinkedHashMap<>() {
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<UUID, Tombstone> eldest) {
+			return size() > MAX_TOMBSTONES;
+		}
+	};
+
+	ReplicatedTodos(String tenant, Todos delegate, TodoReplication replication) {
+
+		this.tenant = tenant;
+		this.delegate = delegate;
+		this.replication = replication;
+	}
+
+	@Override
+	public Optional<Todo> findById(UUID id) {
+		return delegate.findById(id);
+	}
+
+	@Override
+	public Todo save(Todo item) {
+
+		var result = delegate.save(item);
+
+		replication.send(tenant, TodoChange.saved(result));
+
+		return result;
+	}
+
+	@Override
+	public List<Todo> saveAll(List<Todo> items) {
+
+		var result = delegate.saveAll(items);
+
+		result.forEach(todo -> replication.send(tenant, TodoChange.saved(todo)));
+
+		return result;
+	}
+
+	@Override
+	public Optional<Todo> update(UUID id, long expectedVersion, UnaryOperator<Todo> update) {
+
+		var result = delegate.update(id, expectedVersion, update);
+
+		result.ifPresent(todo -> replication.send(tenant, TodoChange.saved(todo)));
+
+		return result;
+	}
+
+	@Override
+	public Optional<Todo> replace(Todo todo, long expectedVersion) {
+
+		var result = delegate.replace(todo, expectedVersion);
+
+		result.ifPresent(it -> replication.send(tenant, TodoChange.saved(it)));
+
+		return result;
+	}
+
+	@Override
+	public Optional<Todo> deleteById(UUID id) {
+
+		Optional<Todo> result;
+
+		synchronized (tombstones) {
+			result = delegate.deleteById(id);
+			result.ifPresent(this::bury);
+		}
+
+		result.ifPresent(todo -> replication.send(tenant, TodoChange.deleted(todo)));
+
+		return result;
+	}
+
+	@Override
+	public List<Todo> deleteAllByCompleted(boolean completed) {
+
+		List<Todo> result;
+
+		synchronized (tombstones) {
+			result = delegate.deleteAllByCompleted(completed);
+			result.forEach(this::bury);
+		}
+
+		result.forEach(todo -> replication.send(tenant, TodoChange.deleted(todo)));
+
+		return result;
+	}
+
+	@Override
+	public List<Todo> setCompletedForAll(boolean completed) {
+
+		var result = delegate.setCompletedForAll(completed);
+
+		result.forEach(todo -> replication.send(tenant, TodoChange.saved(todo)));
+
+		return result;
+	}
+
+	@Override
+	public Streamable<Todo> findAll(Sort sort) {
+		return delegate.findAll(sort);
+	}
+
+	@Override
+	public Streamable<Todo> findByCompleted(boolean completed, Sort sort) {
+		return delegate.findByCompleted(completed, sort);
+	}
+
+	@Override
+	public Window<Todo> findAll(KeysetScrollPosition position, Limit limit) {
+		return delegate.findAll(position, limit);
+	}
+
+	@Override
+	public Window<Todo> findByCompleted(boolean completed, KeysetScrollPosition position, Limit limit) {
+		return delegate.findByCompleted(completed, position, limit);
+	}
+
+	@Override
+	public long version() {
+		return delegate.version();
+	}
+
+	@Override
+	public long count() {
+		return delegate.count();
+	}
+
+	@Override
+	public long countByCompleted(boolean completed) {
+		return delegate.countByCompleted(completed);
+	}
+
+	/**
+	 * Applies a change received from another node to the delegate, without
+	 * sending it on, unless the local todo is newer.
+	 *
+	 * @param winsTies whether the other node's saves win over local saves of the
+	 *                 same version, i.e. whether it has the higher node id
+	 * @return whether the change was applied
+	 */
+	boolean apply(TodoChange change, boolean winsTies) {
+
+		var remote = change.todo();
+
+		while (true) {
+
+			var local = delegate.findById(remote.getId());
+
+			try {
+
+				if (local.isEmpty()) {
+					return applyAbsent(change);
+				}
+
+				var current = local.get();
+
+				if (!change.supersedes(TodoChange.saved(current))) {
+					return false;
+				}
+
+				if (change.deleted()) {
+					synchronized (tombstones) {
+						var deleted = delegate.deleteById(current.getId());
+						deleted.ifPresent(this::bury);
+						return deleted.isPresent();
+					}
+				}
+
+				if (remote.getVersion() == current.getVersion() && (sameContent(remote, current) || !winsTies)) {
+					return false;
+				}
+
+				// Adopt the remote version, which may be further ahead or the same for ties,
+				// and try again should the todo have been deleted locally in the meantime
+				if (delegate.replace(remote, current.getVersion()).isPresent()) {
+					return true;
+				}
+
+			} catch (OptimisticLockingFailureException e) {
+				// Changed locally in the meantime, try again against the latest version
+			}
+		}
+	}
+
+	/**
+	 * Applies a change to a todo that doesn't exist locally: deletions are only
+	 * remembered, and saves are stored unless the todo was deleted at the same or
+	 * a later version.
+	 */
+	private boolean applyAbsent(TodoChange change) {
+
+		var remote = change.todo();
+
+		synchronized (tombstones) {
+
+			expire();
+
+			var tombstone = tombstones.get(remote.getId());
+
+			if (tombstone != null && !change.supersedes(TodoChange.deleted(remote.withVersion(tombstone.version())))) {
+				return false;
+			}
+
+			if (change.deleted()) {
+				bury(remote);
+				return false;
+			}
+
+			// Other nodes' todos are stored as they are, including their version, the
+			// todo may have been created locally in the meantime though
+			if (delegate.findById(remote.getId()).isPresent()) {
+				throw new OptimisticLockingFailureException("Todo " + remote.getId() + " was created concurrently");
+			}
+
+			delegate.save(remote);
+			tombstones.remove(remote.getId());
+
+			return true;
+		}
+	}
+
+	private void bury(Todo todo) {
+
+		expire();
+
+		// Re-inserted to keep the order of deletion for expiry
+		tombstones.remove(todo.getId());
+		tombstones.put(todo.getId(), new Tombstone(todo.getVersion(), System.nanoTime()));
+	}
+
+	private void expire() {
+
+		long now = System.nanoTime();
+
+		for (var iterator = tombstones.values().iterator(); iterator.hasNext() && iterator.next().isExpired(now);) {
+			iterator.remove();
+		}
+	}
+
+	Todos delegate() {
+		return delegate;
+	}
+
+	private record Tombstone(long version, long deletedAt) {
+
+		boolean isExpired(long now) {
+			return now - deletedAt > TOMBSTONE_NANOS;
+		}
+	}
+
+	private static boolean sameContent(Todo left, Todo right) {
+
+		return left.getTitle().equals(right.getTitle()) && left.isCompleted() == right.isCompleted()
+				&& left.getCreated().equals(right.getCreated());
+	}
+}
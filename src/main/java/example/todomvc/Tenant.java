@@ -0,0 +1,85 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc;
+
+import java.io.IOException;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * The todos of a single tenant, e.g. a user: a {@link Todos} store of its own,
+ * along with the {@link TodoChanges} made to it and the {@link TitleIndex} of
+ * its titles. Nothing a tenant does touches the data of any other tenant, nor
+ * contends on the same locks.
+ *
+ * @see Tenants
+ */
+public final class Tenant {
+
+	private final String id;
+	private final Todos todos;
+	private final ReactiveTodos reactive;
+	private final TodoChanges changes;
+	private final TitleIndex index;
+
+	@Nullable
+	private final TodoJournal journal;
+
+	Tenant(String id, Todos todos, ReactiveTodos reactive, TodoChanges changes, TitleIndex index,
+			@Nullable TodoJournal journal) {
+
+		this.id = id;
+		this.todos = todos;
+		this.reactive = reactive;
+		this.changes = changes;
+		this.index = index;
+		this.journal = journal;
+	}
+
+	public String id() {
+		return id;
+	}
+
+	public Todos todos() {
+		return todos;
+	}
+
+	public ReactiveTodos reactive() {
+		return reactive;
+	}
+
+	public TodoChanges changes() {
+		return changes;
+	}
+
+	public TitleIndex index() {
+		return index;
+	}
+
+	void close() throws IOException {
+
+		index.close();
+
+		if (journal != null) {
+			journal.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Tenant " + id;
+	}
+}
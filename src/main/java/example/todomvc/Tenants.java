@@ -0,0 +1,191 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Shards the todos by tenant. Each {@link Tenant} gets a store of its own,
+ * created on first access, so that reads only scan the todos of the tenant
+ * asking and writes only contend with writes of the same tenant. Requests
+ * that don't name a tenant use the {@link #DEFAULT} one. As every tenant
+ * holds on to a store, tenants can be limited to a fixed set of ids and their
+ * number capped.
+ */
+public class Tenants implements AutoCloseable {
+
+	public static final String DEFAULT = "default";
+
+	// Also used as a directory name for journals, so no dots or slashes
+	private static final Pattern ID = Pattern.compile("[A-Za-z0-9][A-Za-z0-9_-]{0,63}");
+
+	private final Factory factory;
+	private final Set<String> allowed;
+	private final int max;
+	private final Map<String, CompletableFuture<Tenant>> tenants = new ConcurrentHashMap<>();
+	private final AtomicInteger reserved = new AtomicInteger();
+	private final List<Consumer<Tenant>> callbacks = new CopyOnWriteArrayList<>();
+
+	Tenants(Factory factory) {
+		this(factory, Set.of(), Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param factory creates the store of a tenant on first access
+	 * @param allowed the ids of the tenants to allow besides the
+	 *                {@link #DEFAULT} one, any valid id if empty
+	 * @param max     the number of tenants to create at most
+	 */
+	Tenants(Factory factory, Collection<String> allowed, int max) {
+		this.factory = factory;
+		this.allowed = Set.copyOf(allowed);
+		this.max = max;
+	}
+
+	/**
+	 * Returns whether the given id is valid for a tenant: up to 64 letters,
+	 * digits, dashes or underscores, starting with a letter or a digit.
+	 */
+	public static boolean isValid(String id) {
+		return ID.matcher(id).matches();
+	}
+
+	/**
+	 * Returns whether a tenant with the given id may be created: the id is
+	 * {@link #isValid(String) valid} and either the {@link #DEFAULT} one or
+	 * among the allowed ones, if any are configured.
+	 */
+	public boolean isAllowed(String id) {
+		return isValid(id) && (allowed.isEmpty() || id.equals(DEFAULT) || allowed.contains(id));
+	}
+
+	/**
+	 * Returns the tenant with the given id, creating its store the first time it
+	 * is asked for. The store is created outside of the underlying map, so only
+	 * callers asking for the same tenant wait for that, and a failed creation is
+	 * tried again by the next caller.
+	 *
+	 * @throws IllegalArgumentException if the id is not
+	 *                                  {@link #isAllowed(String) allowed}
+	 * @throws IllegalStateException    if the tenant doesn't exist yet and the
+	 *                                  maximum number of tenants has been reached
+	 */
+	public Tenant get(String id) {
+
+		var existing = tenants.get(id);
+
+		if (existing != null) {
+			return join(existing);
+		}
+
+		if (!isAllowed(id)) {
+			throw new IllegalArgumentException("Unknown tenant id " + id);
+		}
+
+		if (reserved.incrementAndGet() > max) {
+			reserved.decrementAndGet();
+			throw new IllegalStateException("Cannot create more than " + max + " tenants");
+		}
+
+		var created = new CompletableFuture<Tenant>();
+
+		existing = tenants.putIfAbsent(id, created);
+
+		if (existing != null) {
+			reserved.decrementAndGet();
+			return join(existing);
+		}
+
+		Tenant tenant;
+
+		try {
+			tenant = factory.create(id);
+		} catch (IOException | RuntimeException e) {
+
+			tenants.remove(id, created);
+			reserved.decrementAndGet();
+			created.completeExceptionally(e);
+
+			throw e instanceof IOException io ? new UncheckedIOException(io) : (RuntimeException) e;
+		}
+
+		created.complete(tenant);
+		callbacks.forEach(it -> it.accept(tenant));
+
+		return tenant;
+	}
+
+	/**
+	 * Calls the given callback with every tenant created so far and every one
+	 * created from now on. A tenant created while the callback is being
+	 * registered may be passed to it twice.
+	 */
+	public void onTenant(Consumer<Tenant> callback) {
+
+		callbacks.add(callback);
+		created().forEach(callback);
+	}
+
+	int size() {
+		return (int) created().count();
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		for (var tenant : created().toList()) {
+			tenant.close();
+		}
+	}
+
+	private Stream<Tenant> created() {
+
+		return tenants.values().stream()
+				.filter(it -> it.isDone() && !it.isCompletedExceptionally())
+				.map(CompletableFuture::join);
+	}
+
+	private static Tenant join(CompletableFuture<Tenant> tenant) {
+
+		try {
+			return tenant.join();
+		} catch (CompletionException e) {
+			throw e.getCause() instanceof IOException io ? new UncheckedIOException(io)
+					: e.getCause() instanceof RuntimeException runtime ? runtime : e;
+		}
+	}
+
+	/**
+	 * Creates the store of a tenant, restoring it from disk if need be.
+	 */
+	interface Factory {
+
+		Tenant create(String id) throws IOException;
+	}
+}
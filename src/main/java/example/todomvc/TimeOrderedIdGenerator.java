@@ -0,0 +1,82 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc;
+
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.lang.Nullable;
+import org.springframework.util.IdGenerator;
+
+/**
+ * {@link IdGenerator} for version 7 UUIDs as defined by RFC 9562: a 48 bit Unix
+ * timestamp in milliseconds, followed by a 12 bit counter and 62 random bits.
+ * <p>
+ * Ids generated by the same instance are strictly increasing, also across
+ * threads: the timestamp and counter are advanced together through a single
+ * atomic, and if the counter overflows within a millisecond the timestamp is
+ * moved ahead rather than waiting for the clock. The random bits come from
+ * {@link ThreadLocalRandom}, which is neither shared nor cryptographically
+ * strong, so generating an id never contends on a {@link java.security.SecureRandom}
+ * like {@link UUID#randomUUID()} does. Ids are thus unique, but guessable.
+ * <p>
+ * Ids are only ordered per instance, so everything generating ids for todos
+ * uses the {@link #shared()} one.
+ */
+public final class TimeOrderedIdGenerator implements IdGenerator {
+
+	private static final int COUNTER_BITS = 12;
+	private static final long COUNTER_MASK = (1L << COUNTER_BITS) - 1;
+	private static final long VERSION = 7L << 12;
+	private static final long VARIANT = 0x8000000000000000L;
+	private static final long RANDOM_MASK = 0x3FFFFFFFFFFFFFFFL;
+
+	private static final TimeOrderedIdGenerator SHARED = new TimeOrderedIdGenerator();
+
+	private final AtomicLong last = new AtomicLong();
+
+	/**
+	 * Returns the instance shared by {@link Todo#Todo(String)} and the default
+	 * id generator bean, so that all ids for todos of a node are ordered.
+	 */
+	public static TimeOrderedIdGenerator shared() {
+		return SHARED;
+	}
+
+	@Override
+	public UUID generateId() {
+
+		long candidate = System.currentTimeMillis() << COUNTER_BITS;
+		long next = last.accumulateAndGet(candidate, (previous, now) -> Math.max(previous + 1, now));
+
+		long mostSignificantBits = (next >>> COUNTER_BITS) << 16 | VERSION | next & COUNTER_MASK;
+		long leastSignificantBits = VARIANT | ThreadLocalRandom.current().nextLong() & RANDOM_MASK;
+
+		return new UUID(mostSignificantBits, leastSignificantBits);
+	}
+
+	/**
+	 * Returns the time embedded in the given id if it is time-ordered.
+	 *
+	 * @return the creation time, or {@literal null} for other kinds of ids
+	 */
+	@Nullable
+	static Instant timestamp(UUID id) {
+		return id.version() == 7 ? Instant.ofEpochMilli(id.getMostSignificantBits() >>> 16) : null;
+	}
+}
@@ -0,0 +1,439 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.data.domain.Sort;
+import org.springframework.lang.Nullable;
+
+import reactor.core.Disposable;
+
+/**
+ * In-memory trigram index over todo titles, answering substring queries
+ * without scanning all todos. Titles are lower-cased, whitespace collapsed and
+ * padded with a space on either side before being split into trigrams, each of
+ * which maps to the ascending list of documents containing it. A query is
+ * answered by intersecting the lists for its trigrams, smallest first, and
+ * checking the candidates against the title, until enough matches are found.
+ * Queries of two characters match the start of words only, as that's all a
+ * trigram including the padding can tell.
+ * <p>
+ * The index follows {@link TodoChanges}. Writers only queue their changes, which
+ * are applied in batches under the write lock by a task on the given executor,
+ * so writes never wait for the index and searches may lag behind them
+ * briefly. As changes may be published out of order, a change is only applied
+ * if it {@link TodoChange#supersedes(TodoChange) supersedes} the indexed
+ * version, and the versions todos were deleted at are remembered for a while,
+ * so that a save published after the deletion of the same todo doesn't bring
+ * it back. Every saved title gets a new document, the previous one is merely
+ * marked dead. Once dead documents outnumber live ones, the index is rebuilt
+ * from the live ones.
+ */
+public class TitleIndex implements AutoCloseable {
+
+	static final int MIN_QUERY_LENGTH = 2;
+
+	private static final int MIN_COMPACTION = 1024;
+	private static final int BATCH_SIZE = 256;
+	private static final int MAX_TOMBSTONES = 10_000;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Map<UUID, Integer> documents = new HashMap<>();
+	private final Queue<TodoChange> pending = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger scheduled = new AtomicInteger();
+	private final Executor executor;
+
+	// The version each recently deleted todo was deleted at
+	private final Map<UUID, Long> tombstones = new LinkedHashMap<>() {
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<UUID, Long> eldest) {
+			return size() > MAX_TOMBSTONES;
+		}
+	};
+
+	private Map<Long, Postings> postings = new HashMap<>();
+	private UUID[] ids = new UUID[1024];
+	private String[] titles = new String[1024];
+	private long[] versions = new long[1024];
+	private BitSet live = new BitSet();
+	private BitSet completed = new BitSet();
+	private int size;
+
+	@Nullable
+	private Disposable subscription;
+
+	private TitleIndex(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Creates an index of all todos in the given store that follows the changes
+	 * made to it from then on. Changes are subscribed to before the store is
+	 * read, and stale versions are ignored, so nothing is missed in between.
+	 *
+	 * @param executor runs the tasks applying changes to the index, off the
+	 *                 threads writing to the store
+	 */
+	public static TitleIndex of(Todos todos, TodoChanges changes, Executor executor) {
+
+		var index = new TitleIndex(executor);
+
+		index.subscription = changes.changes().subscribe(index::enqueue);
+		todos.findAll(Sort.unsorted()).forEach(index::save);
+
+		return index;
+	}
+
+	/**
+	 * Returns whether the given query is long enough to be looked up.
+	 */
+	public static boolean isSearchable(String query) {
+		return normalize(query).length() >= MIN_QUERY_LENGTH;
+	}
+
+	/**
+	 * Returns the ids of up to {@code limit} todos with titles containing the
+	 * given query, ignoring case, in the order they were last saved in.
+	 *
+	 * @param completed the completion state to restrict results to, or
+	 *                  {@literal null} for all todos
+	 */
+	public List<UUID> search(String query, @Nullable Boolean completed, int limit) {
+
+		var normalized = normalize(query);
+
+		if (normalized.length() < MIN_QUERY_LENGTH) {
+			return List.of();
+		}
+
+		// Short queries only match at the start of words
+		var needle = normalized.length() < 3 ? " " + normalized : normalized;
+
+		return InMemoryTodos.locked(lock.readLock(), () -> {
+
+			var lists = new ArrayList<Postings>();
+
+			for (long trigram : trigrams(needle)) {
+
+				var list = postings.get(trigram);
+
+				if (list == null) {
+					return List.<UUID> of();
+				}
+
+				lists.add(list);
+			}
+
+			lists.sort(Comparator.comparingInt(list -> list.size));
+
+			return intersect(lists, needle, completed, limit);
+		});
+	}
+
+	void save(Todo todo) {
+		apply(List.of(TodoChange.saved(todo)));
+	}
+
+	/**
+	 * Queues the given change and makes sure a task is draining the queue, unless
+	 * one is already, which then picks up this change, too.
+	 */
+	private void enqueue(TodoChange change) {
+
+		pending.offer(change);
+
+		if (scheduled.getAndIncrement() == 0) {
+			executor.execute(this::drain);
+		}
+	}
+
+	private void drain() {
+
+		int missed = 1;
+		var batch = new ArrayList<TodoChange>(BATCH_SIZE);
+
+		do {
+
+			TodoChange change;
+
+			while ((change = pending.poll()) != null) {
+
+				batch.add(change);
+
+				if (batch.size() == BATCH_SIZE) {
+					apply(batch);
+					batch.clear();
+				}
+			}
+
+			apply(batch);
+			batch.clear();
+
+			missed = scheduled.addAndGet(-missed);
+
+		} while (missed != 0);
+	}
+
+	/**
+	 * Applies the given changes under a single write lock, skipping the ones
+	 * superseded by what the index already knows about the todo.
+	 */
+	private void apply(List<TodoChange> changes) {
+
+		if (changes.isEmpty()) {
+			return;
+		}
+
+		InMemoryTodos.locked(lock.writeLock(), () -> {
+
+			for (var change : changes) {
+
+				var todo = change.todo();
+				var document = documents.get(todo.getId());
+				var tombstone = tombstones.get(todo.getId());
+
+				if (document != null && !change.supersedes(TodoChange.saved(todo.withVersion(versions[document])))
+						|| tombstone != null && !change.supersedes(TodoChange.deleted(todo.withVersion(tombstone)))) {
+					continue;
+				}
+
+				if (change.deleted()) {
+					delete(todo, document);
+				} else {
+					save(todo, document);
+				}
+			}
+
+			compactIfNecessary();
+
+			return null;
+		});
+	}
+
+	private void save(Todo todo, @Nullable Integer document) {
+
+		var title = " " + normalize(todo.getTitle()) + " ";
+
+		tombstones.remove(todo.getId());
+
+		if (document != null) {
+
+			if (titles[document].equals(title)) {
+				versions[document] = todo.getVersion();
+				completed.set(document, todo.isCompleted());
+				return;
+			}
+
+			live.clear(document);
+		}
+
+		add(todo.getId(), title, todo.getVersion(), todo.isCompleted());
+	}
+
+	private void delete(Todo todo, @Nullable Integer document) {
+
+		tombstones.put(todo.getId(), todo.getVersion());
+
+		if (document != null) {
+			documents.remove(todo.getId());
+			live.clear(document);
+		}
+	}
+
+	@Override
+	public void close() {
+
+		if (subscription != null) {
+			subscription.dispose();
+		}
+	}
+
+	private List<UUID> intersect(List<Postings> lists, String needle, @Nullable Boolean completed, int limit) {
+
+		var result = new ArrayList<UUID>(Math.min(limit, 64));
+		var smallest = lists.get(0);
+		var cursors = new int[lists.size()];
+
+		candidates: for (int i = 0; i < smallest.size && result.size() < limit; i++) {
+
+			int document = smallest.documents[i];
+
+			if (!live.get(document) || completed != null && this.completed.get(document) != completed) {
+				continue;
+			}
+
+			for (int j = 1; j < lists.size(); j++) {
+
+				var list = lists.get(j);
+
+				cursors[j] = list.seek(cursors[j], document);
+
+				if (cursors[j] == list.size) {
+					break candidates;
+				}
+
+				if (list.documents[cursors[j]] != document) {
+					continue candidates;
+				}
+			}
+
+			// The trigrams may occur in a different order than in the query
+			if (titles[document].contains(needle)) {
+				result.add(ids[document]);
+			}
+		}
+
+		return result;
+	}
+
+	private void add(UUID id, String title, long version, boolean completed) {
+
+		if (size == ids.length) {
+			int length = size + (size >> 1);
+			ids = Arrays.copyOf(ids, length);
+			titles = Arrays.copyOf(titles, length);
+			versions = Arrays.copyOf(versions, length);
+		}
+
+		int document = size++;
+
+		ids[document] = id;
+		titles[document] = title;
+		versions[document] = version;
+		live.set(document);
+		this.completed.set(document, completed);
+		documents.put(id, document);
+
+		for (long trigram : trigrams(title)) {
+			postings.computeIfAbsent(trigram, __ -> new Postings()).add(document);
+		}
+	}
+
+	/**
+	 * Renumbers the live documents from scratch once dead ones make up more than
+	 * half of the index, dropping trigrams no live title contains anymore.
+	 */
+	private void compactIfNecessary() {
+
+		int dead = size - documents.size();
+
+		if (dead < MIN_COMPACTION || dead <= documents.size()) {
+			return;
+		}
+
+		var previousIds = ids;
+		var previousTitles = titles;
+		var previousVersions = versions;
+		var previousLive = live;
+		var previousCompleted = completed;
+		int previousSize = size;
+
+		int capacity = Math.max(1024, documents.size() + (documents.size() >> 1));
+
+		postings = new HashMap<>();
+		ids = new UUID[capacity];
+		titles = new String[capacity];
+		versions = new long[capacity];
+		live = new BitSet();
+		completed = new BitSet();
+		size = 0;
+		documents.clear();
+
+		for (int i = 0; i < previousSize; i++) {
+			if (previousLive.get(i)) {
+				add(previousIds[i], previousTitles[i], previousVersions[i], previousCompleted.get(i));
+			}
+		}
+	}
+
+	private static String normalize(String text) {
+		return text.strip().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Returns the distinct trigrams of the given text, each packed into a
+	 * {@code long} as three UTF-16 code units.
+	 */
+	private static Set<Long> trigrams(String text) {
+
+		var result = new HashSet<Long>(Math.max(4, text.length() * 2));
+
+		for (int i = 0; i + 3 <= text.length(); i++) {
+			result.add((long) text.charAt(i) << 32 | (long) text.charAt(i + 1) << 16 | text.charAt(i + 2));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Ascending document numbers containing a trigram. Documents are numbered in
+	 * the order they are added, so appending keeps the list sorted.
+	 */
+	private static class Postings {
+
+		private int[] documents = new int[4];
+		private int size;
+
+		void add(int document) {
+
+			if (size == documents.length) {
+				documents = Arrays.copyOf(documents, size * 2);
+			}
+
+			documents[size++] = document;
+		}
+
+		/**
+		 * Returns the index of the first document not less than the given one,
+		 * starting at the given index. Gallops ahead before searching, as
+		 * intersections mostly move forward in small steps.
+		 */
+		int seek(int from, int document) {
+
+			int step = 1;
+			int high = from;
+
+			while (high < size && documents[high] < document) {
+				from = high + 1;
+				high += step;
+				step <<= 1;
+			}
+
+			int index = Arrays.binarySearch(documents, from, Math.min(high + 1, size), document);
+
+			return index >= 0 ? index : -index - 1;
+		}
+	}
+}
@@ -4,20 +4,46 @@ import java.time.Instant;
 import java.util.UUID;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.util.IdGenerator;
 
-public class Todo {
+/**
+ * An immutable todo. Changes create a copy that keeps the version of the
+ * original, the store only accepts the copy if that version is still current
+ * and assigns the next one when saving it.
+ * <p>
+ * New todos take their creation time from time-ordered ids, so that ordering
+ * todos by creation time and by id is the same thing.
+ */
+public final class Todo {
 
-	private @Id UUID id;
-	private String title;
-	private boolean completed;
-	private Instant created;
+	private final @Id UUID id;
+	private final String title;
+	private final boolean completed;
+	private final Instant created;
+	private final @Version long version;
 
+	/**
+	 * Creates a new todo with an id from the
+	 * {@link TimeOrderedIdGenerator#shared() shared} generator. Code that has
+	 * access to the configured {@link IdGenerator} should pass an id from that
+	 * instead.
+	 */
 	public Todo(String title) {
+		this(TimeOrderedIdGenerator.shared().generateId(), title);
+	}
+
+	public Todo(UUID id, String title) {
+		this(id, title, false, created(id), 0);
+	}
 
-		this.id = UUID.randomUUID();
+	public Todo(UUID id, String title, boolean completed, Instant created, long version) {
+
+		this.id = id;
 		this.title = title;
-		this.completed = false;
-		this.created = Instant.now();
+		this.completed = completed;
+		this.created = created;
+		this.version = version;
 	}
 
 	public UUID getId() {
@@ -36,10 +62,26 @@ public class Todo {
 		return created;
 	}
 
+	public long getVersion() {
+		return version;
+	}
+
 	public Todo toggleCompletion() {
+		return withCompleted(!completed);
+	}
+
+	public Todo withCompleted(boolean completed) {
+		return completed == this.completed ? this : new Todo(id, title, completed, created, version);
+	}
+
+	Todo withVersion(long version) {
+		return version == this.version ? this : new Todo(id, title, completed, created, version);
+	}
+
+	private static Instant created(UUID id) {
 
-		this.completed = !completed;
+		var timestamp = TimeOrderedIdGenerator.timestamp(id);
 
-		return this;
+		return timestamp != null ? timestamp : Instant.now();
 	}
 }
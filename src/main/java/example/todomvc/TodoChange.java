@@ -0,0 +1,48 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc;
+
+/**
+ * A change to a single todo as published by {@link TodoChanges}, carrying the
+ * todo as it was saved or right before it was deleted.
+ *
+ * @param todo    the changed todo
+ * @param deleted whether the todo was deleted rather than saved
+ */
+public record TodoChange(Todo todo, boolean deleted) {
+
+	static TodoChange saved(Todo todo) {
+		return new TodoChange(todo, false);
+	}
+
+	static TodoChange deleted(Todo todo) {
+		return new TodoChange(todo, true);
+	}
+
+	/**
+	 * Returns whether this change supersedes the given change to the same todo.
+	 * Changes are published after the store has applied them, so concurrent
+	 * writers may publish them out of order. Later versions win, and a deletion
+	 * wins over the save of the same version.
+	 */
+	public boolean supersedes(TodoChange other) {
+
+		long version = todo.getVersion();
+		long otherVersion = other.todo.getVersion();
+
+		return version != otherVersion ? version > otherVersion : deleted || !other.deleted;
+	}
+}
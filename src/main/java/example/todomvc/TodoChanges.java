@@ -0,0 +1,75 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+/**
+ * Broadcasts every change made through the {@link Todos} store once it has been
+ * applied. Writers never wait for subscribers or for each other: changes are
+ * dropped for subscribers that haven't requested any, and nobody sees changes
+ * made before they subscribed. Subscribers are expected to buffer and coalesce
+ * on their own, and to move anything expensive off the publishing thread.
+ *
+ * @see PublishingTodos
+ */
+public class TodoChanges {
+
+	private final Sinks.Many<TodoChange> sink = Sinks.many().multicast().directBestEffort();
+	private final Queue<TodoChange> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pending = new AtomicInteger();
+
+	public Flux<TodoChange> changes() {
+		return sink.asFlux();
+	}
+
+	/**
+	 * Emissions into the sink must not overlap. Rather than having concurrent
+	 * writers wait for each other, every change is queued, and whichever writer
+	 * finds no emission in progress emits the queued changes until none are
+	 * left, including those queued by others meanwhile. As only that writer
+	 * emits, the sink never rejects an emission as overlapping. Any other
+	 * failure to emit, like a subscriber not having requested more, drops the
+	 * change for that subscriber as described above.
+	 */
+	void publish(TodoChange change) {
+
+		queue.offer(change);
+
+		if (pending.getAndIncrement() != 0) {
+			return;
+		}
+
+		int missed = 1;
+
+		do {
+
+			TodoChange next;
+
+			while ((next = queue.poll()) != null) {
+				sink.tryEmitNext(next);
+			}
+
+			missed = pending.addAndGet(-missed);
+
+		} while (missed != 0);
+	}
+}
@@ -0,0 +1,507 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Append-only binary journal of changes to a {@link Todos} store, with
+ * snapshots for compaction. The files in the journal directory are:
+ * <ul>
+ * <li>{@code journal-<generation>.log}: the changes made during a generation,</li>
+ * <li>{@code snapshot-<generation>.dat}: the full state at the start of a
+ * generation, written as a sequence of save entries.</li>
+ * </ul>
+ * Both start with a header (magic number and format version) followed by
+ * entries framed as {@code [length][CRC32C][payload]}, so that a torn write at
+ * the end of a file is detected and ignored on recovery. Files are read through
+ * memory mapping.
+ * <p>
+ * Appends are group committed by a single writer thread: whatever accumulated
+ * while the previous batch was being forced to disk is written and forced as
+ * the next batch, spreading the cost of an {@code fsync} across concurrent
+ * writers.
+ */
+class TodoJournal implements Closeable {
+
+	private static final Log logger = LogFactory.getLog(TodoJournal.class);
+
+	private static final int MAGIC = 0x544F444F; // "TODO" in ASCII
+	private static final byte FORMAT_VERSION = 3;
+	private static final int HEADER_SIZE = 5;
+	private static final int FRAME_SIZE = 8;
+	private static final int MAX_BATCH = 4096;
+
+	private static final String JOURNAL = "journal", SNAPSHOT = "snapshot";
+	private static final Pattern FILE_NAME = Pattern.compile("(journal|snapshot)-(\\d+)\\.(log|dat)");
+
+	private final Path directory;
+	private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+	private final Thread writer = new Thread(this::write, "todos-journal");
+	private final ExecutorService snapshots = Executors.newSingleThreadExecutor(it -> new Thread(it, "todos-snapshot"));
+
+	private volatile boolean running = true;
+
+	// Only accessed by the writer thread once it is started
+	private Output output;
+	private long generation;
+
+	TodoJournal(Path directory) throws IOException {
+		this.directory = Files.createDirectories(directory);
+	}
+
+	/**
+	 * Applies the latest snapshot and all journal entries written after it to the
+	 * given store and starts a new generation to append to.
+	 *
+	 * @return the number of journal entries replayed on top of the snapshot
+	 */
+	long recover(Todos todos) throws IOException {
+
+		long start = System.nanoTime();
+		long snapshot = generations(SNAPSHOT).stream().mapToLong(Long::longValue).max().orElse(-1);
+		long last = snapshot;
+		long restored = 0, replayed = 0;
+
+		if (snapshot >= 0) {
+			restored = read(file(SNAPSHOT, snapshot), it -> it.applyTo(todos));
+		}
+
+		for (long journal : generations(JOURNAL)) {
+
+			last = Math.max(last, journal);
+
+			if (journal >= snapshot) {
+				replayed += read(file(JOURNAL, journal), it -> it.applyTo(todos));
+			}
+		}
+
+		generation = last + 1;
+		output = new Output(open(generation));
+		writer.setDaemon(true);
+		writer.start();
+
+		logger.info("Recovered %d todos from snapshot and %d journal entries in %d ms".formatted(restored, replayed,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+
+		return replayed;
+	}
+
+	/**
+	 * Appends the given entry to the journal.
+	 *
+	 * @return a future completing with the generation the entry was written to
+	 *         once it is durable
+	 */
+	CompletableFuture<Long> append(Entry entry) {
+		return enqueue(new Pending(entry, new CompletableFuture<>()));
+	}
+
+	/**
+	 * Closes the current journal file and starts a new generation. Entries
+	 * appended before the rotation end up in the old generation, all later ones
+	 * in the new one.
+	 *
+	 * @return a future completing with the new generation
+	 */
+	CompletableFuture<Long> rotate() {
+		return enqueue(new Pending(null, new CompletableFuture<>()));
+	}
+
+	/**
+	 * Writes the given state as the snapshot of the given generation and then
+	 * removes all files made obsolete by it. The entries are written as they are
+	 * iterated, so the state doesn't need to be copied up front.
+	 */
+	void writeSnapshot(long generation, Iterable<Entry> state) throws IOException {
+
+		var target = file(SNAPSHOT, generation);
+		var temporary = target.resolveSibling(target.getFileName() + ".tmp");
+
+		try (var channel = FileChannel.open(temporary, CREATE, TRUNCATE_EXISTING, WRITE)) {
+
+			channel.write(header());
+
+			var snapshot = new Output(channel);
+
+			for (var entry : state) {
+				snapshot.append(entry);
+			}
+
+			snapshot.drain();
+			channel.force(true);
+		}
+
+		Files.move(temporary, target, ATOMIC_MOVE);
+
+		for (var prefix : List.of(JOURNAL, SNAPSHOT)) {
+			for (long obsolete : generations(prefix)) {
+				if (obsolete < generation) {
+					Files.deleteIfExists(file(prefix, obsolete));
+				}
+			}
+		}
+	}
+
+	ExecutorService snapshots() {
+		return snapshots;
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		running = false;
+		snapshots.shutdown();
+
+		try {
+			snapshots.awaitTermination(1, TimeUnit.MINUTES);
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (output != null) {
+			output.channel.close();
+		}
+	}
+
+	private CompletableFuture<Long> enqueue(Pending pending) {
+
+		if (!running) {
+			return CompletableFuture.failedFuture(new IllegalStateException("Journal is closed"));
+		}
+
+		queue.add(pending);
+
+		return pending.written();
+	}
+
+	private void write() {
+
+		var batch = new ArrayList<Pending>(MAX_BATCH);
+
+		while (running || !queue.isEmpty()) {
+
+			try {
+
+				var first = queue.poll(100, TimeUnit.MILLISECONDS);
+
+				if (first == null) {
+					continue;
+				}
+
+				batch.add(first);
+				queue.drainTo(batch, MAX_BATCH - 1);
+
+				commit(batch);
+
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (IOException | RuntimeException e) {
+				logger.error("Failed to write todo journal", e);
+				batch.forEach(it -> it.written().completeExceptionally(e));
+			}
+
+			batch.clear();
+		}
+	}
+
+	private void commit(List<Pending> batch) throws IOException {
+
+		int from = 0;
+
+		for (int i = 0; i < batch.size(); i++) {
+
+			var pending = batch.get(i);
+
+			if (pending.entry() != null) {
+				output.append(pending.entry());
+				continue;
+			}
+
+			sync(batch.subList(from, i));
+
+			output.channel.close();
+			output = new Output(open(++generation));
+			pending.written().complete(generation);
+
+			from = i + 1;
+		}
+
+		sync(batch.subList(from, batch.size()));
+	}
+
+	private void sync(List<Pending> written) throws IOException {
+
+		if (written.isEmpty()) {
+			return;
+		}
+
+		output.drain();
+		output.channel.force(false);
+
+		written.forEach(it -> it.written().complete(generation));
+	}
+
+	private FileChannel open(long generation) throws IOException {
+
+		var channel = FileChannel.open(file(JOURNAL, generation), CREATE_NEW, WRITE);
+
+		channel.write(header());
+		channel.force(true);
+
+		return channel;
+	}
+
+	private Path file(String prefix, long generation) {
+		return directory.resolve("%s-%010d.%s".formatted(prefix, generation, prefix.equals(JOURNAL) ? "log" : "dat"));
+	}
+
+	private List<Long> generations(String prefix) throws IOException {
+
+		try (var files = Files.list(directory)) {
+			return files.map(it -> FILE_NAME.matcher(it.getFileName().toString()))
+					.filter(it -> it.matches() && it.group(1).equals(prefix))
+					.map(it -> Long.parseLong(it.group(2)))
+					.sorted()
+					.toList();
+		}
+	}
+
+	private static ByteBuffer header() {
+		return ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).put(FORMAT_VERSION).flip();
+	}
+
+	private static long read(Path file, Consumer<Entry> consumer) throws IOException {
+
+		try (var channel = FileChannel.open(file, READ)) {
+
+			var buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+
+			if (buffer.remaining() < HEADER_SIZE) {
+				return 0;
+			}
+
+			if (buffer.getInt() != MAGIC || buffer.get() != FORMAT_VERSION) {
+				throw new IOException("Not a todo journal in a supported format: " + file);
+			}
+
+			var checksum = new CRC32C();
+			long count = 0;
+
+			while (buffer.remaining() >= FRAME_SIZE) {
+
+				int length = buffer.getInt();
+				int crc = buffer.getInt();
+
+				if (length <= 0 || length > buffer.remaining()) {
+					break;
+				}
+
+				var payload = buffer.slice(buffer.position(), length);
+
+				checksum.reset();
+				checksum.update(payload.duplicate());
+
+				if ((int) checksum.getValue() != crc) {
+					break;
+				}
+
+				consumer.accept(Entry.read(payload));
+				buffer.position(buffer.position() + length);
+				count++;
+			}
+
+			if (buffer.hasRemaining()) {
+				logger.warn("Ignoring torn or corrupt entries at the end of " + file);
+			}
+
+			return count;
+		}
+	}
+
+	private record Pending(Entry entry, CompletableFuture<Long> written) {
+	}
+
+	/**
+	 * Buffers framed entries and writes them to a channel.
+	 */
+	private static class Output {
+
+		private final FileChannel channel;
+		private final CRC32C checksum = new CRC32C();
+		private ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+
+		Output(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		void append(Entry entry) throws IOException {
+
+			int bound = FRAME_SIZE + entry.maxSize();
+
+			if (buffer.remaining() < bound) {
+
+				drain();
+
+				if (buffer.capacity() < bound) {
+					buffer = ByteBuffer.allocateDirect(bound);
+				}
+			}
+
+			int start = buffer.position();
+
+			buffer.position(start + FRAME_SIZE);
+			entry.write(buffer);
+
+			int end = buffer.position();
+
+			checksum.reset();
+			checksum.update(buffer.duplicate().limit(end).position(start + FRAME_SIZE));
+
+			buffer.putInt(start, end - start - FRAME_SIZE).putInt(start + 4, (int) checksum.getValue());
+		}
+
+		void drain() throws IOException {
+
+			buffer.flip();
+
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+
+			buffer.clear();
+		}
+	}
+
+	enum Type {
+		SAVE, DELETE;
+	}
+
+	/**
+	 * A single change to the store, carrying the resulting state of the todo. A
+	 * save is only applied unless the store holds a newer version of the todo,
+	 * so that entries already reflected in a snapshot are skipped on replay.
+	 * Saves of the same version are applied, as replicated todos may replace
+	 * one of the same version.
+	 * Depending on the {@link Type} only some of the fields are set.
+	 */
+	record Entry(Type type, UUID id, String title, boolean completed, Instant created, long version) {
+
+		static Entry save(Todo todo) {
+			return new Entry(Type.SAVE, todo.getId(), todo.getTitle(), todo.isCompleted(), todo.getCreated(),
+					todo.getVersion());
+		}
+
+		static Entry delete(Todo todo) {
+			return new Entry(Type.DELETE, todo.getId(), null, false, null, 0);
+		}
+
+		void applyTo(Todos todos) {
+
+			switch (type) {
+			case SAVE -> {
+
+				var todo = new Todo(id, title, completed, created, version);
+				var current = todos.findById(id);
+
+				// Changes to a todo are journaled in order, so a later entry is never older
+				if (current.isEmpty()) {
+					todos.save(todo);
+				} else if (current.get().getVersion() <= version) {
+					todos.replace(todo, current.get().getVersion());
+				}
+			}
+			case DELETE -> todos.deleteById(id);
+			}
+		}
+
+		int maxSize() {
+			return type == Type.SAVE ? 1 + 16 + 12 + 8 + 1 + 4 + title.length() * 3 : 1 + 16;
+		}
+
+		void write(ByteBuffer buffer) {
+
+			buffer.put((byte) type.ordinal());
+
+			switch (type) {
+			case SAVE -> {
+
+				var bytes = title.getBytes(UTF_8);
+
+				buffer.putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits());
+				buffer.putLong(created.getEpochSecond()).putInt(created.getNano());
+				buffer.putLong(version);
+				buffer.put((byte) (completed ? 1 : 0));
+				buffer.putInt(bytes.length).put(bytes);
+			}
+			case DELETE -> buffer.putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits());
+			}
+		}
+
+		static Entry read(ByteBuffer buffer) {
+
+			var type = Type.values()[buffer.get()];
+
+			return switch (type) {
+			case SAVE -> {
+
+				var id = new UUID(buffer.getLong(), buffer.getLong());
+				var created = Instant.ofEpochSecond(buffer.getLong(), buffer.getInt());
+				var version = buffer.getLong();
+				var completed = buffer.get() != 0;
+				var title = new byte[buffer.getInt()];
+
+				buffer.get(title);
+
+				yield new Entry(type, id, new String(title, UTF_8), completed, created, version);
+			}
+			case DELETE -> new Entry(type, new UUID(buffer.getLong(), buffer.getLong()), null, false, null, 0);
+			};
+		}
+	}
+}
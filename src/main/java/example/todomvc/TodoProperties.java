@@ -0,0 +1,145 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.lang.Nullable;
+
+/**
+ * Configuration properties for the todo store and the way it is accessed.
+ *
+ * @param execution         where {@link ReactiveTodos} runs the work against
+ *                          the underlying {@link Todos} store
+ * @param storage           how the store keeps todos in memory
+ * @param pageSize          the number of todos rendered at once, further pages
+ *                          are loaded as the list is scrolled
+ * @param fragmentCacheSize the maximum number of todos whose rendered list items
+ *                          are kept in memory, {@code 0} disables caching
+ * @param journal           persistence of the store to local disk
+ * @param admission         limits on the HTMX requests handled concurrently
+ * @param replication       replication of all changes between nodes
+ * @param tenants           limits on the tenants todos are kept for
+ */
+@ConfigurationProperties("todos")
+public record TodoProperties(@DefaultValue("inline") Execution execution, @DefaultValue("map") Storage storage,
+		@DefaultValue("100") int pageSize, @DefaultValue("10000") long fragmentCacheSize,
+		@DefaultValue Journal journal, @DefaultValue Admission admission,
+		@DefaultValue Replication replication, @DefaultValue Tenancy tenants) {
+
+	/**
+	 * @param enabled           whether to journal all changes to disk and
+	 *                          restore them on startup
+	 * @param directory         where to keep the journal and snapshot files
+	 * @param snapshotThreshold the number of journal entries after which a new
+	 *                          snapshot is written
+	 */
+	public record Journal(boolean enabled, @DefaultValue("data") Path directory,
+			@DefaultValue("100000") long snapshotThreshold) {
+	}
+
+	/**
+	 * @param enabled      whether to limit the HTMX requests handled at once and
+	 *                     turn away the rest with {@code 503 Service Unavailable}
+	 * @param initialLimit the number of concurrent requests admitted on startup
+	 * @param minLimit     the number of concurrent requests the limit never drops
+	 *                     below
+	 * @param maxLimit     the number of concurrent requests the limit never grows
+	 *                     beyond
+	 * @param latency      the latency above which a request counts as a sign of
+	 *                     overload and shrinks the limit
+	 * @param queueSize    the number of requests waiting for admission at most,
+	 *                     further ones are rejected right away
+	 * @param queueTimeout how long a request waits for admission before it is
+	 *                     rejected
+	 * @param retryAfter   the delay clients are asked to wait before retrying a
+	 *                     rejected request
+	 */
+	public record Admission(boolean enabled, @DefaultValue("20") int initialLimit, @DefaultValue("4") int minLimit,
+			@DefaultValue("500") int maxLimit, @DefaultValue("100ms") Duration latency,
+			@DefaultValue("200") int queueSize, @DefaultValue("500ms") Duration queueTimeout,
+			@DefaultValue("1s") Duration retryAfter) {
+	}
+
+	/**
+	 * @param enabled       whether to replicate the todos of all tenants between
+	 *                      this node and its peers
+	 * @param address       the address to listen for peers on, only the loopback
+	 *                      one unless a secret is configured
+	 * @param port          the port to listen for peers on, {@code 0} for a
+	 *                      random one
+	 * @param peers         the {@code host:port} addresses of the nodes to
+	 *                      connect to, each pair of nodes only needs to be
+	 *                      connected once
+	 * @param secret        the secret shared by all nodes, which they prove to
+	 *                      know on connecting
+	 * @param createTenants whether to create the tenants changes are received
+	 *                      for, rather than ignoring changes to tenants that
+	 *                      don't exist locally
+	 */
+	public record Replication(boolean enabled, @DefaultValue("127.0.0.1") String address,
+			@DefaultValue("9100") int port, @DefaultValue List<String> peers, @Nullable String secret,
+			boolean createTenants) {
+	}
+
+	/**
+	 * @param allowed the ids of the tenants to keep todos for besides the
+	 *                {@code default} one, any valid id if empty
+	 * @param max     the number of tenants to keep todos for at most, further
+	 *                ones are rejected with {@code 403 Forbidden}
+	 */
+	public record Tenancy(@DefaultValue List<String> allowed, @DefaultValue("1000") int max) {
+	}
+
+	public enum Execution {
+
+		/**
+		 * Runs store calls on the subscribing thread, usually a Netty event loop.
+		 * Only suitable for stores that never block.
+		 */
+		INLINE,
+
+		/**
+		 * Offloads store calls to a bounded elastic thread pool.
+		 */
+		BOUNDED_ELASTIC,
+
+		/**
+		 * Offloads store calls to a virtual thread per task. Falls back to
+		 * {@link #BOUNDED_ELASTIC} on JVMs without virtual threads.
+		 */
+		VIRTUAL;
+	}
+
+	public enum Storage {
+
+		/**
+		 * Keeps every todo as an object in sorted maps. Fast for any size that
+		 * comfortably fits the heap.
+		 */
+		MAP,
+
+		/**
+		 * Keeps todos in primitive columns and only creates objects for the todos
+		 * being read. Uses a fraction of the heap for millions of todos.
+		 */
+		COLUMNAR;
+	}
+}
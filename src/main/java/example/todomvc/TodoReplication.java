@@ -0,0 +1,634 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.domain.Sort;
+import org.springframework.lang.Nullable;
+import org.springframework.util.StringUtils;
+
+import example.todomvc.TodoProperties.Replication;
+
+/**
+ * Replicates the todos of all tenants between nodes over plain TCP. Every node
+ * listens on a port and connects to the peers it is configured with, each
+ * connection then carrying changes both ways, so it is enough for every pair
+ * of nodes to be connected once. Should a pair be connected twice, both nodes
+ * keep the connection initiated by the node with the lower id.
+ * <p>
+ * Changes made through a {@link ReplicatedTodos} are queued per peer and sent
+ * in batches by a writer thread per connection: whatever accumulated while the
+ * previous batch was being written goes out as the next one. Each batch is a
+ * frame of {@code [length][changes]}, changes carry the tenant, the todo and
+ * its version. A reader thread per connection applies the changes received to
+ * the local stores, ignoring those of tenants that don't exist locally unless
+ * configured to create them.
+ * <p>
+ * Nodes only listen on the loopback address by default. Peers prove that they
+ * know the shared secret on connecting by returning an HMAC of a random
+ * challenge, but changes are sent unencrypted, so nodes listening on other
+ * addresses should only be reachable from a trusted network.
+ * <p>
+ * On connecting, both nodes send each other all todos they hold, so nodes that
+ * start late or were disconnected catch up. Deletions made while nodes were
+ * disconnected are not tracked, though, so the todos deleted on one node
+ * reappear if the other one still has them.
+ */
+class TodoReplication implements SmartLifecycle {
+
+	private static final Log logger = LogFactory.getLog(TodoReplication.class);
+
+	private static final int MAGIC = 0x544F444F; // "TODO" in ASCII
+	private static final byte PROTOCOL_VERSION = 2;
+	private static final int NONCE_SIZE = 16;
+	private static final int HANDSHAKE_SIZE = 13 + NONCE_SIZE;
+	private static final String HMAC = "HmacSHA256";
+
+	// Only authenticates nodes of matching versions if no secret is configured
+	private static final String DEFAULT_SECRET = "todos";
+
+	private static final SecureRandom random = new SecureRandom();
+	private static final int MAX_BATCH = 4096;
+	private static final int MAX_QUEUE = 100_000;
+	private static final int MAX_FRAME = 64 * 1024 * 1024;
+	private static final long RECONNECT_DELAY = 1000;
+
+	private static final byte SAVE = 0, DELETE = 1;
+
+	private final long id = ThreadLocalRandom.current().nextLong();
+	private final InetSocketAddress address;
+	private final List<String> peers;
+	private final SecretKeySpec secret;
+	private final boolean authenticated;
+
+	@Nullable
+	private final Function<String, Tenant> tenants;
+
+	private final Map<String, ReplicatedTodos> replicas = new ConcurrentHashMap<>();
+
+	// By node id, only changed while holding the lock of this
+	private final Map<Long, Peer> connected = new ConcurrentHashMap<>();
+
+	private volatile boolean running;
+
+	@Nullable
+	private ServerSocketChannel server;
+
+	/**
+	 * @param properties where to listen, which peers to connect to and how to
+	 *                   authenticate them
+	 * @param tenants    looks up tenants by id, creating them if need be, for
+	 *                   the changes received for tenants not accessed locally
+	 *                   yet, only used if the properties allow creating tenants
+	 */
+	TodoReplication(Replication properties, Function<String, Tenant> tenants) {
+
+		var secret = properties.secret();
+
+		this.address = new InetSocketAddress(properties.address(), properties.port());
+		this.peers = properties.peers();
+		this.authenticated = StringUtils.hasText(secret);
+		this.secret = new SecretKeySpec((authenticated ? secret : DEFAULT_SECRET).getBytes(UTF_8), HMAC);
+		this.tenants = properties.createTenants() ? tenants : null;
+	}
+
+	/**
+	 * Returns a store replicating the changes to the given store of the given
+	 * tenant.
+	 */
+	ReplicatedTodos replicate(String tenant, Todos todos) {
+
+		var result = new ReplicatedTodos(tenant, todos, this);
+
+		replicas.put(tenant, result);
+
+		return result;
+	}
+
+	@Override
+	public void start() {
+
+		if (!authenticated && (address.isUnresolved() || !address.getAddress().isLoopbackAddress())) {
+			throw new IllegalStateException(
+					"Replication on %s needs a todos.replication.secret".formatted(address.getHostString()));
+		}
+
+		try {
+			server = ServerSocketChannel.open().bind(address);
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to listen for replication on " + address, e);
+		}
+
+		running = true;
+
+		thread("todos-replication-accept", this::accept).start();
+
+		for (var peer : peers) {
+			thread("todos-replication-connect-" + peer, () -> connect(peer)).start();
+		}
+
+		logger.info("Replicating todos on %s:%d as node %016x".formatted(address.getHostString(), port(), id));
+	}
+
+	@Override
+	public void stop() {
+
+		running = false;
+
+		try {
+			if (server != null) {
+				server.close();
+			}
+		} catch (IOException e) {
+			logger.debug("Failed to close replication server", e);
+		}
+
+		connected.values().forEach(Peer::close);
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Returns the port actually listened on.
+	 */
+	int port() {
+
+		try {
+			return server != null ? ((InetSocketAddress) server.getLocalAddress()).getPort() : address.getPort();
+		} catch (IOException e) {
+			return address.getPort();
+		}
+	}
+
+	/**
+	 * Returns the number of peers currently connected.
+	 */
+	int connected() {
+		return connected.size();
+	}
+
+	void send(String tenant, TodoChange change) {
+
+		for (var peer : connected.values()) {
+			peer.send(new Change(tenant, change));
+		}
+	}
+
+	private void accept() {
+
+		while (running) {
+			try {
+				new Peer(server.accept(), false).start();
+			} catch (IOException e) {
+				if (running) {
+					logger.warn("Failed to accept replication connection", e);
+				}
+			}
+		}
+	}
+
+	private void connect(String address) {
+
+		int separator = address.lastIndexOf(':');
+		var host = address.substring(0, separator);
+		int port = Integer.parseInt(address.substring(separator + 1));
+
+		while (running) {
+
+			try {
+
+				var peer = new Peer(SocketChannel.open(new InetSocketAddress(host, port)), true);
+
+				peer.start();
+				peer.awaitClosed();
+
+				if (peer.self) {
+					return;
+				}
+
+				// Connected the other way round already
+				var winner = peer.winner;
+
+				if (winner != null) {
+					winner.awaitClosed();
+				}
+
+			} catch (IOException e) {
+				logger.debug("Failed to connect to replication peer " + address, e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+
+			try {
+				Thread.sleep(RECONNECT_DELAY);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Registers the given peer unless there's a connection to the same node
+	 * already that wins over it.
+	 *
+	 * @return the peer connected to the node now
+	 */
+	private synchronized Peer register(Peer peer) {
+
+		var existing = connected.get(peer.node);
+
+		if (existing != null && Long.compareUnsigned(existing.initiator(), peer.initiator()) <= 0) {
+			return existing;
+		}
+
+		if (existing != null) {
+			existing.close();
+		}
+
+		connected.put(peer.node, peer);
+
+		return peer;
+	}
+
+	private void apply(String tenant, TodoChange change, long origin) {
+
+		var replica = replicas.get(tenant);
+
+		if (replica == null && tenants != null && Tenants.isValid(tenant)) {
+			tenants.apply(tenant);
+			replica = replicas.get(tenant);
+		}
+
+		if (replica == null) {
+			logger.debug("Ignoring change for unknown tenant " + tenant);
+			return;
+		}
+
+		replica.apply(change, Long.compareUnsigned(origin, id) > 0);
+	}
+
+	private static Thread thread(String name, Runnable task) {
+
+		var thread = new Thread(task, name);
+
+		thread.setDaemon(true);
+
+		return thread;
+	}
+
+	private record Change(String tenant, TodoChange change) {
+
+		int maxSize() {
+			int size = 1 + 1 + tenant.length() + 16 + 8;
+
+			return change.deleted() ? size : size + 12 + 1 + 4 + change.todo().getTitle().length() * 3;
+		}
+
+		void write(ByteBuffer buffer) {
+
+			var todo = change.todo();
+
+			buffer.put(change.deleted() ? DELETE : SAVE);
+			buffer.put((byte) tenant.length()).put(tenant.getBytes(US_ASCII));
+			buffer.putLong(todo.getId().getMostSignificantBits()).putLong(todo.getId().getLeastSignificantBits());
+			buffer.putLong(todo.getVersion());
+
+			if (!change.deleted()) {
+
+				var title = todo.getTitle().getBytes(UTF_8);
+
+				buffer.putLong(todo.getCreated().getEpochSecond()).putInt(todo.getCreated().getNano());
+				buffer.put((byte) (todo.isCompleted() ? 1 : 0));
+				buffer.putInt(title.length).put(title);
+			}
+		}
+
+		static Change read(ByteBuffer buffer) {
+
+			var type = buffer.get();
+			var tenant = new byte[buffer.get()];
+
+			buffer.get(tenant);
+
+			var id = new UUID(buffer.getLong(), buffer.getLong());
+			var version = buffer.getLong();
+
+			if (type == DELETE) {
+				return new Change(new String(tenant, US_ASCII),
+						TodoChange.deleted(new Todo(id, "", false, Instant.EPOCH, version)));
+			}
+
+			var created = Instant.ofEpochSecond(buffer.getLong(), buffer.getInt());
+			var completed = buffer.get() != 0;
+			var title = new byte[buffer.getInt()];
+
+			buffer.get(title);
+
+			return new Change(new String(tenant, US_ASCII),
+					TodoChange.saved(new Todo(id, new String(title, UTF_8), completed, created, version)));
+		}
+	}
+
+	/**
+	 * A connection to another node, carrying changes both ways.
+	 */
+	private class Peer {
+
+		private final SocketChannel channel;
+		private final boolean initiated;
+		private final BlockingQueue<Change> queue = new LinkedBlockingQueue<>(MAX_QUEUE);
+		private final CountDownLatch closed = new CountDownLatch(1);
+
+		private volatile boolean open = true;
+		private volatile boolean self;
+
+		@Nullable
+		private volatile Peer winner;
+		private long node;
+
+		private ByteBuffer output = ByteBuffer.allocateDirect(256 * 1024);
+
+		Peer(SocketChannel channel, boolean initiated) {
+			this.channel = channel;
+			this.initiated = initiated;
+		}
+
+		void start() {
+			thread("todos-replication-read", this::read).start();
+		}
+
+		long initiator() {
+			return initiated ? id : node;
+		}
+
+		void send(Change change) {
+
+			// Rather than buffering without bounds, reconnect and catch up
+			if (!queue.offer(change)) {
+				logger.warn("Replication peer %016x is falling behind, reconnecting".formatted(node));
+				close();
+			}
+		}
+
+		void awaitClosed() throws InterruptedException {
+			closed.await();
+		}
+
+		void close() {
+
+			open = false;
+			connected.remove(node, this);
+
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.debug("Failed to close replication connection", e);
+			}
+
+			closed.countDown();
+		}
+
+		private void read() {
+
+			try {
+
+				handshake();
+
+				if (node == id) {
+					self = true;
+					return;
+				}
+
+				var registered = register(this);
+
+				if (registered != this) {
+					winner = registered;
+					return;
+				}
+
+				logger.info("Connected to replication peer %016x at %s".formatted(node, channel.getRemoteAddress()));
+				thread("todos-replication-write", this::write).start();
+
+				var length = ByteBuffer.allocate(4);
+
+				while (open) {
+
+					readFully(length.clear());
+
+					int size = length.flip().getInt();
+
+					if (size <= 0 || size > MAX_FRAME) {
+						throw new IOException("Invalid replication frame of %d bytes".formatted(size));
+					}
+
+					var frame = readFully(ByteBuffer.allocate(size)).flip();
+
+					while (frame.hasRemaining()) {
+
+						var change = Change.read(frame);
+
+						try {
+							apply(change.tenant(), change.change(), node);
+						} catch (RuntimeException e) {
+							logger.warn("Failed to apply replicated change to " + change.change().todo().getId(), e);
+						}
+					}
+				}
+
+			} catch (IOException | RuntimeException e) {
+				if (open && running) {
+					logger.info("Replication connection to %016x lost: %s".formatted(node, e.getMessage()));
+				}
+			} finally {
+				close();
+			}
+		}
+
+		/**
+		 * Exchanges node ids and random challenges with the peer, then proves
+		 * knowledge of the secret by returning an HMAC of the peer's challenge,
+		 * and checks the peer's proof in turn.
+		 */
+		private void handshake() throws IOException {
+
+			var challenge = new byte[NONCE_SIZE];
+
+			random.nextBytes(challenge);
+			writeFully(ByteBuffer.allocate(HANDSHAKE_SIZE).putInt(MAGIC).put(PROTOCOL_VERSION).putLong(id)
+					.put(challenge).flip());
+
+			var reply = readFully(ByteBuffer.allocate(HANDSHAKE_SIZE)).flip();
+
+			if (reply.getInt() != MAGIC || reply.get() != PROTOCOL_VERSION) {
+				throw new IOException("Not a todo replication peer in a supported version");
+			}
+
+			node = reply.getLong();
+
+			var received = new byte[NONCE_SIZE];
+
+			reply.get(received);
+			writeFully(ByteBuffer.wrap(proof(received, id, initiated)));
+
+			var expected = proof(challenge, node, !initiated);
+			var actual = readFully(ByteBuffer.allocate(expected.length)).array();
+
+			if (!MessageDigest.isEqual(expected, actual)) {
+				throw new IOException("Replication peer failed to authenticate");
+			}
+		}
+
+		/**
+		 * Signs the challenge together with the node answering it and its side
+		 * of the connection, so that a proof can't be played back to the node
+		 * that asked for it.
+		 */
+		private byte[] proof(byte[] challenge, long node, boolean initiated) {
+
+			try {
+
+				var mac = Mac.getInstance(HMAC);
+
+				mac.init(secret);
+				mac.update(challenge);
+				mac.update(ByteBuffer.allocate(9).putLong(node).put((byte) (initiated ? 1 : 0)).array());
+
+				return mac.doFinal();
+
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException("Failed to sign replication handshake", e);
+			}
+		}
+
+		private void write() {
+
+			var batch = new ArrayList<Change>(MAX_BATCH);
+
+			try {
+
+				// Bring the peer up to date with everything held locally first
+				for (var replica : replicas.entrySet()) {
+					for (var todo : replica.getValue().delegate().findAll(Sort.unsorted())) {
+
+						batch.add(new Change(replica.getKey(), TodoChange.saved(todo)));
+
+						if (batch.size() == MAX_BATCH) {
+							write(batch);
+						}
+					}
+				}
+
+				write(batch);
+
+				while (open) {
+
+					var first = queue.poll(100, TimeUnit.MILLISECONDS);
+
+					if (first == null) {
+						continue;
+					}
+
+					batch.add(first);
+					queue.drainTo(batch, MAX_BATCH - 1);
+
+					write(batch);
+				}
+
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (IOException | RuntimeException e) {
+				if (open && running) {
+					logger.info("Failed to send changes to replication peer %016x: %s".formatted(node, e.getMessage()));
+				}
+			} finally {
+				close();
+			}
+		}
+
+		private void write(List<Change> batch) throws IOException {
+
+			if (batch.isEmpty()) {
+				return;
+			}
+
+			int bound = 4 + batch.stream().mapToInt(Change::maxSize).sum();
+
+			if (output.capacity() < bound) {
+				output = ByteBuffer.allocateDirect(bound);
+			}
+
+			output.clear().position(4);
+			batch.forEach(change -> change.write(output));
+			output.putInt(0, output.position() - 4).flip();
+
+			writeFully(output);
+			batch.clear();
+		}
+
+		private void writeFully(ByteBuffer buffer) throws IOException {
+
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+
+		private ByteBuffer readFully(ByteBuffer buffer) throws IOException {
+
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					throw new EOFException("Connection closed by peer");
+				}
+			}
+
+			return buffer;
+		}
+	}
+}
@@ -1,21 +1,172 @@
 package example.todomvc;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.function.UnaryOperator;
 
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Sort;
-import org.springframework.data.repository.Repository;
+import org.springframework.data.domain.Window;
 import org.springframework.data.util.Streamable;
 
-public interface Todos extends Repository<Todo, UUID> {
+public interface Todos {
 
 	Optional<Todo> findById(UUID id);
 
+	/**
+	 * Saves the given todo. New todos are stored as they are, existing ones
+	 * only if the given todo still carries the version currently stored, in
+	 * which case it is stored with the next version.
+	 *
+	 * @return the todo as stored
+	 * @throws OptimisticLockingFailureException if the todo has been changed
+	 *                                           concurrently
+	 */
 	Todo save(Todo item);
 
-	Todo delete(Todo item);
+	/**
+	 * Saves the given todos like {@link #save(Todo)} one by one, but skips the
+	 * ones that have been changed concurrently instead of failing, so that the
+	 * result always reflects what has been stored. Stores and decorators override
+	 * this to take their locks, or wait for their journal, once per batch rather
+	 * than once per todo.
+	 *
+	 * @return the todos as stored, in the given order, without the ones skipped
+	 */
+	default List<Todo> saveAll(List<Todo> items) {
+
+		var result = new ArrayList<Todo>(items.size());
+
+		for (var item : items) {
+			try {
+				result.add(save(item));
+			} catch (OptimisticLockingFailureException e) {
+				// Skipped
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Atomically replaces the todo with the given id by the result of the given
+	 * function if it is still at the expected version.
+	 *
+	 * @return the todo as stored, or {@link Optional#empty()} if there is no
+	 *         todo with the given id
+	 * @throws OptimisticLockingFailureException if the todo is not at the
+	 *                                           expected version
+	 * @throws InvalidDataAccessApiUsageException if the function changes the id
+	 *                                            of the todo
+	 */
+	Optional<Todo> update(UUID id, long expectedVersion, UnaryOperator<Todo> update);
+
+	/**
+	 * Atomically replaces the todo with the id of the given one by it if the
+	 * stored todo is still at the expected version. Unlike the other changes,
+	 * the todo is stored with the version it carries, so that todos changed
+	 * elsewhere can be adopted as they are.
+	 *
+	 * @return the todo as stored, or {@link Optional#empty()} if there is no
+	 *         todo with its id
+	 * @throws OptimisticLockingFailureException if the todo is not at the
+	 *                                           expected version
+	 */
+	Optional<Todo> replace(Todo todo, long expectedVersion);
+
+	/**
+	 * Applies the given function to the current version of the todo with the
+	 * given id, retrying against the latest version for as long as concurrent
+	 * changes get in the way. The function must thus be free of side effects.
+	 *
+	 * @return the todo as stored, or {@link Optional#empty()} if there is no
+	 *         todo with the given id
+	 */
+	default Optional<Todo> update(UUID id, UnaryOperator<Todo> update) {
+
+		while (true) {
+
+			var current = findById(id);
+
+			if (current.isEmpty()) {
+				return current;
+			}
+
+			try {
+				return update(id, current.get().getVersion(), update);
+			} catch (OptimisticLockingFailureException e) {
+				Thread.onSpinWait();
+			}
+		}
+	}
+
+	/**
+	 * Deletes the given todo, whatever version it is at.
+	 *
+	 * @return the given todo
+	 * @see #deleteById(UUID)
+	 */
+	default Todo delete(Todo item) {
+
+		deleteById(item.getId());
+
+		return item;
+	}
+
+	/**
+	 * Deletes the todo with the given id, if there is one.
+	 *
+	 * @return the todo as it was stored right before it was deleted, or
+	 *         {@link Optional#empty()} if there was no todo with the given id
+	 */
+	Optional<Todo> deleteById(UUID id);
+
+	/**
+	 * Deletes all todos in the given completion state in a single pass.
+	 *
+	 * @return the deleted todos
+	 */
+	List<Todo> deleteAllByCompleted(boolean completed);
+
+	/**
+	 * Marks all todos as completed or incomplete in a single pass.
+	 *
+	 * @return the todos that changed state
+	 */
+	List<Todo> setCompletedForAll(boolean completed);
 
 	Streamable<Todo> findAll(Sort sort);
 
 	Streamable<Todo> findByCompleted(boolean completed, Sort sort);
+
+	/**
+	 * Returns the todos following the given position in the order they were
+	 * created. Positions are keyed by {@code created} and {@code id}, an empty
+	 * position starts at the beginning.
+	 */
+	Window<Todo> findAll(KeysetScrollPosition position, Limit limit);
+
+	/**
+	 * Returns the todos in the given completion state following the given
+	 * position.
+	 *
+	 * @see #findAll(KeysetScrollPosition, Limit)
+	 */
+	Window<Todo> findByCompleted(boolean completed, KeysetScrollPosition position, Limit limit);
+
+	/**
+	 * Returns a version that is incremented after every change to the store, so
+	 * that anything read after observing a version reflects at least that
+	 * version. A plain read of an in-memory counter that never blocks.
+	 */
+	long version();
+
+	long count();
+
+	long countByCompleted(boolean completed);
 }
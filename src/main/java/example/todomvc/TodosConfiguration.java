@@ -0,0 +1,192 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.lang.Nullable;
+import org.springframework.util.IdGenerator;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Wires the {@link Todos} store of every {@link Tenant} and the way
+ * {@link ReactiveTodos} accesses it.
+ */
+@Configuration(proxyBeanMethods = false)
+@EnableConfigurationProperties(TodoProperties.class)
+class TodosConfiguration {
+
+	private static final Log logger = LogFactory.getLog(TodosConfiguration.class);
+
+	@Bean(destroyMethod = "close")
+	Tenants tenants(TodoProperties properties, Scheduler todosScheduler, ObjectProvider<MeterRegistry> registry,
+			ObjectProvider<TodoReplication> replication) {
+
+		var replicator = replication.getIfAvailable();
+		var tenancy = properties.tenants();
+
+		return new Tenants(id -> tenant(id, properties, todosScheduler, registry.getIfAvailable(), replicator),
+				tenancy.allowed(), tenancy.max());
+	}
+
+	/**
+	 * Replicates the todos of all tenants between nodes. Started once the
+	 * context is refreshed and stopped before the stores are closed.
+	 */
+	@Bean
+	@ConditionalOnProperty(prefix = "todos.replication", name = "enabled", havingValue = "true")
+	TodoReplication todoReplication(TodoProperties properties, ObjectProvider<Tenants> tenants) {
+
+		return new TodoReplication(properties.replication(), id -> tenants.getObject().get(id));
+	}
+
+	/**
+	 * The store of the {@link Tenants#DEFAULT default tenant}.
+	 */
+	@Bean
+	Todos todos(Tenants tenants) {
+		return tenants.get(Tenants.DEFAULT).todos();
+	}
+
+	private static Tenant tenant(String id, TodoProperties properties, Scheduler scheduler,
+			@Nullable MeterRegistry registry, @Nullable TodoReplication replication) throws IOException {
+
+		Todos todos = switch (properties.storage()) {
+		case MAP -> new InMemoryTodos();
+		case COLUMNAR -> new ColumnarTodos();
+		};
+		TodoJournal journal = null;
+
+		if (properties.journal().enabled()) {
+
+			journal = new TodoJournal(journalDirectory(properties.journal().directory(), id));
+
+			try {
+				todos = new JournalingTodos(todos, journal, properties.journal().snapshotThreshold());
+			} catch (IOException | RuntimeException e) {
+				journal.close();
+				throw e;
+			}
+		}
+
+		var changes = new TodoChanges();
+
+		// Only publish changes once they are durable
+		todos = new PublishingTodos(todos, changes);
+
+		// Changes received from peers are published, but not sent on
+		if (replication != null) {
+			todos = replication.replicate(id, todos);
+		}
+
+		if (registry != null) {
+			todos = new MeteredTodos(todos, registry);
+		}
+
+		var index = TitleIndex.of(todos, changes, Schedulers.boundedElastic()::schedule);
+
+		return new Tenant(id, todos, new ReactiveTodosAdapter(todos, scheduler), changes, index,
+				journal);
+	}
+
+	/**
+	 * The default tenant keeps its journal where it was kept before there were
+	 * tenants, all others in a directory of their own below it.
+	 */
+	private static Path journalDirectory(Path directory, String tenant) {
+		return tenant.equals(Tenants.DEFAULT) ? directory : directory.resolve("tenants").resolve(tenant);
+	}
+
+	/**
+	 * Ids for new todos. Time-ordered by default, so that new ids don't contend
+	 * on a shared {@link java.security.SecureRandom} and sort the same way as
+	 * the creation time. The default is the generator {@link Todo#Todo(String)}
+	 * uses, too, so that ids stay ordered across both.
+	 */
+	@Bean
+	@ConditionalOnMissingBean
+	IdGenerator todoIdGenerator() {
+		return TimeOrderedIdGenerator.shared();
+	}
+
+	@Bean(destroyMethod = "dispose")
+	Scheduler todosScheduler(TodoProperties properties) {
+
+		return switch (properties.execution()) {
+		case INLINE -> inline(properties);
+		case BOUNDED_ELASTIC -> boundedElastic();
+		case VIRTUAL -> virtualThreads();
+		};
+	}
+
+	/**
+	 * Journaled writes wait for the disk, and reads of the columnar store wait
+	 * for its writers to release the lock, so neither must run on the event
+	 * loop.
+	 */
+	private static Scheduler inline(TodoProperties properties) {
+
+		if (properties.journal().enabled()) {
+			logger.info("Journal enabled, offloading store access to a bounded elastic scheduler");
+			return boundedElastic();
+		}
+
+		if (properties.storage() == TodoProperties.Storage.COLUMNAR) {
+			logger.info("Columnar storage locks, offloading store access to a bounded elastic scheduler");
+			return boundedElastic();
+		}
+
+		return Schedulers.immediate();
+	}
+
+	private static Scheduler boundedElastic() {
+		return Schedulers.newBoundedElastic(Schedulers.DEFAULT_BOUNDED_ELASTIC_SIZE,
+				Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE, "todos");
+	}
+
+	/**
+	 * Looked up reflectively as the project still compiles against Java 17.
+	 */
+	private static Scheduler virtualThreads() {
+
+		try {
+
+			var factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+
+			return Schedulers.fromExecutorService((ExecutorService) factory.invoke(null), "todos-virtual");
+
+		} catch (ReflectiveOperationException e) {
+
+			logger.warn("Virtual threads not available on this JVM, falling back to a bounded elastic scheduler");
+
+			return boundedElastic();
+		}
+	}
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc.web;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.springframework.util.Assert;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Limits the number of requests handled at once to a limit that adapts to the
+ * observed latency: it grows by one for every limit's worth of requests that
+ * complete in time while the limit is in use, and shrinks by a tenth whenever a
+ * request takes longer than the target latency (at most once per round trip).
+ * <p>
+ * Each {@link Priority} may only use a share of the limit, so that cheap reads
+ * keep going while expensive bulk changes are turned away first. Requests that
+ * exceed their share wait in a bounded queue, reads ahead of writes, until a
+ * permit frees up or they time out. Bulk changes never wait.
+ */
+class AdaptiveLimit {
+
+	private static final double BACKOFF = 0.9;
+
+	private final double minLimit, maxLimit;
+	private final long latency;
+	private final int queueSize;
+	private final Duration queueTimeout;
+	private final Scheduler timer;
+	private final LongSupplier clock;
+
+	private final Map<Priority, ArrayDeque<Waiter>> queues = new EnumMap<>(Priority.class);
+
+	// Guarded by this
+	private double limit;
+	private int inFlight, queued;
+	private long lastDecrease;
+
+	AdaptiveLimit(int initialLimit, int minLimit, int maxLimit, Duration latency, int queueSize,
+			Duration queueTimeout, Scheduler timer, LongSupplier clock) {
+
+		Assert.isTrue(0 < minLimit && minLimit <= initialLimit && initialLimit <= maxLimit,
+				"Limits must be positive with min <= initial <= max");
+
+		this.limit = initialLimit;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.latency = latency.toNanos();
+		this.queueSize = queueSize;
+		this.queueTimeout = queueTimeout;
+		this.timer = timer;
+		this.clock = clock;
+		this.lastDecrease = clock.getAsLong();
+
+		for (var priority : Priority.values()) {
+			queues.put(priority, new ArrayDeque<>());
+		}
+	}
+
+	/**
+	 * Returns a {@link Permit} that is either {@link Permit#admitted() admitted}
+	 * and needs to be {@link Permit#release() released} once the request
+	 * completes, or tells the request to be rejected.
+	 */
+	Mono<Permit> acquire(Priority priority) {
+
+		return Mono.defer(() -> {
+
+			synchronized (this) {
+
+				if (inFlight < allowed(priority)) {
+					return Mono.just(grant());
+				}
+
+				if (!priority.queues || queued >= queueSize) {
+					return Mono.just(Permit.REJECTED);
+				}
+			}
+
+			return Mono.create(sink -> enqueue(priority, sink));
+		});
+	}
+
+	synchronized int limit() {
+		return (int) limit;
+	}
+
+	synchronized int inFlight() {
+		return inFlight;
+	}
+
+	synchronized int queued() {
+		return queued;
+	}
+
+	private void enqueue(Priority priority, MonoSink<Permit> sink) {
+
+		var waiter = new Waiter(priority, sink);
+
+		synchronized (this) {
+
+			// A permit might have freed up in the meantime
+			if (inFlight < allowed(priority)) {
+				sink.success(grant());
+				return;
+			}
+
+			if (queued >= queueSize) {
+				sink.success(Permit.REJECTED);
+				return;
+			}
+
+			queues.get(priority).add(waiter);
+			queued++;
+		}
+
+		sink.onCancel(waiter::cancel);
+		waiter.timeout = timer.schedule(waiter::expire, queueTimeout.toNanos(), TimeUnit.NANOSECONDS);
+	}
+
+	// Called with the lock held
+	private Permit grant() {
+		return new Permit(this, clock.getAsLong(), ++inFlight);
+	}
+
+	// Called with the lock held
+	private int allowed(Priority priority) {
+		return Math.max(1, (int) (limit * priority.share));
+	}
+
+	private void release(Permit permit) {
+
+		List<Waiter> admitted;
+
+		synchronized (this) {
+
+			if (permit.released) {
+				return;
+			}
+
+			permit.released = true;
+			inFlight--;
+
+			adapt(permit);
+			admitted = admitWaiters();
+		}
+
+		for (var waiter : admitted) {
+			waiter.admit();
+		}
+	}
+
+	// Called with the lock held
+	private void adapt(Permit permit) {
+
+		long now = clock.getAsLong();
+
+		if (now - permit.start > latency) {
+
+			// Only back off once for the requests that were already running
+			if (permit.start - lastDecrease >= 0) {
+				limit = Math.max(minLimit, limit * BACKOFF);
+				lastDecrease = now;
+			}
+
+		} else if (permit.inFlight * 2 >= limit) {
+			limit = Math.min(maxLimit, limit + 1 / limit);
+		}
+	}
+
+	// Called with the lock held
+	private List<Waiter> admitWaiters() {
+
+		List<Waiter> result = List.of();
+
+		for (var priority : Priority.values()) {
+
+			var queue = queues.get(priority);
+
+			while (!queue.isEmpty() && inFlight < allowed(priority)) {
+
+				var waiter = queue.poll();
+
+				queued--;
+				waiter.permit = grant();
+
+				if (result.isEmpty()) {
+					result = new ArrayList<>();
+				}
+
+				result.add(waiter);
+			}
+		}
+
+		return result;
+	}
+
+	enum Priority {
+
+		/**
+		 * Requests that only read todos, they may use the whole limit.
+		 */
+		READ(1, true),
+
+		/**
+		 * Requests that change a single todo.
+		 */
+		WRITE(0.75, true),
+
+		/**
+		 * Requests that change all todos at once, they are rejected rather than
+		 * queued.
+		 */
+		BULK(0.25, false);
+
+		private final double share;
+		private final boolean queues;
+
+		Priority(double share, boolean queues) {
+			this.share = share;
+			this.queues = queues;
+		}
+	}
+
+	static final class Permit {
+
+		static final Permit REJECTED = new Permit(null, 0, 0);
+
+		private final AdaptiveLimit limit;
+		private final long start;
+		private final int inFlight;
+
+		// Guarded by the limit
+		private boolean released;
+
+		private Permit(AdaptiveLimit limit, long start, int inFlight) {
+			this.limit = limit;
+			this.start = start;
+			this.inFlight = inFlight;
+		}
+
+		boolean admitted() {
+			return limit != null;
+		}
+
+		/**
+		 * Returns the permit and records the time since it was granted. Does
+		 * nothing if called again.
+		 */
+		void release() {
+
+			if (limit != null) {
+				limit.release(this);
+			}
+		}
+	}
+
+	private final class Waiter {
+
+		private final Priority priority;
+		private final MonoSink<Permit> sink;
+
+		// Guarded by the limit
+		private Permit permit;
+		private boolean done;
+
+		private volatile Disposable timeout;
+
+		Waiter(Priority priority, MonoSink<Permit> sink) {
+			this.priority = priority;
+			this.sink = sink;
+		}
+
+		void admit() {
+
+			var timeout = this.timeout;
+
+			if (timeout != null) {
+				timeout.dispose();
+			}
+
+			synchronized (AdaptiveLimit.this) {
+
+				if (done) {
+					return;
+				}
+
+				done = true;
+			}
+
+			sink.success(permit);
+		}
+
+		void expire() {
+
+			if (dequeue()) {
+				sink.success(Permit.REJECTED);
+			}
+		}
+
+		void cancel() {
+
+			if (!dequeue()) {
+
+				Permit permit;
+
+				synchronized (AdaptiveLimit.this) {
+					permit = this.permit;
+				}
+
+				// Admitted but possibly never delivered
+				if (permit != null) {
+					permit.release();
+				}
+			}
+		}
+
+		// Removes the waiter unless it has been admitted already
+		private boolean dequeue() {
+
+			synchronized (AdaptiveLimit.this) {
+
+				if (permit != null || done) {
+					return false;
+				}
+
+				done = true;
+				queues.get(priority).remove(this);
+				queued--;
+
+				return true;
+			}
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc.web;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+import example.todomvc.TodoProperties;
+import example.todomvc.web.AdaptiveLimit.Permit;
+import example.todomvc.web.AdaptiveLimit.Priority;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Admits the HTMX requests handled by {@link HtmxTodoController} through an
+ * {@link AdaptiveLimit} and answers those it turns away with
+ * {@code 503 Service Unavailable} and a {@code Retry-After} header before any
+ * store or rendering work is done. Reads take priority over changes to single
+ * todos, which take priority over {@code DELETE /completed} and
+ * {@code PUT /toggle-all}. HTMX leaves the page alone on error responses, so a
+ * rejected interaction can simply be repeated.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@ConditionalOnProperty(prefix = "todos.admission", name = "enabled", havingValue = "true")
+class AdmissionControl implements WebFilter {
+
+	private final AdaptiveLimit limit;
+	private final String retryAfter;
+	private final Map<Priority, Counter> rejected = new EnumMap<>(Priority.class);
+
+	AdmissionControl(TodoProperties properties, MeterRegistry registry) {
+
+		var admission = properties.admission();
+
+		this.limit = new AdaptiveLimit(admission.initialLimit(), admission.minLimit(), admission.maxLimit(),
+				admission.latency(), admission.queueSize(), admission.queueTimeout(), Schedulers.parallel(),
+				System::nanoTime);
+		this.retryAfter = String.valueOf(Math.max(1, admission.retryAfter().toSeconds()));
+
+		Gauge.builder("todos.admission.limit", limit, AdaptiveLimit::limit).register(registry);
+		Gauge.builder("todos.admission.in-flight", limit, AdaptiveLimit::inFlight).register(registry);
+		Gauge.builder("todos.admission.queued", limit, AdaptiveLimit::queued).register(registry);
+
+		for (var priority : Priority.values()) {
+			rejected.put(priority, Counter.builder("todos.admission.rejected")
+					.tag("priority", priority.name().toLowerCase())
+					.register(registry));
+		}
+	}
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+
+		var request = exchange.getRequest();
+
+		if (!"true".equals(request.getHeaders().getFirst("HX-Request"))) {
+			return chain.filter(exchange);
+		}
+
+		var priority = priority(request);
+
+		return limit.acquire(priority)
+				.flatMap(permit -> permit.admitted() ? handle(exchange, chain, permit) : reject(exchange, priority));
+	}
+
+	AdaptiveLimit limit() {
+		return limit;
+	}
+
+	private static Mono<Void> handle(ServerWebExchange exchange, WebFilterChain chain, Permit permit) {
+		return chain.filter(exchange).doFinally(__ -> permit.release());
+	}
+
+	private Mono<Void> reject(ServerWebExchange exchange, Priority priority) {
+
+		rejected.get(priority).increment();
+
+		var response = exchange.getResponse();
+
+		response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+		response.getHeaders().set(HttpHeaders.RETRY_AFTER, retryAfter);
+
+		return response.setComplete();
+	}
+
+	static Priority priority(ServerHttpRequest request) {
+
+		var method = request.getMethod();
+
+		if (HttpMethod.GET.equals(method) || HttpMethod.HEAD.equals(method)) {
+			return Priority.READ;
+		}
+
+		var path = request.getPath().pathWithinApplication().value();
+
+		return path.equals("/completed") || path.equals("/toggle-all") ? Priority.BULK : Priority.WRITE;
+	}
+}
@@ -0,0 +1,583 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc.web;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.result.view.AbstractView;
+import org.springframework.web.reactive.result.view.View;
+import org.springframework.web.server.ServerWebExchange;
+import org.thymeleaf.spring6.context.webflux.SpringWebFluxContext;
+import org.unbescape.html.HtmlEscape;
+
+import example.todomvc.web.TemplateModel.TodoDto;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Renders the fragments {@link HtmxTodoController} sends with every change from
+ * precompiled skeletons instead of running them through Thymeleaf: the rows
+ * ({@code fragments :: update-todo}, {@code fragments :: remove-todo}), the
+ * list ({@code index :: todos}) and the reference data
+ * ({@code index :: toggle-all}, {@code index :: foot},
+ * {@code index :: todo-count}).
+ * <p>
+ * A skeleton is compiled on first use per fragment, per variant of the
+ * structure of its output (e.g. whether the todo is completed, or which filter
+ * is selected) and per context path. The Thymeleaf view renders a model with
+ * sentinel values, and its output is split into byte arrays and slots where
+ * the sentinels were. Rendering then writes those byte arrays and the escaped
+ * slot values straight into a single buffer from the response's buffer
+ * factory. To make sure the output is identical, the skeleton is checked
+ * against Thymeleaf rendering a second model with different values, including
+ * characters that need escaping. A skeleton that doesn't reproduce that output
+ * byte for byte is discarded, and the fragment keeps being rendered by
+ * Thymeleaf, as are models the skeletons don't cover, e.g. unknown filters.
+ * <p>
+ * That check only compares the renders of the two samples, so it can't tell
+ * whether the structure of the output depends on the values that go into the
+ * slots, e.g. a {@code th:if} on an empty title or a plural for a count of one.
+ * Such conditionals are not supported: anything the structure depends on has
+ * to be part of the {@link Spec#variant(Map) variant} of the model, as the
+ * completed flag of a todo is.
+ */
+@Component
+@RequiredArgsConstructor
+class CompiledFragments {
+
+	private static final Log logger = LogFactory.getLog(CompiledFragments.class);
+
+	private static final Set<String> FILTERS = Set.of("", "active", "completed");
+
+	private static final Sample SENTINEL = new Sample(UUID.fromString("5e571ae1-0000-4000-8000-000000000001"),
+			"Sentinel 5e571ae1 one", UUID.fromString("5e571ae1-0000-4000-8000-000000000002"), "Sentinel 5e571ae1 two",
+			9876543210L, "c5e571ae1cursor");
+
+	private static final Sample PROBE = new Sample(UUID.fromString("0190a1b2-c3d4-7e5f-8a9b-0c1d2e3f4a5b"),
+			"<b>\"Probe\" & 'one'</b>", UUID.fromString("0190a1b2-c3d4-7e5f-8a9b-0c1d2e3f4a5c"), "Prøbe två ✓", 42L,
+			"AZaz09-_");
+
+	private static final Map<String, Spec> SPECS = Map.of(
+			"fragments :: update-todo", new UpdateTodo(),
+			"fragments :: remove-todo", new RemoveTodo(),
+			"index :: todos", new Todos(),
+			"index :: toggle-all", new ToggleAll(),
+			"index :: foot", new Foot(),
+			"index :: todo-count", new TodoCount());
+
+	private final TodoFragments fragments;
+	private final Map<Key, Mono<Optional<Skeleton>>> skeletons = new ConcurrentHashMap<>();
+	private final LongAdder compiledRenders = new LongAdder();
+	private final LongAdder fallbacks = new LongAdder();
+
+	/**
+	 * Returns a view rendering the given fragment from a skeleton where possible
+	 * and through the given Thymeleaf view otherwise.
+	 */
+	View compile(String name, View view) {
+
+		var spec = SPECS.get(name);
+
+		return spec == null ? view : new CompiledView(name, spec, view);
+	}
+
+	/**
+	 * Returns how many renders used a skeleton.
+	 */
+	long compiledRenders() {
+		return compiledRenders.sum();
+	}
+
+	/**
+	 * Returns how many renders of models the skeletons cover fell back to
+	 * Thymeleaf, as their skeleton could not be compiled.
+	 */
+	long fallbacks() {
+		return fallbacks.sum();
+	}
+
+	/**
+	 * Returns the skeleton for the given key, compiling it on first use. A
+	 * skeleton that doesn't reproduce Thymeleaf's output is remembered as
+	 * missing, but a compilation that fails is dropped so that the next render
+	 * tries again.
+	 */
+	private Mono<Optional<Skeleton>> skeleton(Key key, Spec spec, View view, Map<String, ?> model,
+			@Nullable MediaType contentType, ServerWebExchange exchange) {
+
+		var compiled = skeletons.computeIfAbsent(key, __ -> {
+
+			var sentinel = spec.sample(model, SENTINEL);
+			var probe = spec.sample(model, PROBE);
+
+			return Mono.zip(capture(view, sentinel, contentType, exchange), capture(view, probe, contentType, exchange))
+					.map(outputs -> {
+
+						var skeleton = Skeleton.split(outputs.getT1(), spec.slots(sentinel, this, exchange));
+
+						if (!skeleton.fill(spec.slots(probe, this, exchange)).equals(outputs.getT2())) {
+							logger.warn("Falling back to Thymeleaf for " + key + ", compiled output differs");
+							return Optional.<Skeleton> empty();
+						}
+
+						return Optional.of(skeleton);
+					})
+					.cache();
+		});
+
+		return compiled.onErrorResume(e -> {
+			skeletons.remove(key, compiled);
+			logger.warn("Falling back to Thymeleaf for " + key + ", will try to compile again", e);
+			return Mono.just(Optional.empty());
+		});
+	}
+
+	/**
+	 * Renders the given model through the given view into a {@link String}
+	 * without touching the actual response.
+	 */
+	private static Mono<String> capture(View view, Map<String, ?> model, @Nullable MediaType contentType,
+			ServerWebExchange exchange) {
+
+		var response = new CapturingResponse(exchange.getResponse());
+
+		return view.render(model, contentType, exchange.mutate().response(response).build())
+				.then(Mono.fromSupplier(response::getBody));
+	}
+
+	private String render(TodoDto todo, String filter, ServerWebExchange exchange) {
+
+		var locale = Optional.ofNullable(exchange.getLocaleContext().getLocale()).orElseGet(Locale::getDefault);
+
+		return fragments.render(new SpringWebFluxContext(exchange, locale), todo, filter);
+	}
+
+	private static String escape(String text) {
+		return HtmlEscape.escapeHtml4Xml(text);
+	}
+
+	private static boolean isFilter(@Nullable Object filter) {
+		return filter instanceof String it && FILTERS.contains(it);
+	}
+
+	private class CompiledView extends AbstractView {
+
+		private final String name;
+		private final Spec spec;
+		private final View delegate;
+
+		CompiledView(String name, Spec spec, View delegate) {
+			this.name = name;
+			this.spec = spec;
+			this.delegate = delegate;
+			setSupportedMediaTypes(delegate.getSupportedMediaTypes());
+		}
+
+		@Override
+		protected Mono<Void> renderInternal(Map<String, Object> model, @Nullable MediaType contentType,
+				ServerWebExchange exchange) {
+
+			var variant = spec.variant(model);
+
+			if (variant == null) {
+				return delegate.render(model, contentType, exchange);
+			}
+
+			var key = new Key(name, variant, exchange.getRequest().getPath().contextPath().value());
+
+			return skeleton(key, spec, delegate, model, contentType, exchange).flatMap(skeleton -> skeleton
+					.map(it -> write(it, spec.slots(model, CompiledFragments.this, exchange), exchange.getResponse()))
+					.orElseGet(() -> {
+						fallbacks.increment();
+						return delegate.render(model, contentType, exchange);
+					}));
+		}
+
+		private Mono<Void> write(Skeleton skeleton, Map<String, List<String>> slots, ServerHttpResponse response) {
+
+			compiledRenders.increment();
+
+			return response.writeWith(Mono.just(skeleton.write(response.bufferFactory(), slots)));
+		}
+	}
+
+	/**
+	 * Literal output with slots in between, as split from a rendering of sentinel
+	 * values. A slot is filled with the values for it, joined by the separator
+	 * found between two sentinel values where the fragment repeats an element.
+	 */
+	static final class Skeleton {
+
+		private final List<Object> parts;
+
+		private Skeleton(List<Object> parts) {
+			this.parts = parts;
+		}
+
+		static Skeleton split(String output, Map<String, List<String>> slots) {
+
+			var parts = new ArrayList<Object>();
+			int position = 0;
+
+			while (true) {
+
+				Slot next = null;
+				int start = -1;
+				int end = -1;
+
+				for (var slot : slots.entrySet()) {
+
+					var values = slot.getValue();
+					int index = output.indexOf(values.get(0), position);
+
+					if (index < 0) {
+						continue;
+					}
+
+					int first = index + values.get(0).length();
+					var separator = "";
+					int last = first;
+
+					if (values.size() > 1) {
+
+						int second = output.indexOf(values.get(1), first);
+
+						if (second < 0) {
+							throw new IllegalStateException("Repeated values for " + slot.getKey() + " not found");
+						}
+
+						separator = output.substring(first, second);
+						last = second + values.get(1).length();
+					}
+
+					if (next == null || index < start || index == start && last > end) {
+						next = new Slot(slot.getKey(), separator);
+						start = index;
+						end = last;
+					}
+				}
+
+				if (next == null) {
+					break;
+				}
+
+				parts.add(output.substring(position, start).getBytes(UTF_8));
+				parts.add(next);
+				position = end;
+			}
+
+			parts.add(output.substring(position).getBytes(UTF_8));
+
+			return new Skeleton(parts);
+		}
+
+		String fill(Map<String, List<String>> slots) {
+
+			var result = new StringBuilder();
+
+			for (var part : parts) {
+				if (part instanceof Slot slot) {
+					result.append(slot.join(slots));
+				} else {
+					result.append(new String((byte[]) part, UTF_8));
+				}
+			}
+
+			return result.toString();
+		}
+
+		/**
+		 * Writes the output into a buffer from the given factory, allocated to the
+		 * exact size of the output in bytes. Each slot is joined and encoded once.
+		 */
+		DataBuffer write(DataBufferFactory factory, Map<String, List<String>> slots) {
+
+			var encoded = new byte[parts.size()][];
+			int size = 0;
+
+			for (int i = 0; i < encoded.length; i++) {
+				var part = parts.get(i);
+				encoded[i] = part instanceof Slot slot ? slot.join(slots).getBytes(UTF_8) : (byte[]) part;
+				size += encoded[i].length;
+			}
+
+			var buffer = factory.allocateBuffer(size);
+
+			for (var bytes : encoded) {
+				buffer.write(bytes);
+			}
+
+			return buffer;
+		}
+	}
+
+	private record Slot(String name, String separator) {
+
+		String join(Map<String, List<String>> slots) {
+			return String.join(separator, slots.getOrDefault(name, List.of()));
+		}
+	}
+
+	private record Key(String fragment, String variant, String contextPath) {
+	}
+
+	/**
+	 * Values to render a fragment with, two of each for fragments repeating an
+	 * element.
+	 */
+	private record Sample(UUID id, String title, UUID otherId, String otherTitle, long count, String cursor) {
+	}
+
+	/**
+	 * Describes how the output of a fragment varies with its model.
+	 */
+	private interface Spec {
+
+		/**
+		 * Returns the variant of the structure of the output for the given model, or
+		 * {@literal null} if it can't be rendered from a skeleton. Models of the same
+		 * variant must render the same output apart from the values of the slots.
+		 */
+		@Nullable
+		String variant(Map<String, ?> model);
+
+		/**
+		 * Returns the values of the slots for the given model as they appear in the
+		 * output, i.e. escaped.
+		 */
+		Map<String, List<String>> slots(Map<String, ?> model, CompiledFragments compiled, ServerWebExchange exchange);
+
+		/**
+		 * Returns a copy of the given model of the same variant, with the slot values
+		 * taken from the given sample.
+		 */
+		Map<String, Object> sample(Map<String, ?> model, Sample sample);
+	}
+
+	private static class UpdateTodo implements Spec {
+
+		@Override
+		public String variant(Map<String, ?> model) {
+			return model.get("todo") instanceof TodoDto todo && isFilter(model.get("filter"))
+					? model.get("filter") + ":" + todo.completed()
+					: null;
+		}
+
+		@Override
+		public Map<String, List<String>> slots(Map<String, ?> model, CompiledFragments compiled,
+				ServerWebExchange exchange) {
+
+			var todo = (TodoDto) model.get("todo");
+
+			return Map.of("id", List.of(todo.id().toString()), "title", List.of(escape(todo.title())));
+		}
+
+		@Override
+		public Map<String, Object> sample(Map<String, ?> model, Sample sample) {
+
+			var result = new HashMap<String, Object>(model);
+
+			result.put("todo", new TodoDto(sample.id(), sample.title(), ((TodoDto) model.get("todo")).completed(), 0));
+
+			return result;
+		}
+	}
+
+	private static class RemoveTodo extends UpdateTodo {
+
+		@Override
+		public String variant(Map<String, ?> model) {
+			return model.get("todo") instanceof TodoDto ? "" : null;
+		}
+
+		@Override
+		public Map<String, List<String>> slots(Map<String, ?> model, CompiledFragments compiled,
+				ServerWebExchange exchange) {
+			return Map.of("id", List.of(((TodoDto) model.get("todo")).id().toString()));
+		}
+	}
+
+	private static class Todos implements Spec {
+
+		@Override
+		public String variant(Map<String, ?> model) {
+
+			if (!(model.get("todos") instanceof List<?> todos) || !todos.stream().allMatch(TodoDto.class::isInstance)
+					|| !isFilter(model.get("filter")) || !(model.get("action") instanceof String action)) {
+				return null;
+			}
+
+			return model.get("filter") + ":" + (model.get("next") != null) + ":" + action;
+		}
+
+		@Override
+		public Map<String, List<String>> slots(Map<String, ?> model, CompiledFragments compiled,
+				ServerWebExchange exchange) {
+
+			var filter = (String) model.get("filter");
+			var items = ((List<?>) model.get("todos")).stream()
+					.map(todo -> compiled.render((TodoDto) todo, filter, exchange))
+					.toList();
+			var next = model.get("next");
+
+			return next == null ? Map.of("items", items) : Map.of("items", items, "cursor", List.of((String) next));
+		}
+
+		@Override
+		public Map<String, Object> sample(Map<String, ?> model, Sample sample) {
+
+			var result = new HashMap<String, Object>(model);
+
+			result.put("todos", List.of(new TodoDto(sample.id(), sample.title(), false, 0),
+					new TodoDto(sample.otherId(), sample.otherTitle(), true, 0)));
+
+			if (model.get("next") != null) {
+				result.put("next", sample.cursor());
+			}
+
+			return result;
+		}
+	}
+
+	private static class ToggleAll implements Spec {
+
+		@Override
+		public String variant(Map<String, ?> model) {
+
+			if (!(model.get("numberOfTodos") instanceof Long todos)
+					|| !(model.get("numberOfIncomplete") instanceof Long incomplete) || !isFilter(model.get("filter"))) {
+				return null;
+			}
+
+			return model.get("filter") + ":" + (todos > 0 && incomplete == 0);
+		}
+
+		@Override
+		public Map<String, List<String>> slots(Map<String, ?> model, CompiledFragments compiled,
+				ServerWebExchange exchange) {
+			return Map.of();
+		}
+
+		@Override
+		public Map<String, Object> sample(Map<String, ?> model, Sample sample) {
+			return new HashMap<>(model);
+		}
+	}
+
+	private static class Foot implements Spec {
+
+		@Override
+		public String variant(Map<String, ?> model) {
+
+			if (!(model.get("numberOfTodos") instanceof Long todos) || !(model.get("numberOfIncomplete") instanceof Long)
+					|| !isFilter(model.get("filter"))) {
+				return null;
+			}
+
+			return model.get("filter") + ":" + (todos == 0);
+		}
+
+		@Override
+		public Map<String, List<String>> slots(Map<String, ?> model, CompiledFragments compiled,
+				ServerWebExchange exchange) {
+			return Map.of("count", List.of(model.get("numberOfIncomplete").toString()));
+		}
+
+		@Override
+		public Map<String, Object> sample(Map<String, ?> model, Sample sample) {
+
+			var result = new HashMap<String, Object>(model);
+
+			result.put("numberOfIncomplete", sample.count());
+
+			return result;
+		}
+	}
+
+	private static class TodoCount extends Foot {
+
+		@Override
+		public String variant(Map<String, ?> model) {
+			return model.get("numberOfIncomplete") instanceof Long ? "" : null;
+		}
+	}
+
+	/**
+	 * Collects the body written to it instead of writing it to the actual
+	 * response, whose headers are left alone as well.
+	 */
+	private static class CapturingResponse extends ServerHttpResponseDecorator {
+
+		private final HttpHeaders headers = new HttpHeaders();
+		private final StringBuilder body = new StringBuilder();
+
+		CapturingResponse(ServerHttpResponse delegate) {
+			super(delegate);
+		}
+
+		@Override
+		public HttpHeaders getHeaders() {
+			return headers;
+		}
+
+		@Override
+		public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+
+			return DataBufferUtils.join(body).doOnNext(buffer -> {
+				this.body.append(buffer.toString(UTF_8));
+				DataBufferUtils.release(buffer);
+			}).then();
+		}
+
+		@Override
+		public Mono<Void> writeAndFlushWith(Publisher<? extends Publisher<? extends DataBuffer>> body) {
+			return writeWith(Flux.from(body).concatMap(Flux::from));
+		}
+
+		@Override
+		public Mono<Void> setComplete() {
+			return Mono.empty();
+		}
+
+		String getBody() {
+			return body.toString();
+		}
+	}
+}
@@ -15,10 +15,16 @@
  */
 package example.todomvc.web;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
+import org.reactivestreams.Publisher;
 import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -26,16 +32,26 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.reactive.result.view.Fragment;
 import org.springframework.web.reactive.result.view.FragmentRendering;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
 
+import example.todomvc.Tenant;
+import example.todomvc.TitleIndex;
 import example.todomvc.Todo;
+import example.todomvc.TodoProperties;
+import example.todomvc.web.TemplateModel.Counts;
+import example.todomvc.web.TemplateModel.TodoDto;
 import example.todomvc.web.TemplateModel.TodoForm;
+import example.todomvc.web.TemplateModel.ToggleAllForm;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 @Profile("htmx")
 @Controller
@@ -43,72 +59,256 @@ import reactor.core.publisher.Flux;
 @RequestMapping(headers = "HX-Request=true")
 class HtmxTodoController {
 
+	/**
+	 * The number of todos rendered into a single fragment when streaming a list.
+	 * Each fragment is flushed on its own, so this trades the number of writes
+	 * against the amount of HTML buffered per write.
+	 */
+	private static final int CHUNK_SIZE = 32;
+
+	private static final Set<String> FILTERS = Set.of("active", "completed");
+
 	private final TemplateModel template;
+	private final TodoProperties properties;
 
+	/**
+	 * Streams the first page of todos. The list is replaced by an empty one first
+	 * and the todos are then appended chunk by chunk as they are rendered, so
+	 * neither the todos nor the HTML for the entire page are ever held in memory
+	 * at once. Reference data is only looked up once the list is done. Nothing is
+	 * rendered at all if the client's copy is still up to date. The page also
+	 * reconnects to {@link TodoEvents} for the requested filter.
+	 */
 	@GetMapping("/")
-	FragmentRendering htmxIndex(Model model, @RequestParam Optional<String> filter) {
+	FragmentRendering htmxIndex(Tenant tenant, Model model, @RequestParam Optional<String> filter,
+			ServerWebExchange exchange) {
+
+		if (template.checkNotModified(tenant, exchange, "htmx")) {
+			return null;
+		}
 
-		template.prepareForm(model, filter);
 		model.addAttribute("action", "true");
+		model.addAttribute("todos", List.of());
+
+		var chunks = template.streamPage(tenant, model, filter, Optional.empty(), CHUNK_SIZE)
+				.map(todos -> Fragment.create("fragments :: append-todos", chunk(todos, filter)));
+
+		return FragmentRendering.fromPublisher(Flux.concat(fragments(model, "index :: todos"), chunks,
+				Mono.defer(() -> model.containsAttribute("next")
+						? Mono.just(Fragment.create("fragments :: append-todos", model.asMap()))
+						: Mono.empty()),
+				template.prepareReferenceData(tenant, model, filter)
+						.thenMany(fragments(model, "index :: toggle-all", "index :: foot", "index :: sync"))))
+				.build();
+	}
+
+	/**
+	 * Streams the next page of todos, requested by the {@code more} placeholder at
+	 * the end of the list once it is scrolled into view. The page brings its own
+	 * placeholder for the page after it.
+	 */
+	@GetMapping(path = "/", params = "after")
+	FragmentRendering htmxMoreTodos(Tenant tenant, Model model, @RequestParam Optional<String> filter,
+			@RequestParam String after) {
+
+		var chunks = template.streamPage(tenant, model, filter, Optional.of(after), CHUNK_SIZE)
+				.map(todos -> Fragment.create("fragments :: page", chunk(todos, filter)));
+
+		return FragmentRendering.fromPublisher(chunks.concatWith(fragments(model, "fragments :: more"))).build();
+	}
+
+	/**
+	 * Replaces the list with the todos matching the given query, as typed into
+	 * the search box. The results end in a link back to the full list, which
+	 * also keeps new todos from being appended to them. Queries too short to
+	 * look up bring back the first page of the list instead.
+	 */
+	@GetMapping("/search")
+	FragmentRendering htmxSearch(Tenant tenant, @RequestParam Optional<String> q,
+			@RequestParam Optional<String> filter, Model model) {
 
-		return FragmentRendering.fromPublisher(Flux.just(Fragment.create("index :: todos", model.asMap()),
-				Fragment.create("index :: foot", model.asMap()))).build();
+		var query = q.orElse("");
+
+		if (!TitleIndex.isSearchable(query)) {
+			return FragmentRendering.fromPublisher(list(tenant, model, filter)).build();
+		}
+
+		return FragmentRendering.fromPublisher(template.prepareResults(tenant, model, filter, query)
+				.thenMany(fragments(model, "fragments :: results"))).build();
 	}
 
 	/**
 	 * An optimized variant of {@link #createTodo(TodoItemFormData)}. We perform the
-	 * normal insert and then return two {@link HtmxPartials} for the parts of the
-	 * page that need updates by rendering the corresponding fragments of the
-	 * template.
+	 * normal insert and then return {@link Fragment}s for the parts of the page
+	 * that need updates by rendering the corresponding fragments of the template.
+	 * The new todo is only appended if it is shown with the current filter.
 	 *
 	 * @param form
 	 * @param model
 	 * @return
 	 */
 	@PostMapping("/")
-	FragmentRendering htmxCreateTodo(@Valid @ModelAttribute("form") TodoForm form, @RequestParam Optional<String> filter,
-			Model model) {
+	FragmentRendering htmxCreateTodo(Tenant tenant, @Valid @ModelAttribute("form") TodoForm form,
+			@RequestParam Optional<String> filter, Model model) {
 
-		template.saveForm(form, model, filter);
 		model.addAttribute("form", new TodoForm(""));
-		model.addAttribute("action", "beforeend");
 
-		return FragmentRendering.fromPublisher(Flux.just(Fragment.create("index :: new-todo", model.asMap()),
-				Fragment.create("index :: todos", model.asMap()),
-				Fragment.create("index :: foot", model.asMap()))).build();
+		// Only append if the list is fully loaded, otherwise the new todo shows up with the last page
+		model.addAttribute("action", "beforeend:#todos:not(:has(li.more))");
+
+		var created = template.save(tenant, form).flatMapMany(todo -> {
+
+			model.addAttribute("todos", List.of(TodoDto.of(todo)));
+
+			return fragments(model, matches(todo, filter) ? new String[] { "index :: new-todo", "index :: todos" }
+					: new String[] { "index :: new-todo" });
+		});
+
+		return FragmentRendering.fromPublisher(changes(tenant, model, filter, created)).build();
 	}
 
-	@GetMapping("/{id}/toggle")
-	FragmentRendering htmxToggleCompletion(@PathVariable UUID id, @RequestParam Optional<String> filter, Model model) {
+	@PutMapping("/{id}/toggle")
+	FragmentRendering htmxToggleCompletion(Tenant tenant, @PathVariable UUID id, @RequestParam Optional<String> filter,
+			Model model) {
 
-		Todo todo = template.find(id);
-		final Todo result = template.save(todo.toggleCompletion(), model, filter);
-		model.addAttribute("todo", result);
+		return FragmentRendering.fromPublisher(changes(tenant, model, filter, template.toggleCompletion(tenant, id)
+				.switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.NOT_FOUND)))
+				.map(result -> row(result, filter)))).build();
+	}
 
-		return FragmentRendering.fromPublisher(filter
-				.map(it -> it.equals("active") && result.isCompleted() || it.equals("inactive") && !result.isCompleted()
-						? Flux.just(Fragment.create("fragments :: remove-todo", model.asMap()))
-						: Flux.just(Fragment.create("fragments :: update-todo", model.asMap())))
-				.orElse(Flux.just(Fragment.create("fragments :: update-todo", model.asMap())))
-				.concatWithValues(Fragment.create("index :: foot", model.asMap()))).build();
+	/**
+	 * Updates the rows of the todos that changed in place, unless that takes more
+	 * fragments than re-rendering the list, or some of them now need to show up in
+	 * a list filtered by completion.
+	 */
+	@PutMapping("/toggle-all")
+	FragmentRendering htmxToggleAll(Tenant tenant, @ModelAttribute ToggleAllForm form,
+			@RequestParam Optional<String> filter, Model model) {
+
+		return FragmentRendering.fromPublisher(changes(tenant, model, filter, template
+				.changeCompletedForAll(tenant, form.completed())
+				.flatMapMany(changed -> {
+
+					var appearing = filter.filter(FILTERS::contains).isPresent()
+							&& changed.stream().anyMatch(todo -> matches(todo, filter));
+
+					return appearing || changed.size() > properties.pageSize() ? list(tenant, model, filter)
+							: Flux.fromIterable(changed).map(todo -> row(todo, filter));
+				}))).build();
 	}
 
 	@DeleteMapping("/{id}")
-	FragmentRendering htmxDeleteTodo(@PathVariable UUID id, @RequestParam Optional<String> filter, Model model) {
-
-		Todo todo = template.find(id);
-		template.delete(todo, model, filter);
-		model.addAttribute("todo", todo);
+	FragmentRendering htmxDeleteTodo(Tenant tenant, @PathVariable UUID id, @RequestParam Optional<String> filter,
+			Model model) {
 
-		return FragmentRendering.fromPublisher(Flux.just(Fragment.create("fragments :: remove-todo", model.asMap()),
-				Fragment.create("index :: foot", model.asMap()))).build();
+		return FragmentRendering.fromPublisher(changes(tenant, model, filter, template.findById(tenant, id)
+				.flatMap(todo -> template.delete(tenant, todo))
+				.map(HtmxTodoController::removed)))
+				.build();
 	}
 
+	/**
+	 * Removes the rows of the deleted todos, if they were shown at all. A list
+	 * that only showed completed todos is emptied at once.
+	 */
 	@DeleteMapping("/completed")
-	FragmentRendering htmxDeleteCompletedTodos(@RequestParam Optional<String> filter, Model model) {
+	FragmentRendering htmxDeleteCompletedTodos(Tenant tenant, @RequestParam Optional<String> filter, Model model) {
+
+		return FragmentRendering.fromPublisher(changes(tenant, model, filter, template.deleteCompleted(tenant)
+				.flatMapMany(deleted -> {
 
-		template.deleteCompletedTodos();
+					var shown = filter.orElse("");
 
-		return htmxIndex(model, filter);
+					if (deleted.isEmpty() || shown.equals("active")) {
+						return Flux.empty();
+					}
+
+					return shown.equals("completed") || deleted.size() > properties.pageSize()
+							? list(tenant, model, filter)
+							: Flux.fromIterable(deleted).map(HtmxTodoController::removed);
+				}))).build();
+	}
+
+	/**
+	 * Renders the fragments for the given change followed by those for the
+	 * reference data that changed along with it: the toggle-all checkbox only if
+	 * it flips, the footer if it appears or disappears, and just the count of
+	 * incomplete todos otherwise. Nothing is rendered for counts that stayed the
+	 * same.
+	 */
+	private Flux<Fragment> changes(Tenant tenant, Model model, Optional<String> filter, Publisher<Fragment> change) {
+
+		return template.counts(tenant).flatMapMany(before -> Flux.from(change).collectList()
+				.flatMapMany(rows -> template.prepareCounts(tenant, model, filter)
+						.flatMapMany(after -> Flux.fromIterable(rows)
+								.concatWith(fragments(model, referenceData(before, after))))));
+	}
+
+	private static String[] referenceData(Counts before, Counts after) {
+
+		var views = new ArrayList<String>(2);
+
+		if (before.allCompleted() != after.allCompleted()) {
+			views.add("index :: toggle-all");
+		}
+
+		if ((before.numberOfTodos() == 0) != (after.numberOfTodos() == 0)) {
+			views.add("index :: foot");
+		} else if (before.numberOfIncomplete() != after.numberOfIncomplete()) {
+			views.add("index :: todo-count");
+		}
+
+		return views.toArray(String[]::new);
+	}
+
+	/**
+	 * Re-renders the first page of the list.
+	 */
+	private Flux<Fragment> list(Tenant tenant, Model model, Optional<String> filter) {
+
+		model.addAttribute("action", "true");
+
+		return template.preparePage(tenant, model, filter, Optional.empty()).thenMany(fragments(model, "index :: todos"));
+	}
+
+	/**
+	 * Updates the row of the given todo in place, or removes it if it's no longer
+	 * shown with the given filter.
+	 */
+	private static Fragment row(Todo todo, Optional<String> filter) {
+
+		return matches(todo, filter)
+				? Fragment.create("fragments :: update-todo", Map.of("todo", TodoDto.of(todo), "filter", filter.orElse("")))
+				: removed(todo);
+	}
+
+	private static Fragment removed(Todo todo) {
+		return Fragment.create("fragments :: remove-todo", Map.of("todo", TodoDto.of(todo)));
+	}
+
+	private static boolean matches(Todo todo, Optional<String> filter) {
+
+		return switch (filter.orElse("")) {
+		case "active" -> !todo.isCompleted();
+		case "completed" -> todo.isCompleted();
+		default -> true;
+		};
+	}
+
+	/**
+	 * A model for a chunk of a streamed list. Deliberately leaves out the
+	 * {@code next} cursor so that the placeholder for the next page is only
+	 * rendered once, after the last chunk.
+	 */
+	private static Map<String, Object> chunk(List<TodoDto> todos, Optional<String> filter) {
+		return Map.of("todos", todos, "filter", filter.orElse(""));
+	}
+
+	/**
+	 * Lazily creates the {@link Fragment}s for the given view names so that they
+	 * pick up the model as populated by the time they are subscribed to.
+	 */
+	private static Flux<Fragment> fragments(Model model, String... views) {
+		return Flux.fromArray(views).map(view -> Fragment.create(view, model.asMap()));
 	}
 }
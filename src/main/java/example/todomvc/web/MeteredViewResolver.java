@@ -0,0 +1,106 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc.web;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.core.Ordered;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.HandlerMapping;
+import org.springframework.web.reactive.result.view.RedirectView;
+import org.springframework.web.reactive.result.view.View;
+import org.springframework.web.reactive.result.view.ViewResolver;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.util.pattern.PathPattern;
+import org.thymeleaf.spring6.view.reactive.ThymeleafReactiveViewResolver;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Mono;
+
+/**
+ * Resolves views through Thymeleaf and records a {@code todos.fragments} timer
+ * per rendered view or fragment (e.g. {@code index :: todos}), tagged with the
+ * endpoint that rendered it. Timers are registered once per combination of
+ * view and endpoint, not looked up on every render. Ordered ahead of the Thymeleaf resolver itself.
+ * The fragments sent with every change are rendered from
+ * {@link CompiledFragments precompiled skeletons} where possible.
+ */
+@Component
+@RequiredArgsConstructor
+class MeteredViewResolver implements ViewResolver, Ordered {
+
+	private final ThymeleafReactiveViewResolver delegate;
+	private final MeterRegistry registry;
+	private final CompiledFragments compiled;
+	private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+	@Override
+	public Mono<View> resolveViewName(String viewName, Locale locale) {
+
+		return delegate.resolveViewName(viewName, locale)
+				.map(view -> view instanceof RedirectView ? view : new MeteredView(viewName, compiled.compile(viewName, view)));
+	}
+
+	@Override
+	public int getOrder() {
+		return delegate.getOrder() - 1;
+	}
+
+	@RequiredArgsConstructor
+	private class MeteredView implements View {
+
+		private final String name;
+		private final View delegate;
+
+		@Override
+		public List<MediaType> getSupportedMediaTypes() {
+			return delegate.getSupportedMediaTypes();
+		}
+
+		@Override
+		public Mono<Void> render(Map<String, ?> model, MediaType contentType, ServerWebExchange exchange) {
+
+			return Mono.defer(() -> {
+
+				var sample = Timer.start(registry);
+
+				return delegate.render(model, contentType, exchange)
+						.doFinally(__ -> sample.stop(timer(name, endpoint(exchange))));
+			});
+		}
+	}
+
+	private Timer timer(String fragment, String endpoint) {
+
+		return timers.computeIfAbsent(fragment + " @ " + endpoint, __ -> Timer.builder("todos.fragments")
+				.tag("fragment", fragment)
+				.tag("endpoint", endpoint)
+				.register(registry));
+	}
+
+	private static String endpoint(ServerWebExchange exchange) {
+
+		PathPattern pattern = exchange.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+
+		return exchange.getRequest().getMethod().name() + " " + (pattern != null ? pattern.getPatternString() : "UNKNOWN");
+	}
+}
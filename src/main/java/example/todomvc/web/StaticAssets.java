@@ -0,0 +1,220 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.StringUtils;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.webjars.WebJarAssetLocator;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Serves the webjar assets the page links to under content-hashed URLs, e.g.
+ * {@code /assets/htmx.org/dist/htmx-<hash>.js}, that can be cached forever.
+ * The assets are looked up in their webjars, hashed and gzipped once on
+ * startup and served straight from memory, gzipped to clients that accept it.
+ * Links to the versionless webjar paths, e.g.
+ * {@code @{/webjars/htmx.org/dist/htmx.js}}, are rewritten to the hashed URLs
+ * as templates render them, so they only ever change along with the content.
+ * Anything else under {@code /webjars} is still served as before.
+ */
+@Component
+class StaticAssets implements WebFilter {
+
+	static final String PREFIX = "/assets/";
+
+	private static final List<String> PATHS = List.of("/webjars/todomvc-common/base.css",
+			"/webjars/todomvc-app-css/index.css", "/webjars/htmx.org/dist/htmx.js", "/webjars/htmx.org/dist/ext/sse.js");
+
+	private static final CacheControl IMMUTABLE = CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable();
+
+	// By versionless webjar path and hashed URL
+	private final Map<String, Asset> byPath = new HashMap<>();
+	private final Map<String, Asset> byUrl = new HashMap<>();
+
+	StaticAssets() {
+
+		var locator = new WebJarAssetLocator();
+
+		for (var path : PATHS) {
+
+			var asset = Asset.of(path, locator);
+
+			byPath.put(path, asset);
+			byUrl.put(asset.url(), asset);
+		}
+	}
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+
+		var request = exchange.getRequest();
+		var path = request.getPath().pathWithinApplication().value();
+
+		if (path.startsWith(PREFIX) && (HttpMethod.GET.equals(request.getMethod())
+				|| HttpMethod.HEAD.equals(request.getMethod()))) {
+
+			var asset = byUrl.get(path);
+
+			if (asset != null) {
+				return serve(asset, exchange);
+			}
+		}
+
+		exchange.addUrlTransformer(url -> transform(url, exchange));
+
+		return chain.filter(exchange);
+	}
+
+	/**
+	 * Returns the hashed URL for the given webjar path, e.g.
+	 * {@code /webjars/htmx.org/dist/htmx.js}, or {@literal null} if it's not one
+	 * of the assets served.
+	 */
+	@Nullable
+	String url(String path) {
+
+		var asset = byPath.get(path);
+
+		return asset == null ? null : asset.url();
+	}
+
+	private String transform(String url, ServerWebExchange exchange) {
+
+		var contextPath = exchange.getRequest().getPath().contextPath().value();
+
+		if (!url.startsWith(contextPath)) {
+			return url;
+		}
+
+		var asset = byPath.get(url.substring(contextPath.length()));
+
+		return asset == null ? url : contextPath + asset.url();
+	}
+
+	private static Mono<Void> serve(Asset asset, ServerWebExchange exchange) {
+
+		var response = exchange.getResponse();
+		var headers = response.getHeaders();
+
+		headers.setCacheControl(IMMUTABLE);
+		headers.setVary(List.of(HttpHeaders.ACCEPT_ENCODING));
+
+		var gzip = asset.gzipped() != null && acceptsGzip(exchange.getRequest().getHeaders());
+
+		if (exchange.checkNotModified(asset.etag(gzip))) {
+			return response.setComplete();
+		}
+
+		var body = gzip ? asset.gzipped() : asset.content();
+
+		headers.setContentType(asset.contentType());
+		headers.setContentLength(body.length);
+
+		if (gzip) {
+			headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+		}
+
+		return response.writeWith(Mono.just(response.bufferFactory().wrap(body)));
+	}
+
+	private static boolean acceptsGzip(HttpHeaders headers) {
+
+		for (var value : headers.getOrEmpty(HttpHeaders.ACCEPT_ENCODING)) {
+			for (var coding : StringUtils.tokenizeToStringArray(value, ",")) {
+
+				var parameters = StringUtils.tokenizeToStringArray(coding, ";");
+
+				if ((parameters[0].equalsIgnoreCase("gzip") || parameters[0].equals("*"))
+						&& (parameters.length == 1 || !parameters[1].replace(" ", "").matches("q=0(\\.0*)?"))) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * A webjar asset as served, with its gzipped content if that's any smaller.
+	 */
+	record Asset(String url, String hash, MediaType contentType, byte[] content, @Nullable byte[] gzipped) {
+
+		/**
+		 * Returns the strong entity tag of the identity or the gzipped
+		 * representation, which differ as their bytes do.
+		 */
+		String etag(boolean gzip) {
+			return "\"" + hash + (gzip ? "-gzip" : "") + "\"";
+		}
+
+		static Asset of(String path, WebJarAssetLocator locator) {
+
+			var partial = path.substring("/webjars/".length());
+			var webjar = partial.substring(0, partial.indexOf('/'));
+			var resource = new ClassPathResource(locator.getFullPath(webjar, partial.substring(webjar.length() + 1)));
+
+			try (var input = resource.getInputStream()) {
+
+				var content = StreamUtils.copyToByteArray(input);
+				var hash = DigestUtils.md5DigestAsHex(content);
+				var extension = StringUtils.getFilenameExtension(partial);
+				var url = PREFIX + StringUtils.stripFilenameExtension(partial) + "-" + hash
+						+ (extension == null ? "" : "." + extension);
+				var contentType = MediaTypeFactory.getMediaType(partial).orElse(MediaType.APPLICATION_OCTET_STREAM);
+				var gzipped = gzip(content);
+
+				return new Asset(url, hash, contentType, content,
+						gzipped.length < content.length ? gzipped : null);
+
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to read " + resource, e);
+			}
+		}
+
+		private static byte[] gzip(byte[] content) throws IOException {
+
+			var result = new ByteArrayOutputStream(content.length / 3);
+
+			try (var output = new GZIPOutputStream(result)) {
+				output.write(content);
+			}
+
+			return result.toByteArray();
+		}
+	}
+}
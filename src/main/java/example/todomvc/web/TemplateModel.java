@@ -15,25 +15,41 @@
  */
 package example.todomvc.web;
 
+import example.todomvc.Tenant;
 import example.todomvc.Todo;
-import example.todomvc.Todos;
+import example.todomvc.TodoProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
-import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import jakarta.validation.constraints.NotBlank;
 
-import org.springframework.data.domain.Sort;
-import org.springframework.data.domain.Sort.TypedSort;
-import org.springframework.data.util.Streamable;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Window;
+import org.springframework.http.CacheControl;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
 import org.springframework.ui.Model;
+import org.springframework.util.IdGenerator;
+import org.springframework.web.server.ServerWebExchange;
 
 /**
  * Helper component to prepare {@link Model} instances to render a template.
- * Also converts form data into domain objects.
+ * Also converts form data into domain objects. All methods are non-blocking and
+ * populate the {@link Model} once the returned publisher completes. Lists of
+ * todos are rendered a page at a time, the model carries an opaque
+ * {@code next} cursor as long as there are more todos to load. All methods
+ * work on the todos of the {@link Tenant} passed in.
  *
  * @author Oliver Drotbohm
  */
@@ -41,102 +57,251 @@ import org.springframework.ui.Model;
 @RequiredArgsConstructor
 class TemplateModel {
 
-	private static final Sort DEFAULT_SORT = TypedSort.sort(Todo.class).by(Todo::getCreated);
+	// Store versions start over on restart, so include the start time to not match ETags handed out before
+	private static final String INSTANCE = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
 
-	private final Todos todos;
+	private final TodoProperties properties;
+	private final IdGenerator ids;
+	private final MeterRegistry registry;
+	private final Map<String, Timer> timers = new ConcurrentHashMap<>();
 
-	void prepareForm(Model model, Optional<String> filter) {
+	Mono<Void> prepareForm(Tenant tenant, Model model, Optional<String> filter) {
+		return prepareForm(tenant, model, filter, Optional.empty());
+	}
+
+	Mono<Void> prepareForm(Tenant tenant, Model model, Optional<String> filter, Optional<String> after) {
 
 		model.addAttribute("form", new TodoForm(""));
 
-		prepareTodos(model, filter);
+		return prepareTodos(tenant, model, filter, after);
+	}
+
+	/**
+	 * Checks the request against an ETag derived from the tenant, the version of
+	 * its store and the given variant of the response, and adds the caching headers to the
+	 * response. Nothing needs to be rendered if it returns {@literal true}, as the
+	 * response has been turned into a {@code 304 Not Modified} already.
+	 *
+	 * @param variant distinguishes different renderings of the same URL, e.g. a full
+	 *                page and the fragments for htmx
+	 */
+	boolean checkNotModified(Tenant tenant, ServerWebExchange exchange, String variant) {
+
+		var headers = exchange.getResponse().getHeaders();
+
+		headers.setCacheControl(CacheControl.noCache());
+		headers.setVary(List.of("HX-Request"));
+
+		var version = tenant.reactive().version();
+
+		return exchange.checkNotModified("\"" + INSTANCE + "-" + tenant.id() + "-" + version + "-" + variant + "\"");
+	}
+
+	Mono<Todo> save(Tenant tenant, TodoForm form) {
+		return tenant.reactive().save(form.toEntity(ids));
 	}
 
-	Todo save(TodoForm form) {
-		return todos.save(form.toEntity());
+	/**
+	 * Toggles the completion state of the todo with the given id against its
+	 * latest version, so that concurrent toggles are never lost.
+	 */
+	Mono<Todo> toggleCompletion(Tenant tenant, UUID id) {
+		return tenant.reactive().update(id, Todo::toggleCompletion);
 	}
 
-	Todo save(Todo todo) {
-		return todos.save(todo);
+	Mono<Todo> delete(Tenant tenant, Todo todo) {
+		return tenant.reactive().delete(todo);
 	}
 
-	Todo save(Todo todo, Model model, Optional<String> filter) {
-		var result = save(todo);
-		prepareReferenceData(todo, model, filter);
+	Mono<Void> deleteCompletedTodos(Tenant tenant) {
+		return deleteCompleted(tenant).then();
+	}
 
-		return result;
+	/**
+	 * Deletes all completed todos and returns the ones deleted.
+	 */
+	Mono<List<Todo>> deleteCompleted(Tenant tenant) {
+		return tenant.reactive().deleteAllByCompleted(true).collectList();
 	}
 
-	void saveForm(TodoForm form, Model model, Optional<String> filter) {
+	Mono<Void> setCompletedForAll(Tenant tenant, boolean completed) {
+		return changeCompletedForAll(tenant, completed).then();
+	}
 
-		var todo = save(form);
+	/**
+	 * Sets the completion state of all todos and returns the ones that changed.
+	 */
+	Mono<List<Todo>> changeCompletedForAll(Tenant tenant, boolean completed) {
+		return tenant.reactive().setCompletedForAll(completed).collectList();
+	}
 
-		model.addAttribute("todos", Arrays.asList(todo));
-		prepareReferenceData(todo, model, filter);
+	Mono<Void> prepareTodos(Tenant tenant, Model model, Optional<String> filter) {
+		return prepareTodos(tenant, model, filter, Optional.empty());
 	}
 
-	void delete(Todo todo) {
-		todos.delete(todo);
+	Mono<Void> prepareTodos(Tenant tenant, Model model, Optional<String> filter, Optional<String> after) {
+		return timed("prepareTodos", filter,
+				preparePage(tenant, model, filter, after).then(prepareReferenceData(tenant, model, filter)));
 	}
 
-	void delete(Todo todo, Model model, Optional<String> filter) {
-		todos.delete(todo);
-		prepareReferenceData(model, filter);
+	/**
+	 * Prepares the page of todos following the given cursor without any of the
+	 * reference data, i.e. just enough to render {@code fragments :: page}.
+	 */
+	Mono<Void> preparePage(Tenant tenant, Model model, Optional<String> filter, Optional<String> after) {
+
+		model.addAttribute("filter", filter.orElse(""));
+
+		return timed("preparePage", filter, todos(tenant, filter, after).doOnNext(window -> {
+			model.addAttribute("todos", window.stream().map(TodoDto::of).toList());
+			model.addAttribute("next", next(window));
+		}).then());
 	}
 
-	void deleteCompletedTodos() {
-		todos.findByCompleted(true, Sort.unsorted()).forEach(todos::delete);
+	/**
+	 * Prepares the todos with titles containing the given query, up to a page of
+	 * them, restricted to the given filter.
+	 */
+	Mono<Void> prepareResults(Tenant tenant, Model model, Optional<String> filter, String query) {
+
+		model.addAttribute("filter", filter.orElse(""));
+
+		// Needed due to https://bugs.eclipse.org/bugs/show_bug.cgi?id=576093
+		var defaulted = filter.orElse("");
+		Boolean completed = switch (defaulted) {
+		case "active" -> false;
+		case "completed" -> true;
+		default -> null;
+		};
+
+		var matches = Flux.defer(() -> Flux.fromIterable(tenant.index().search(query, completed, properties.pageSize())));
+
+		return timed("prepareResults", filter, matches
+				.concatMap(tenant.reactive()::findById)
+				.map(TodoDto::of)
+				.collectList()
+				.doOnNext(results -> model.addAttribute("todos", results))
+				.then());
 	}
 
-	void prepareTodos(Model model, Optional<String> filter) {
+	/**
+	 * Streams the page of todos following the given cursor in chunks of the given
+	 * size instead of collecting them into the {@link Model}. The {@code next}
+	 * cursor is added to the model before the returned {@link Flux} completes.
+	 */
+	Flux<List<TodoDto>> streamPage(Tenant tenant, Model model, Optional<String> filter, Optional<String> after,
+			int chunkSize) {
 
-		model.addAttribute("todos",
-				todos(filter).map(it -> new TodoDto(it.getId(), it.getTitle(), it.isCompleted())).toList());
+		model.addAttribute("filter", filter.orElse(""));
 
-		prepareReferenceData(model, filter);
+		return todos(tenant, filter, after)
+				.doOnNext(window -> model.addAttribute("next", next(window)))
+				.flatMapIterable(window -> window)
+				.map(TodoDto::of)
+				.buffer(chunkSize);
 	}
 
-	void prepareReferenceData(Todo todo, Model model, Optional<String> filter) {
+	Mono<Void> prepareReferenceData(Tenant tenant, Todo todo, Model model, Optional<String> filter) {
+
+		model.addAttribute("todo", TodoDto.of(todo));
 
-		model.addAttribute("todo", new TodoDto(todo.getId(), todo.getTitle(), todo.isCompleted()));
+		return prepareReferenceData(tenant, model, filter);
+	}
 
-		prepareReferenceData(model, filter);
+	Mono<Void> prepareReferenceData(Tenant tenant, Model model, Optional<String> filter) {
+		return prepareCounts(tenant, model, filter).then();
 	}
 
-	void prepareReferenceData(Model model, Optional<String> filter) {
+	/**
+	 * Prepares the reference data like {@link #prepareReferenceData(Tenant, Model, Optional)}
+	 * and returns the counts it is made of, so that callers can compare them to
+	 * the ones before a change.
+	 */
+	Mono<Counts> prepareCounts(Tenant tenant, Model model, Optional<String> filter) {
 
 		model.addAttribute("filter", filter.orElse(""));
-		model.addAttribute("numberOfIncomplete", todos.findByCompleted(false, DEFAULT_SORT).toList().size());
-		model.addAttribute("numberOfTodos", todos.findAll(DEFAULT_SORT).toList().size());
+
+		return timed("prepareReferenceData", filter, counts(tenant).doOnNext(it -> {
+			model.addAttribute("numberOfIncomplete", it.numberOfIncomplete());
+			model.addAttribute("numberOfTodos", it.numberOfTodos());
+		}));
+	}
+
+	Mono<Counts> counts(Tenant tenant) {
+
+		var todos = tenant.reactive();
+
+		return Mono.zip(todos.countByCompleted(false), todos.count()).map(it -> new Counts(it.getT2(), it.getT1()));
+	}
+
+	/**
+	 * Records a {@code todos.template} timer for the given work, tagged with the
+	 * method and a normalized filter so that user input can't blow up the tag
+	 * cardinality. Timers are registered once per tag combination.
+	 */
+	private <T> Mono<T> timed(String method, Optional<String> filter, Mono<T> work) {
+
+		return Mono.defer(() -> {
+
+			var sample = Timer.start(registry);
+			var normalized = filter.filter(it -> it.equals("active") || it.equals("completed")).orElse("all");
+
+			return work.doFinally(__ -> sample.stop(timers.computeIfAbsent(method + " " + normalized,
+					key -> Timer.builder("todos.template")
+							.tag("method", method)
+							.tag("filter", normalized)
+							.register(registry))));
+		});
 	}
 
-	private Streamable<Todo> todos(Optional<String> filter) {
+	private Mono<Window<Todo>> todos(Tenant tenant, Optional<String> filter, Optional<String> after) {
 
 		// Needed due to https://bugs.eclipse.org/bugs/show_bug.cgi?id=576093
 		var defaulted = filter.orElse("");
+		var position = after.map(TodoCursor::decode).orElseGet(ScrollPosition::keyset);
+		var limit = Limit.of(properties.pageSize());
+		var todos = tenant.reactive();
 
 		return switch (defaulted) {
-		case "active" -> todos.findByCompleted(false, DEFAULT_SORT);
-		case "completed" -> todos.findByCompleted(true, DEFAULT_SORT);
-		default -> todos.findAll(DEFAULT_SORT);
+		case "active" -> todos.findByCompleted(false, position, limit);
+		case "completed" -> todos.findByCompleted(true, position, limit);
+		default -> todos.findAll(position, limit);
 		};
 	}
 
+	@Nullable
+	private static String next(Window<Todo> window) {
+		return window.hasNext() ? TodoCursor.encode((KeysetScrollPosition) window.positionAt(window.size() - 1)) : null;
+	}
+
 	public record TodoForm(@NotBlank String title) {
 
-		Todo toEntity() {
-			return new Todo(title);
+		Todo toEntity(IdGenerator ids) {
+			return new Todo(ids.generateId(), title);
 		}
 	}
 
-	public record TodoDto(UUID id, String title, boolean completed) {
+	public record ToggleAllForm(boolean completed) {
 	}
 
-	public Todo find(UUID id) {
-		return todos.findById(id).orElseGet(() -> {
-			Todo todo = new Todo("Not found");
-			return todo;
-		});
+	/**
+	 * The counts the toggle-all checkbox and the footer are rendered from.
+	 */
+	record Counts(long numberOfTodos, long numberOfIncomplete) {
+
+		boolean allCompleted() {
+			return numberOfTodos > 0 && numberOfIncomplete == 0;
+		}
+	}
+
+	public record TodoDto(UUID id, String title, boolean completed, long version) {
+
+		static TodoDto of(Todo todo) {
+			return new TodoDto(todo.getId(), todo.getTitle(), todo.isCompleted(), todo.getVersion());
+		}
 	}
 
+	public Mono<Todo> findById(Tenant tenant, UUID id) {
+		return tenant.reactive().findById(id);
+	}
 }
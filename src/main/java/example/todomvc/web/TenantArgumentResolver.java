@@ -0,0 +1,107 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc.web;
+
+import java.util.Optional;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpCookie;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.reactive.BindingContext;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+import org.springframework.web.reactive.result.method.HandlerMethodArgumentResolver;
+import org.springframework.web.reactive.result.method.annotation.ArgumentResolverConfigurer;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+
+import example.todomvc.Tenant;
+import example.todomvc.Tenants;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Resolves controller method parameters of type {@link Tenant} from the
+ * {@value #HEADER} request header, or the {@value #COOKIE} cookie for requests
+ * that can't set headers like the {@code EventSource} of the page. Requests
+ * naming neither get the {@link Tenants#DEFAULT default tenant}. Both are
+ * expected to be set by whatever authenticates users in front of the
+ * application, not trusted as given by the user. Tenants that aren't allowed or
+ * would exceed the configured number of tenants are rejected. A tenant's store
+ * is created on the scheduler for store access, as that may restore it from
+ * disk.
+ */
+@Component
+@RequiredArgsConstructor
+class TenantArgumentResolver implements HandlerMethodArgumentResolver, WebFluxConfigurer {
+
+	static final String HEADER = "X-Tenant";
+	static final String COOKIE = "tenant";
+
+	private final Tenants tenants;
+	private final Scheduler scheduler;
+
+	@Override
+	public void configureArgumentResolvers(ArgumentResolverConfigurer configurer) {
+		configurer.addCustomResolver(this);
+	}
+
+	@Override
+	public boolean supportsParameter(MethodParameter parameter) {
+		return Tenant.class.equals(parameter.getParameterType());
+	}
+
+	@Override
+	public Mono<Object> resolveArgument(MethodParameter parameter, BindingContext bindingContext,
+			ServerWebExchange exchange) {
+
+		return Mono.fromSupplier(() -> {
+
+			var id = tenant(exchange);
+
+			if (!Tenants.isValid(id)) {
+				throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid tenant");
+			}
+
+			if (!tenants.isAllowed(id)) {
+				throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Unknown tenant");
+			}
+
+			try {
+				return tenants.get(id);
+			} catch (IllegalStateException e) {
+				throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Too many tenants", e);
+			}
+		}).subscribeOn(scheduler);
+	}
+
+	private static String tenant(ServerWebExchange exchange) {
+
+		var request = exchange.getRequest();
+		var header = request.getHeaders().getFirst(HEADER);
+
+		if (StringUtils.hasText(header)) {
+			return header;
+		}
+
+		return Optional.ofNullable(request.getCookies().getFirst(COOKIE))
+				.map(HttpCookie::getValue)
+				.filter(StringUtils::hasText)
+				.orElse(Tenants.DEFAULT);
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc.web;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Window;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Controller;
+import org.springframework.util.IdGenerator;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import example.todomvc.ReactiveTodos;
+import example.todomvc.Tenant;
+import example.todomvc.Todo;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Exports and imports all todos of a tenant as newline-delimited JSON, one
+ * todo per line, e.g. {@code {"id":"…","title":"…","completed":false,"created":"…"}}.
+ * <p>
+ * The export walks the store a page at a time and encodes each page into a
+ * single buffer, so only as many todos as the client has asked for are ever
+ * held in memory. The import decodes the request body as it arrives and saves
+ * the todos in batches, each waiting for the one before, so the body is only
+ * read as fast as the store takes it. Todos that are in the store already are
+ * skipped, so importing an export again changes nothing. Lines without an id
+ * get a new one. A line without a title fails the import, with the batches
+ * before it saved.
+ */
+@Controller
+class TodoBulkController {
+
+	static final int PAGE_SIZE = 1000;
+	static final int BATCH_SIZE = 1000;
+
+	private final IdGenerator ids;
+	private final ObjectWriter writer;
+
+	TodoBulkController(IdGenerator ids, ObjectMapper mapper) {
+		this.ids = ids;
+		this.writer = mapper.writerFor(TodoJson.class).without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+	}
+
+	@GetMapping(path = "/todos", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	Mono<Void> exportTodos(Tenant tenant, ServerHttpResponse response) {
+
+		var todos = tenant.reactive();
+		var pages = todos.findAll(ScrollPosition.keyset(), Limit.of(PAGE_SIZE))
+				.expand(window -> window.hasNext() ? todos.findAll(last(window), Limit.of(PAGE_SIZE)) : Mono.empty())
+				.filter(window -> !window.isEmpty());
+
+		response.getHeaders().setContentType(MediaType.APPLICATION_NDJSON);
+
+		return response.writeWith(pages.map(window -> encode(window, response.bufferFactory())));
+	}
+
+	@ResponseBody
+	@PostMapping(path = "/todos", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+	Mono<ImportResult> importTodos(Tenant tenant, @RequestBody Flux<TodoJson> lines) {
+
+		var todos = tenant.reactive();
+
+		return lines.map(it -> it.toEntity(ids))
+				.buffer(BATCH_SIZE)
+				.concatMap(batch -> save(todos, batch), 1)
+				.reduce(new ImportResult(0, 0), ImportResult::plus);
+	}
+
+	private static Mono<ImportResult> save(ReactiveTodos todos, List<Todo> batch) {
+
+		return Flux.fromIterable(batch)
+				.filterWhen(todo -> todos.findById(todo.getId()).hasElement().map(exists -> !exists))
+				.collectList()
+				.flatMap(fresh -> todos.saveAll(fresh).count())
+				.map(saved -> new ImportResult(saved, batch.size() - saved));
+	}
+
+	private DataBuffer encode(Window<Todo> window, DataBufferFactory factory) {
+
+		var buffer = factory.allocateBuffer(window.size() * 128);
+
+		try (var output = buffer.asOutputStream()) {
+
+			for (var todo : window) {
+				writer.writeValue(output, TodoJson.of(todo));
+				output.write('\n');
+			}
+
+			return buffer;
+
+		} catch (IOException e) {
+			DataBufferUtils.release(buffer);
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static KeysetScrollPosition last(Window<Todo> window) {
+		return (KeysetScrollPosition) window.positionAt(window.size() - 1);
+	}
+
+	/**
+	 * A todo as exported and imported. Only the title is required on import.
+	 */
+	public record TodoJson(@Nullable UUID id, String title, boolean completed, @Nullable Instant created) {
+
+		static TodoJson of(Todo todo) {
+			return new TodoJson(todo.getId(), todo.getTitle(), todo.isCompleted(), todo.getCreated());
+		}
+
+		Todo toEntity(IdGenerator ids) {
+
+			if (!StringUtils.hasText(title)) {
+				throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Todo without a title");
+			}
+
+			var id = this.id != null ? this.id : ids.generateId();
+			var todo = created != null ? new Todo(id, title, false, created, 0) : new Todo(id, title);
+
+			return todo.withCompleted(completed);
+		}
+	}
+
+	/**
+	 * @param imported the number of todos saved
+	 * @param skipped  the number of todos left alone as they were in the store
+	 *                 already
+	 */
+	public record ImportResult(long imported, long skipped) {
+
+		ImportResult plus(ImportResult other) {
+			return new ImportResult(imported + other.imported, skipped + other.skipped);
+		}
+	}
+}
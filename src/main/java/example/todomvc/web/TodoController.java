@@ -1,6 +1,7 @@
 package example.todomvc.web;
 
 import java.util.Optional;
+import java.util.UUID;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
@@ -10,14 +11,19 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
-import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
 
+import example.todomvc.Tenant;
 import example.todomvc.Todo;
 import example.todomvc.web.TemplateModel.TodoForm;
+import example.todomvc.web.TemplateModel.ToggleAllForm;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Mono;
 
 /**
  * Spring MVC controller to render a traditional Thymeleaf template. Assumes full HTTP requests and rendering.
@@ -32,46 +38,52 @@ class TodoController {
 	private final TemplateModel template;
 
 	@GetMapping
-	String index(@RequestParam Optional<String> filter, Model model) {
+	Mono<String> index(Tenant tenant, @RequestParam Optional<String> filter, @RequestParam Optional<String> after,
+			Model model, ServerWebExchange exchange) {
 
-		template.prepareForm(model, filter);
+		if (template.checkNotModified(tenant, exchange, "page")) {
+			return Mono.empty();
+		}
 
-		return "index";
+		return template.prepareForm(tenant, model, filter, after).thenReturn("index");
 	}
 
 	@PostMapping
-	String createTodo(@Valid @ModelAttribute("form") TodoForm form) {
-
-		template.save(form);
-
-		return "redirect:/";
+	Mono<String> createTodo(Tenant tenant, @Valid @ModelAttribute("form") TodoForm form) {
+		return template.save(tenant, form).thenReturn("redirect:/");
 	}
 
-	@GetMapping("/{id}/toggle")
-	String toggleCompletion(@PathVariable("id") Todo todo) {
-
-		if (todo == null) {
-			throw new HttpClientErrorException(HttpStatus.NOT_FOUND);
-		}
+	@PutMapping("/{id}/toggle")
+	Mono<String> toggleCompletion(Tenant tenant, @PathVariable UUID id) {
 
-		template.save(todo.toggleCompletion());
-
-		return "redirect:/";
+		return template.toggleCompletion(tenant, id)
+				.switchIfEmpty(notFound())
+				.thenReturn("redirect:/");
 	}
 
-	@DeleteMapping("/{todo}")
-	String deleteTodo(@PathVariable Todo todo) {
+	@PutMapping("/toggle-all")
+	Mono<String> toggleAll(Tenant tenant, @ModelAttribute ToggleAllForm form, @RequestParam Optional<String> filter) {
+		return template.setCompletedForAll(tenant, form.completed()).thenReturn("redirect:/?filter=" + filter.orElse(""));
+	}
 
-		template.delete(todo);
+	@DeleteMapping("/{id}")
+	Mono<String> deleteTodo(Tenant tenant, @PathVariable UUID id) {
 
-		return "redirect:/";
+		return existing(tenant, id)
+				.flatMap(todo -> template.delete(tenant, todo))
+				.thenReturn("redirect:/");
 	}
 
 	@DeleteMapping("/completed")
-	String deleteCompletedTodos(@RequestParam Optional<String> filter) {
+	Mono<String> deleteCompletedTodos(Tenant tenant, @RequestParam Optional<String> filter) {
+		return template.deleteCompletedTodos(tenant).thenReturn("redirect:/?filter=" + filter.orElse(""));
+	}
 
-		template.deleteCompletedTodos();
+	private Mono<Todo> existing(Tenant tenant, UUID id) {
+		return template.findById(tenant, id).switchIfEmpty(notFound());
+	}
 
-		return "redirect:/?filter=" + filter.orElse("");
+	private static Mono<Todo> notFound() {
+		return Mono.error(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
 	}
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc.web;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Map;
+import java.util.UUID;
+
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Converts keyset positions into opaque, URL safe cursors and back. A cursor
+ * captures the creation timestamp and id of the last todo rendered, so that the
+ * next page continues right after it no matter how many todos have been added
+ * or removed in the meantime.
+ */
+final class TodoCursor {
+
+	private static final int LENGTH = Long.BYTES + Integer.BYTES + 2 * Long.BYTES;
+
+	private TodoCursor() {}
+
+	static String encode(KeysetScrollPosition position) {
+
+		var keys = position.getKeys();
+		var created = (Instant) keys.get("created");
+		var id = (UUID) keys.get("id");
+
+		var buffer = ByteBuffer.allocate(LENGTH)
+				.putLong(created.getEpochSecond())
+				.putInt(created.getNano())
+				.putLong(id.getMostSignificantBits())
+				.putLong(id.getLeastSignificantBits());
+
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+	}
+
+	static KeysetScrollPosition decode(String cursor) {
+
+		try {
+
+			var buffer = ByteBuffer.wrap(Base64.getUrlDecoder().decode(cursor));
+
+			if (buffer.remaining() != LENGTH) {
+				throw new IllegalArgumentException("Unexpected cursor length " + buffer.remaining());
+			}
+
+			var created = Instant.ofEpochSecond(buffer.getLong(), buffer.getInt());
+			var id = new UUID(buffer.getLong(), buffer.getLong());
+
+			return ScrollPosition.forward(Map.of("created", created, "id", id));
+
+		} catch (IllegalArgumentException | BufferUnderflowException | DateTimeException e) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor", e);
+		}
+	}
+}
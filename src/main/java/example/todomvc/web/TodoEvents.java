@@ -0,0 +1,204 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc.web;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.thymeleaf.ITemplateEngine;
+import org.thymeleaf.context.IContext;
+import org.thymeleaf.spring6.context.webflux.SpringWebFluxContext;
+
+import example.todomvc.Tenant;
+import example.todomvc.Todo;
+import example.todomvc.TodoChange;
+import example.todomvc.TodoChanges;
+import example.todomvc.web.TemplateModel.TodoDto;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Pushes changes made by any client to all connected clients as server-sent
+ * events, each carrying out-of-band fragments for the htmx SSE extension to
+ * swap into the page: the changed todos, the toggle-all checkbox and the
+ * footer.
+ * <p>
+ * All connections of a {@link Tenant} share a single subscription to its
+ * {@link TodoChanges}, and only ever see changes to its todos. Changes
+ * are collected for {@link #COALESCE_WINDOW} and reduced to the latest change
+ * per todo, so that bursts like toggling all todos turn into a single event.
+ * Each batch is rendered at most once per filter, by whichever connection gets
+ * to it first, and the resulting HTML is shared by all others. Connections
+ * buffer up to {@link #MAX_PENDING} batches. One that falls further behind
+ * drops its backlog and is told to {@code resync}, i.e. to reload the list,
+ * instead of holding up everybody else or buffering without bounds. Batches of
+ * more than {@link #MAX_CHANGES} changes are sent as a {@code resync} as well.
+ */
+@Profile("htmx")
+@Component
+class TodoEvents {
+
+	static final Duration COALESCE_WINDOW = Duration.ofMillis(50);
+	static final int MAX_PENDING = 16;
+
+	// Bulk changes like imports are cheaper to reload than to render row by row
+	static final int MAX_CHANGES = 256;
+
+	// Detects connections that went away while nothing changed
+	private static final Duration HEARTBEAT = Duration.ofSeconds(30);
+
+	private static final Set<String> FILTERS = Set.of("", "active", "completed");
+
+	private static final ServerSentEvent<String> RESYNC = ServerSentEvent.builder("resync").event("resync").build();
+	private static final ServerSentEvent<String> PING = ServerSentEvent.<String> builder().comment("ping").build();
+
+	private final ITemplateEngine engine;
+	private final TodoFragments fragments;
+	private final Map<String, Flux<Batch>> batches = new ConcurrentHashMap<>();
+
+	TodoEvents(ITemplateEngine engine, TodoFragments fragments) {
+		this.engine = engine;
+		this.fragments = fragments;
+	}
+
+	/**
+	 * Returns the events for a client of the given tenant showing the given
+	 * filter. Links in the fragments are resolved against the given exchange.
+	 */
+	Flux<ServerSentEvent<String>> subscribe(Tenant tenant, Optional<String> filter, ServerWebExchange exchange) {
+
+		var normalized = filter.filter(FILTERS::contains).orElse("");
+		var overflowed = new AtomicBoolean();
+		var batches = this.batches.computeIfAbsent(tenant.id(), __ -> batches(tenant));
+
+		var events = Flux.defer(() -> batches
+				.onBackpressureBuffer(MAX_PENDING)
+				.map(batch -> batch.changes().size() > MAX_CHANGES ? RESYNC
+						: ServerSentEvent.builder(batch.render(normalized, it -> render(batch, it, exchange)))
+								.event("todos")
+								.build())
+				.onErrorResume(Exceptions::isOverflow, e -> {
+					overflowed.set(true);
+					return Mono.just(RESYNC);
+				}))
+				.repeat(() -> overflowed.getAndSet(false));
+
+		return Flux.merge(events, Flux.interval(HEARTBEAT).map(__ -> PING));
+	}
+
+	/**
+	 * The batches of changes to the todos of the given tenant, shared by all of
+	 * its connections. The subscription to the changes ends with the last
+	 * connection and is made again with the next one.
+	 */
+	private static Flux<Batch> batches(Tenant tenant) {
+
+		var todos = tenant.reactive();
+
+		return tenant.changes().changes()
+				.buffer(COALESCE_WINDOW)
+				.filter(it -> !it.isEmpty())
+				.concatMap(it -> Mono.zip(todos.countByCompleted(false), todos.count())
+						.map(counts -> new Batch(coalesce(it), counts.getT1(), counts.getT2())))
+				.share();
+	}
+
+	private String render(Batch batch, String filter, ServerWebExchange exchange) {
+
+		var locale = Optional.ofNullable(exchange.getLocaleContext().getLocale()).orElseGet(Locale::getDefault);
+		var context = new SpringWebFluxContext(exchange, locale);
+
+		context.setVariable("filter", filter);
+		context.setVariable("numberOfTodos", batch.numberOfTodos());
+		context.setVariable("numberOfIncomplete", batch.numberOfIncomplete());
+		context.setVariable("changes", batch.changes().stream().map(it -> change(it, filter, context)).toList());
+
+		return engine.process("fragments", Set.of("changes"), context)
+				+ engine.process("index", Set.of("toggle-all", "foot"), context);
+	}
+
+	private Change change(TodoChange change, String filter, IContext context) {
+
+		var todo = TodoDto.of(change.todo());
+
+		if (change.deleted() || !matches(change.todo(), filter)) {
+			return new Change(todo, false, "");
+		}
+
+		return new Change(todo, true, fragments.render(context, todo, filter));
+	}
+
+	private static boolean matches(Todo todo, String filter) {
+
+		return switch (filter) {
+		case "active" -> !todo.isCompleted();
+		case "completed" -> todo.isCompleted();
+		default -> true;
+		};
+	}
+
+	private static Collection<TodoChange> coalesce(List<TodoChange> changes) {
+
+		var result = new LinkedHashMap<UUID, TodoChange>();
+
+		for (var change : changes) {
+			result.merge(change.todo().getId(), change, (previous, next) -> next.supersedes(previous) ? next : previous);
+		}
+
+		return result.values();
+	}
+
+	/**
+	 * A change as rendered for a particular filter.
+	 *
+	 * @param todo    the changed todo
+	 * @param visible whether the todo is to be shown, or removed from the list
+	 * @param html    the list item for the todo, if visible
+	 */
+	record Change(TodoDto todo, boolean visible, String html) {
+	}
+
+	/**
+	 * Coalesced changes along with the counts for the footer at the time they
+	 * were collected, and their HTML per filter once rendered.
+	 */
+	record Batch(Collection<TodoChange> changes, long numberOfIncomplete, long numberOfTodos,
+			Map<String, String> rendered) {
+
+		Batch(Collection<TodoChange> changes, long numberOfIncomplete, long numberOfTodos) {
+			this(changes, numberOfIncomplete, numberOfTodos, new ConcurrentHashMap<>(4));
+		}
+
+		String render(String filter, Function<String, String> renderer) {
+			return rendered.computeIfAbsent(filter, renderer);
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package example.todomvc.web;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.stereotype.Component;
+import org.thymeleaf.ITemplateEngine;
+import org.thymeleaf.context.Context;
+import org.thymeleaf.context.IContext;
+import org.thymeleaf.spring6.context.webflux.ISpringWebFluxContext;
+import org.thymeleaf.spring6.context.webflux.SpringWebFluxContext;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import example.todomvc.Tenants;
+import example.todomvc.TodoProperties;
+import example.todomvc.web.TemplateModel.TodoDto;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Renders {@code fragments :: todo} for the items of the todo list and caches
+ * the resulting HTML, so that lists mostly consisting of unchanged todos don't
+ * run through the template engine item by item. Used from the templates as
+ * {@code @todoFragments.render(#ctx, todo, filter)}.
+ * <p>
+ * The cache holds an entry per todo id with the HTML rendered for its current
+ * version and the context path the links were resolved against, once per
+ * filter. As the cache is shared by all tenants, and imports or replication
+ * may give todos of different tenants the same id and version, an entry is only
+ * used if the title and completion state it was rendered from match, too.
+ * Rendering a newer version or different content replaces the entry, and
+ * changing or deleting the todo evicts it. Only the filters linked from the
+ * page are cached to keep arbitrary request parameters out of the cache.
+ */
+@Component
+public class TodoFragments {
+
+	private static final Set<String> FILTERS = Set.of("", "active", "completed");
+
+	private final ITemplateEngine engine;
+	private final Cache<UUID, Rendered> cache;
+
+	TodoFragments(ITemplateEngine engine, TodoProperties properties, MeterRegistry registry, Tenants tenants) {
+
+		this.engine = engine;
+		this.cache = Caffeine.newBuilder()
+				.maximumSize(properties.fragmentCacheSize())
+				.recordStats()
+				.build();
+
+		CaffeineCacheMetrics.monitor(registry, cache, "todoFragments");
+
+		tenants.onTenant(tenant -> tenant.changes().changes()
+				.subscribe(change -> cache.invalidate(change.todo().getId())));
+	}
+
+	public String render(IContext context, TodoDto todo, String filter) {
+
+		if (!FILTERS.contains(filter)) {
+			return doRender(context, todo, filter);
+		}
+
+		var contextPath = contextPath(context);
+		var rendered = cache.getIfPresent(todo.id());
+
+		if (rendered != null && rendered.version() > todo.version()) {
+			// Rendering an outdated copy, keep the newer one cached
+			return doRender(context, todo, filter);
+		}
+
+		if (rendered == null || !rendered.isFor(todo, contextPath)) {
+			rendered = new Rendered(todo.version(), todo.title(), todo.completed(), contextPath,
+					new ConcurrentHashMap<>());
+			cache.put(todo.id(), rendered);
+		}
+
+		return rendered.html().computeIfAbsent(filter, it -> doRender(context, todo, it));
+	}
+
+	private String doRender(IContext context, TodoDto todo, String filter) {
+
+		Map<String, Object> variables = Map.of("todo", todo, "action", "", "filter", filter);
+
+		// Links need the exchange to resolve against the context path
+		var nested = context instanceof ISpringWebFluxContext web
+				? new SpringWebFluxContext(web.getExchange(), context.getLocale(), variables)
+				: new Context(context.getLocale(), variables);
+
+		return engine.process("fragments", Set.of("todo"), nested);
+	}
+
+	private static String contextPath(IContext context) {
+		return context instanceof ISpringWebFluxContext web
+				? web.getExchange().getRequest().getPath().contextPath().value()
+				: "";
+	}
+
+	/**
+	 * The HTML of a version of a todo by filter, along with everything it was
+	 * rendered from.
+	 */
+	private record Rendered(long version, String title, boolean completed, String contextPath,
+			Map<String, String> html) {
+
+		boolean isFor(TodoDto todo, String contextPath) {
+			return version == todo.version() && completed == todo.completed() && title.equals(todo.title())
+					&& this.contextPath.equals(contextPath);
+		}
+	}
+}
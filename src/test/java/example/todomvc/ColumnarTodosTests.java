@@ -0,0 +1,172 @@
+package example.todomvc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+
+class ColumnarTodosTests {
+
+    private ColumnarTodos todos = new ColumnarTodos();
+
+    @Test
+    void savesAndUpdatesTodos() {
+
+        var todo = todos.save(new Todo("Zürich ☕"));
+        var saved = todos.save(new Todo(todo.getId(), "Renamed", false, todo.getCreated(), todo.getVersion()));
+
+        assertThat(saved.getVersion()).isEqualTo(todo.getVersion() + 1);
+        assertThat(todos.findById(todo.getId())).get().usingRecursiveComparison().isEqualTo(saved);
+        assertThatExceptionOfType(OptimisticLockingFailureException.class)
+                .isThrownBy(() -> todos.save(todo.toggleCompletion()));
+
+        assertThat(todos.update(todo.getId(), Todo::toggleCompletion))
+                .hasValueSatisfying(it -> assertThat(it.getTitle()).isEqualTo("Renamed"));
+        assertThat(todos.countByCompleted(true)).isEqualTo(1);
+        assertThat(todos.countByCompleted(false)).isZero();
+    }
+
+    @Test
+    void pagesInCreationOrder() {
+
+        var all = populate(2500);
+
+        var window = todos.findByCompleted(false, ScrollPosition.keyset(), Limit.of(100));
+        var active = all.stream().filter(it -> !it.isCompleted()).toList();
+
+        assertThat(window.getContent()).usingRecursiveFieldByFieldElementComparator()
+                .containsExactlyElementsOf(active.subList(0, 100));
+        assertThat(window.hasNext()).isTrue();
+
+        var next = todos.findByCompleted(false, (KeysetScrollPosition) window.positionAt(window.size() - 1),
+                Limit.of(100));
+
+        assertThat(next.getContent()).usingRecursiveFieldByFieldElementComparator()
+                .containsExactlyElementsOf(active.subList(100, 200));
+        assertThat(todos.findAll(Sort.by("created").descending()).toList())
+                .usingRecursiveFieldByFieldElementComparator().containsExactlyElementsOf(reversed(all));
+    }
+
+    @Test
+    void compactsDeletedTodos() {
+
+        var all = populate(5000);
+
+        assertThat(todos.deleteAllByCompleted(true)).hasSize(2500);
+        assertThat(todos.setCompletedForAll(true)).hasSize(2500);
+
+        var remaining = todos.findAll(Sort.unsorted()).toList();
+
+        assertThat(remaining).extracting(Todo::getId)
+                .containsExactlyElementsOf(all.stream().filter(it -> !it.isCompleted()).map(Todo::getId).toList());
+        assertThat(remaining).allSatisfy(
+                it -> assertThat(todos.findById(it.getId())).get().usingRecursiveComparison().isEqualTo(it));
+        assertThat(todos.findById(all.get(1).getId())).isEmpty();
+        assertThat(todos.count()).isEqualTo(2500);
+        assertThat(todos.countByCompleted(true)).isEqualTo(2500);
+    }
+
+    @Test
+    void mergesBatchesOfOlderTodosIntoCreationOrder() {
+
+        var all = new ArrayList<Todo>();
+
+        for (int i = 0; i < 3000; i++) {
+            all.add(new Todo("Todo " + i));
+        }
+
+        var newest = all.subList(2000, 3000);
+        var imported = new ArrayList<>(all.subList(0, 2000));
+
+        todos.saveAll(newest);
+        Collections.shuffle(imported);
+        imported.add(500, todos.findById(newest.get(0).getId()).get().toggleCompletion());
+
+        var saved = todos.saveAll(imported);
+
+        assertThat(saved).extracting(Todo::getId).containsExactlyElementsOf(imported.stream().map(Todo::getId).toList());
+        assertThat(todos.findAll(Sort.unsorted()).toList()).extracting(Todo::getId)
+                .containsExactlyElementsOf(all.stream().map(Todo::getId).toList());
+        assertThat(todos.findById(newest.get(0).getId())).hasValueSatisfying(it -> assertThat(it.isCompleted()).isTrue());
+        assertThat(todos.count()).isEqualTo(3000);
+        assertThat(todos.countByCompleted(true)).isEqualTo(1);
+    }
+
+    @Test
+    void rejectsUpdatesChangingTheId() {
+
+        var todo = todos.save(new Todo("Todo"));
+
+        assertThatExceptionOfType(InvalidDataAccessApiUsageException.class)
+                .isThrownBy(() -> todos.update(todo.getId(), todo.getVersion(), __ -> new Todo("Other")));
+        assertThat(todos.findById(todo.getId())).hasValueSatisfying(it -> assertThat(it.getVersion()).isEqualTo(todo.getVersion()));
+        assertThat(todos.count()).isEqualTo(1);
+    }
+
+    @Test
+    void replacesTodosKeepingTheirVersion() {
+
+        var todo = todos.save(new Todo("Todo"));
+        var remote = new Todo(todo.getId(), "Remote", true, todo.getCreated(), 7);
+
+        assertThatExceptionOfType(OptimisticLockingFailureException.class)
+                .isThrownBy(() -> todos.replace(remote, todo.getVersion() + 1));
+        assertThat(todos.replace(remote, todo.getVersion())).isPresent();
+        assertThat(todos.findById(todo.getId())).hasValueSatisfying(it -> {
+            assertThat(it.getTitle()).isEqualTo("Remote");
+            assertThat(it.isCompleted()).isTrue();
+            assertThat(it.getVersion()).isEqualTo(7);
+        });
+        assertThat(todos.replace(new Todo("Unknown"), 0)).isEmpty();
+    }
+
+    @Test
+    void changesVersionOnlyForChangesThatTookEffect() {
+
+        var todo = todos.save(new Todo("Todo"));
+        long version = todos.version();
+        var unknown = new Todo("Unknown");
+
+        assertThat(todos.update(unknown.getId(), 0, Todo::toggleCompletion)).isEmpty();
+        assertThat(todos.replace(unknown, 0)).isEmpty();
+        assertThat(todos.deleteById(unknown.getId())).isEmpty();
+        assertThat(todos.deleteAllByCompleted(true)).isEmpty();
+        assertThat(todos.setCompletedForAll(false)).isEmpty();
+        assertThat(todos.version()).isEqualTo(version);
+
+        todos.deleteById(todo.getId());
+
+        assertThat(todos.version()).isGreaterThan(version);
+    }
+
+    private static List<Todo> reversed(List<Todo> todos) {
+
+        var result = new ArrayList<>(todos);
+
+        Collections.reverse(result);
+
+        return result;
+    }
+
+    private List<Todo> populate(int size) {
+
+        var result = new ArrayList<Todo>();
+
+        for (int i = 0; i < size; i++) {
+            var todo = new Todo("Todo " + i);
+            result.add(todos.save(i % 2 == 0 ? todo : todo.toggleCompletion()));
+        }
+
+        return result;
+    }
+}
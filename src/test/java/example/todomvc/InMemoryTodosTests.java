@@ -0,0 +1,187 @@
+package example.todomvc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Sort;
+
+class InMemoryTodosTests {
+
+    private InMemoryTodos todos = new InMemoryTodos();
+
+    @Test
+    void keepsTodosOrderedByCreationPerCompletionState() {
+
+        var incomplete = todos.save(new Todo("Incomplete"));
+        var completed = todos.save(new Todo("Completed").toggleCompletion());
+        var other = todos.save(new Todo("Other"));
+
+        assertThat(todos.findAll(Sort.unsorted()).toList()).extracting(Todo::getCreated).isSorted();
+        assertThat(todos.findAll(Sort.by("created").descending()).toList()).extracting(Todo::getCreated)
+                .isSortedAccordingTo(Comparator.reverseOrder());
+        assertThat(todos.findByCompleted(false, Sort.unsorted()).toList()).extracting(Todo::getId)
+                .containsExactlyInAnyOrder(incomplete.getId(), other.getId());
+        assertThat(todos.findByCompleted(true, Sort.unsorted()).toList()).extracting(Todo::getId)
+                .containsExactly(completed.getId());
+    }
+
+    @Test
+    void countsTodosByCompletion() {
+
+        var todo = todos.save(new Todo("Incomplete"));
+        todos.save(new Todo("Completed").toggleCompletion());
+        todos.save(todo);
+
+        assertThat(todos.count()).isEqualTo(2);
+        assertThat(todos.countByCompleted(true)).isEqualTo(1);
+        assertThat(todos.countByCompleted(false)).isEqualTo(1);
+
+        todos.delete(todo);
+        todos.delete(todo);
+        todos.delete(new Todo("Never saved"));
+
+        assertThat(todos.findById(todo.getId())).isEmpty();
+        assertThat(todos.count()).isEqualTo(1);
+        assertThat(todos.countByCompleted(false)).isZero();
+    }
+
+    @Test
+    void rejectsSortingByOtherProperties() {
+        assertThatExceptionOfType(InvalidDataAccessApiUsageException.class)
+                .isThrownBy(() -> todos.findAll(Sort.by("title")));
+    }
+
+    @Test
+    void rejectsSaveOfStaleVersion() {
+
+        var todo = todos.save(new Todo("Todo"));
+        var saved = todos.save(todo.toggleCompletion());
+
+        assertThat(saved.getVersion()).isEqualTo(todo.getVersion() + 1);
+        assertThatExceptionOfType(OptimisticLockingFailureException.class)
+                .isThrownBy(() -> todos.save(todo.toggleCompletion()));
+        assertThat(todos.findById(todo.getId())).hasValue(saved);
+        assertThat(todos.countByCompleted(true)).isEqualTo(1);
+    }
+
+    @Test
+    void savesAllButStaleTodos() {
+
+        var todo = todos.save(new Todo("Todo"));
+        todos.save(todo.toggleCompletion());
+
+        var saved = todos.saveAll(List.of(new Todo("First"), todo.withCompleted(false), new Todo("Second")));
+
+        assertThat(saved).extracting(Todo::getTitle).containsExactly("First", "Second");
+        assertThat(todos.count()).isEqualTo(3);
+        assertThat(todos.countByCompleted(true)).isEqualTo(1);
+    }
+
+    @Test
+    void rejectsUpdateOfUnexpectedVersion() {
+
+        var todo = todos.save(new Todo("Todo"));
+
+        assertThatExceptionOfType(OptimisticLockingFailureException.class)
+                .isThrownBy(() -> todos.update(todo.getId(), todo.getVersion() + 1, Todo::toggleCompletion));
+        assertThat(todos.update(todo.getId(), todo.getVersion(), Todo::toggleCompletion))
+                .hasValueSatisfying(it -> assertThat(it.isCompleted()).isTrue());
+        assertThat(todos.update(new Todo("Missing").getId(), 0, Todo::toggleCompletion)).isEmpty();
+    }
+
+    @Test
+    void rejectsUpdatesChangingTheId() {
+
+        var todo = todos.save(new Todo("Todo"));
+
+        assertThatExceptionOfType(InvalidDataAccessApiUsageException.class)
+                .isThrownBy(() -> todos.update(todo.getId(), todo.getVersion(), __ -> new Todo("Other")));
+        assertThat(todos.findById(todo.getId())).hasValueSatisfying(it -> assertThat(it.getVersion()).isEqualTo(todo.getVersion()));
+        assertThat(todos.count()).isEqualTo(1);
+    }
+
+    @Test
+    void replacesTodosKeepingTheirVersion() {
+
+        var todo = todos.save(new Todo("Todo"));
+        var remote = new Todo(todo.getId(), "Remote", true, todo.getCreated(), 7);
+
+        assertThatExceptionOfType(OptimisticLockingFailureException.class)
+                .isThrownBy(() -> todos.replace(remote, todo.getVersion() + 1));
+        assertThat(todos.replace(remote, todo.getVersion())).hasValueSatisfying(it -> {
+            assertThat(it.getTitle()).isEqualTo("Remote");
+            assertThat(it.getVersion()).isEqualTo(7);
+        });
+        assertThat(todos.findByCompleted(true, Sort.unsorted()).toList()).extracting(Todo::getId)
+                .containsExactly(todo.getId());
+        assertThat(todos.countByCompleted(false)).isZero();
+        assertThat(todos.replace(new Todo("Unknown"), 0)).isEmpty();
+    }
+
+    @Test
+    void doesNotLoseConcurrentUpdates() throws Exception {
+
+        int threads = 8;
+        int togglesPerThread = 10_000;
+
+        var todo = todos.save(new Todo("Contended"));
+        var start = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(threads);
+        var results = new ArrayList<Future<?>>();
+
+        try {
+
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    for (int j = 0; j < togglesPerThread; j++) {
+                        todos.update(todo.getId(), Todo::toggleCompletion);
+                    }
+                    return null;
+                }));
+            }
+
+            start.countDown();
+
+            for (var result : results) {
+                result.get();
+            }
+
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(todos.findById(todo.getId())).hasValueSatisfying(it -> {
+            assertThat(it.getVersion()).isEqualTo(todo.getVersion() + threads * togglesPerThread);
+            assertThat(it.isCompleted()).isFalse();
+        });
+        assertThat(todos.count()).isEqualTo(1);
+        assertThat(todos.countByCompleted(true)).isZero();
+    }
+
+    @Test
+    void changesVersionOnlyForActualDeletes() {
+
+        var todo = todos.save(new Todo("Todo"));
+        long version = todos.version();
+
+        todos.delete(new Todo("Never saved"));
+
+        assertThat(todos.version()).isEqualTo(version);
+
+        todos.delete(todo);
+        todos.delete(todo);
+
+        assertThat(todos.version()).isEqualTo(version + 1);
+    }
+}
@@ -0,0 +1,216 @@
+package example.todomvc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.domain.Sort;
+
+class JournalingTodosTests {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recoversChangesFromJournal() throws Exception {
+
+        var completed = new Todo("Completed");
+        var incomplete = new Todo("Incomplete");
+        var deleted = new Todo("Deleted");
+
+        try (var journal = new TodoJournal(directory)) {
+
+            var todos = new JournalingTodos(new InMemoryTodos(), journal, 1000);
+
+            todos.save(completed);
+            todos.save(incomplete);
+            todos.save(deleted);
+            todos.save(completed.toggleCompletion());
+            todos.delete(deleted);
+        }
+
+        var todos = reopen(1000);
+
+        assertThat(todos.findAll(Sort.unsorted()).toList()).extracting(Todo::getTitle)
+                .containsExactlyInAnyOrder("Completed", "Incomplete");
+        assertThat(todos.findById(completed.getId())).hasValueSatisfying(it -> {
+            assertThat(it.isCompleted()).isTrue();
+            assertThat(it.getCreated()).isEqualTo(completed.getCreated());
+            assertThat(it.getVersion()).isEqualTo(completed.getVersion() + 1);
+        });
+        assertThat(todos.countByCompleted(false)).isEqualTo(1);
+    }
+
+    @Test
+    void recoversReplacedTodosWithTheirVersion() throws Exception {
+
+        var todo = new Todo("Todo");
+        var ahead = new Todo(todo.getId(), "Ahead", false, todo.getCreated(), 5);
+        var tie = new Todo(todo.getId(), "Tie", true, todo.getCreated(), 5);
+
+        try (var journal = new TodoJournal(directory)) {
+
+            var todos = new JournalingTodos(new InMemoryTodos(), journal, 1000);
+
+            todos.save(todo);
+            todos.replace(ahead, todo.getVersion());
+            todos.replace(tie, ahead.getVersion());
+        }
+
+        assertThat(reopen(1000).findById(todo.getId())).hasValueSatisfying(it -> {
+            assertThat(it.getTitle()).isEqualTo("Tie");
+            assertThat(it.isCompleted()).isTrue();
+            assertThat(it.getVersion()).isEqualTo(5);
+        });
+    }
+
+    @Test
+    void recoversBulkChangesFromJournal() throws Exception {
+
+        try (var journal = new TodoJournal(directory)) {
+
+            var todos = new JournalingTodos(new InMemoryTodos(), journal, 1000);
+
+            todos.save(new Todo("First").toggleCompletion());
+            todos.save(new Todo("Second"));
+            todos.deleteAllByCompleted(true);
+            todos.save(new Todo("Third"));
+            todos.setCompletedForAll(true);
+        }
+
+        var todos = reopen(1000);
+
+        assertThat(todos.findByCompleted(true, Sort.unsorted()).toList()).extracting(Todo::getTitle)
+                .containsExactlyInAnyOrder("Second", "Third");
+        assertThat(todos.count()).isEqualTo(2);
+    }
+
+    @Test
+    void recoversBatchesFromJournal() throws Exception {
+
+        var existing = new Todo("Existing");
+
+        try (var journal = new TodoJournal(directory)) {
+
+            var todos = new JournalingTodos(new InMemoryTodos(), journal, 1000);
+
+            todos.save(existing);
+            todos.save(existing.toggleCompletion());
+
+            assertThat(todos.saveAll(List.of(new Todo("First"), existing, new Todo("Second")))).hasSize(2);
+        }
+
+        var todos = reopen(1000);
+
+        assertThat(todos.findAll(Sort.unsorted()).toList()).extracting(Todo::getTitle)
+                .containsExactlyInAnyOrder("Existing", "First", "Second");
+        assertThat(todos.countByCompleted(true)).isEqualTo(1);
+    }
+
+    @Test
+    void recoversFromSnapshotAndRemovesObsoleteFiles() throws Exception {
+
+        try (var journal = new TodoJournal(directory)) {
+
+            var todos = new JournalingTodos(new InMemoryTodos(), journal, Long.MAX_VALUE);
+
+            for (int i = 0; i < 100; i++) {
+                todos.save(new Todo("Todo " + i));
+            }
+
+            todos.snapshot();
+            todos.save(new Todo("After snapshot"));
+        }
+
+        try (var files = Files.list(directory)) {
+            assertThat(files.map(it -> it.getFileName().toString()))
+                    .containsExactlyInAnyOrder("snapshot-0000000001.dat", "journal-0000000001.log");
+        }
+
+        assertThat(reopen(Long.MAX_VALUE).count()).isEqualTo(101);
+    }
+
+    @Test
+    void recoversFromSnapshotTakenWhileWriting() throws Exception {
+
+        List<Todo> expected;
+
+        try (var journal = new TodoJournal(directory)) {
+
+            var todos = new JournalingTodos(new InMemoryTodos(), journal, Long.MAX_VALUE);
+            var ids = new ArrayList<UUID>();
+
+            for (int i = 0; i < 100; i++) {
+                ids.add(todos.save(new Todo("Todo " + i)).getId());
+            }
+
+            var executor = Executors.newSingleThreadExecutor();
+
+            try {
+
+                var writing = executor.submit(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        todos.update(ids.get(i % ids.size()), Todo::toggleCompletion);
+                        if (i % 500 == 0) {
+                            todos.setCompletedForAll(false);
+                        }
+                    }
+                    return null;
+                });
+
+                while (!writing.isDone()) {
+                    todos.snapshot();
+                }
+
+                writing.get();
+
+            } finally {
+                executor.shutdownNow();
+            }
+
+            expected = todos.findAll(Sort.unsorted()).toList();
+        }
+
+        var todos = reopen(Long.MAX_VALUE);
+
+        assertThat(todos.findAll(Sort.unsorted()).toList()).usingRecursiveFieldByFieldElementComparator()
+                .containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    void ignoresTornWriteAtEndOfJournal() throws Exception {
+
+        try (var journal = new TodoJournal(directory)) {
+
+            var todos = new JournalingTodos(new InMemoryTodos(), journal, 1000);
+
+            todos.save(new Todo("Durable"));
+        }
+
+        Files.write(directory.resolve("journal-0000000000.log"), new byte[] { 0, 0, 0, 42, 1, 2 },
+                StandardOpenOption.APPEND);
+
+        assertThat(reopen(1000).findAll(Sort.unsorted()).toList()).extracting(Todo::getTitle)
+                .containsExactly("Durable");
+    }
+
+    private Todos reopen(long snapshotThreshold) throws IOException {
+
+        var todos = new InMemoryTodos();
+
+        try (var journal = new TodoJournal(directory)) {
+            new JournalingTodos(todos, journal, snapshotThreshold);
+        }
+
+        return todos;
+    }
+}
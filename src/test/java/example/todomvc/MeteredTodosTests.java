@@ -0,0 +1,71 @@
+package example.todomvc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Sort;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class MeteredTodosTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final MeteredTodos todos = new MeteredTodos(new InMemoryTodos(), registry);
+
+    @Test
+    void registersATimerPerOperation() {
+
+        assertThat(registry.find(MeteredTodos.METRIC_NAME).timers()).extracting(it -> it.getId().getTag("operation"))
+                .contains("save", "update", "replace", "delete", "findAll", "count");
+        assertThat(registry.find(MeteredTodos.METRIC_NAME).timers()).allSatisfy(it -> assertThat(it.count()).isZero());
+    }
+
+    @Test
+    void recordsEachOperationOnItsOwnTimer() {
+
+        var todo = todos.save(new Todo("Todo"));
+
+        todos.update(todo.getId(), todo.getVersion(), Todo::toggleCompletion);
+        todos.replace(new Todo(todo.getId(), "Replaced", false, todo.getCreated(), 5), todo.getVersion() + 1);
+        todos.deleteById(todo.getId());
+        todos.count();
+
+        assertThat(timer("save").count()).isEqualTo(1);
+        assertThat(timer("update").count()).isEqualTo(1);
+        assertThat(timer("replace").count()).isEqualTo(1);
+        assertThat(timer("delete").count()).isEqualTo(1);
+        assertThat(timer("count").count()).isEqualTo(1);
+    }
+
+    @Test
+    void recordsQueriesOnceTheyAreExhausted() {
+
+        todos.save(new Todo("First"));
+        todos.save(new Todo("Second"));
+
+        var result = todos.findAll(Sort.unsorted());
+
+        assertThat(timer("findAll").count()).isZero();
+
+        var iterator = result.iterator();
+
+        assertThat(iterator.hasNext()).isTrue();
+        iterator.next();
+        assertThat(iterator.hasNext()).isTrue();
+        iterator.next();
+        assertThat(timer("findAll").count()).isZero();
+
+        assertThat(iterator.hasNext()).isFalse();
+        assertThat(iterator.hasNext()).isFalse();
+        assertThat(timer("findAll").count()).isEqualTo(1);
+
+        assertThat(result.toList()).hasSize(2);
+        assertThat(timer("findAll").count()).isEqualTo(2);
+    }
+
+    private Timer timer(String operation) {
+        return registry.get(MeteredTodos.METRIC_NAME).tag("operation", operation).timer();
+    }
+}
@@ -0,0 +1,125 @@
+package example.todomvc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class PublishingTodosTests {
+
+    private TodoChanges changes = new TodoChanges();
+
+    private PublishingTodos todos = new PublishingTodos(new InMemoryTodos(), changes);
+
+    @Test
+    void publishesOnlyActualDeletes() {
+
+        var published = new ArrayList<TodoChange>();
+        var todo = todos.save(new Todo("Todo"));
+        var subscription = changes.changes().subscribe(published::add);
+
+        todos.delete(todo);
+        todos.delete(todo);
+        todos.delete(new Todo("Never saved"));
+
+        subscription.dispose();
+
+        assertThat(published).singleElement().satisfies(it -> {
+            assertThat(it.deleted()).isTrue();
+            assertThat(it.todo().getId()).isEqualTo(todo.getId());
+        });
+    }
+
+    @Test
+    void publishesConcurrentChangesWithoutLosingAny() throws Exception {
+
+        int threads = 8;
+        int savesPerThread = 1000;
+
+        List<TodoChange> published = new CopyOnWriteArrayList<>();
+        var subscription = changes.changes().subscribe(published::add);
+        var start = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(threads);
+        var results = new ArrayList<Future<?>>();
+
+        try {
+
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    for (int j = 0; j < savesPerThread; j++) {
+                        todos.save(new Todo("Todo " + j));
+                    }
+                    return null;
+                }));
+            }
+
+            start.countDown();
+
+            for (var result : results) {
+                result.get();
+            }
+
+        } finally {
+            executor.shutdownNow();
+            subscription.dispose();
+        }
+
+        assertThat(published).hasSize(threads * savesPerThread);
+    }
+
+    @Test
+    void doesNotMakeWritersWaitForSubscribersOfOtherWrites() throws Exception {
+
+        List<TodoChange> published = new CopyOnWriteArrayList<>();
+        var entered = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var subscription = changes.changes().subscribe(change -> {
+            if (published.isEmpty()) {
+                entered.countDown();
+                await(release);
+            }
+            published.add(change);
+        });
+        var executor = Executors.newSingleThreadExecutor();
+
+        try {
+
+            var first = executor.submit(() -> todos.save(new Todo("First")));
+
+            assertThat(entered.await(5, TimeUnit.SECONDS)).isTrue();
+
+            // Returns while the subscriber still blocks the first write
+            var second = todos.save(new Todo("Second"));
+
+            assertThat(first).isNotDone();
+
+            release.countDown();
+            first.get(5, TimeUnit.SECONDS);
+
+            assertThat(published).extracting(it -> it.todo().getTitle()).containsExactly("First", "Second");
+            assertThat(published.get(1).todo().getId()).isEqualTo(second.getId());
+
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+            subscription.dispose();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package example.todomvc;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Sort;
+
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+class ReactiveTodosAdapterTests {
+
+    private ReactiveTodos todos = new ReactiveTodosAdapter(new InMemoryTodos(), Schedulers.immediate());
+
+    @Test
+    void runsStoreOperationsOnTheSubscribingThread() {
+
+        var completed = new Todo("Completed").toggleCompletion();
+        var incomplete = new Todo("Incomplete");
+
+        var operations = todos.save(completed)
+                .then(todos.save(incomplete))
+                .then(todos.findAll(Sort.by("created")).count())
+                .map(String::valueOf)
+                .concatWith(todos.findByCompleted(true, Sort.unsorted()).map(Todo::getTitle))
+                .concatWith(todos.countByCompleted(false).map(String::valueOf))
+                .concatWith(todos.delete(completed).then(todos.count()).map(String::valueOf))
+                .subscribeOn(Schedulers.parallel());
+
+        StepVerifier.create(operations)
+                .expectNext("2", "Completed", "1", "1")
+                .verifyComplete();
+    }
+}
@@ -0,0 +1,151 @@
+package example.todomvc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import reactor.core.scheduler.Schedulers;
+
+class TenantsTests {
+
+    private Tenants tenants = new Tenants(TenantsTests::tenant);
+
+    @AfterEach
+    void close() throws Exception {
+        tenants.close();
+    }
+
+    @Test
+    void createsStoresOnFirstAccessOnly() {
+
+        var tenant = tenants.get("alice");
+
+        assertThat(tenants.get("alice")).isSameAs(tenant);
+        assertThat(tenants.size()).isEqualTo(1);
+    }
+
+    @Test
+    void keepsTodosOfTenantsApart() {
+
+        tenants.get("alice").todos().save(new Todo("Alice's"));
+
+        assertThat(tenants.get("alice").todos().count()).isEqualTo(1);
+        assertThat(tenants.get("bob").todos().count()).isZero();
+        assertThat(tenants.get("bob").index().search("alice", null, 10)).isEmpty();
+    }
+
+    @Test
+    void rejectsInvalidIds() {
+
+        assertThat(Tenants.isValid(Tenants.DEFAULT)).isTrue();
+        assertThat(Tenants.isValid("user_42-b")).isTrue();
+        assertThat(Tenants.isValid("")).isFalse();
+        assertThat(Tenants.isValid("..")).isFalse();
+        assertThat(Tenants.isValid("a/b")).isFalse();
+        assertThat(Tenants.isValid("-a")).isFalse();
+        assertThat(Tenants.isValid("a".repeat(65))).isFalse();
+
+        assertThatIllegalArgumentException().isThrownBy(() -> tenants.get("../etc"));
+    }
+
+    @Test
+    void rejectsTenantsNotAllowed() throws Exception {
+
+        try (var limited = new Tenants(TenantsTests::tenant, List.of("alice"), 10)) {
+
+            assertThat(limited.get("alice")).isNotNull();
+            assertThat(limited.get(Tenants.DEFAULT)).isNotNull();
+            assertThat(limited.isAllowed("bob")).isFalse();
+            assertThatIllegalArgumentException().isThrownBy(() -> limited.get("bob"));
+        }
+    }
+
+    @Test
+    void capsTheNumberOfTenants() throws Exception {
+
+        try (var limited = new Tenants(TenantsTests::tenant, List.of(), 2)) {
+
+            limited.get("alice");
+            limited.get("bob");
+
+            assertThat(limited.get("alice")).isNotNull();
+            assertThatIllegalStateException().isThrownBy(() -> limited.get("carol"));
+            assertThat(limited.size()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    void createsOtherTenantsWhileOneIsBeingCreated() throws Exception {
+
+        var creating = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+
+        try (var slow = new Tenants(id -> {
+            if (id.equals("slow")) {
+                creating.countDown();
+                await(release);
+            }
+            return tenant(id);
+        })) {
+
+            var first = CompletableFuture.supplyAsync(() -> slow.get("slow"));
+            var second = CompletableFuture.supplyAsync(() -> slow.get("slow"));
+
+            assertThat(creating.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(slow.get("fast")).isNotNull();
+            assertThat(second).isNotDone();
+
+            release.countDown();
+
+            assertThat(first.get(5, TimeUnit.SECONDS)).isSameAs(second.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void createsAgainAfterFailure() throws Exception {
+
+        var attempts = new AtomicInteger();
+
+        try (var flaky = new Tenants(id -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IOException("Disk full");
+            }
+            return tenant(id);
+        }, List.of(), 1)) {
+
+            assertThatExceptionOfType(UncheckedIOException.class).isThrownBy(() -> flaky.get("alice"));
+            assertThat(flaky.get("alice")).isNotNull();
+            assertThat(attempts).hasValue(2);
+        }
+    }
+
+    private static Tenant tenant(String id) {
+
+        var changes = new TodoChanges();
+        var todos = new PublishingTodos(new InMemoryTodos(), changes);
+
+        return new Tenant(id, todos, new ReactiveTodosAdapter(todos, Schedulers.immediate()), changes,
+                TitleIndex.of(todos, changes, Runnable::run), null);
+    }
+
+    private static void await(CountDownLatch latch) {
+
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
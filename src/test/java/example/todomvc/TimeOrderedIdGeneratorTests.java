@@ -0,0 +1,93 @@
+package example.todomvc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+class TimeOrderedIdGeneratorTests {
+
+    private TimeOrderedIdGenerator ids = new TimeOrderedIdGenerator();
+
+    @Test
+    void generatesVersion7Ids() {
+
+        var before = Instant.now().toEpochMilli();
+        var id = ids.generateId();
+
+        assertThat(id.version()).isEqualTo(7);
+        assertThat(id.variant()).isEqualTo(2);
+        assertThat(TimeOrderedIdGenerator.timestamp(id).toEpochMilli()).isGreaterThanOrEqualTo(before);
+        assertThat(TimeOrderedIdGenerator.timestamp(UUID.randomUUID())).isNull();
+    }
+
+    @Test
+    void sharesOneGeneratorBetweenNewTodosAndTheDefaultBean() {
+
+        var shared = new TodosConfiguration().todoIdGenerator();
+        var previous = new Todo("First").getId();
+
+        assertThat(shared).isSameAs(TimeOrderedIdGenerator.shared());
+
+        for (int i = 0; i < 10_000; i++) {
+
+            var next = i % 2 == 0 ? shared.generateId() : new Todo("Todo").getId();
+
+            assertThat(next).isGreaterThan(previous);
+            previous = next;
+        }
+    }
+
+    @Test
+    void generatesIncreasingIdsAcrossThreads() throws Exception {
+
+        int threads = 8;
+        int idsPerThread = 50_000;
+
+        var all = ConcurrentHashMap.<UUID> newKeySet();
+        var executor = Executors.newFixedThreadPool(threads);
+        var results = new ArrayList<Future<List<UUID>>>();
+
+        try {
+
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    var generated = new ArrayList<UUID>(idsPerThread);
+                    for (int j = 0; j < idsPerThread; j++) {
+                        generated.add(ids.generateId());
+                    }
+                    return generated;
+                }));
+            }
+
+            for (var result : results) {
+                var generated = result.get();
+                assertThat(generated).isSorted();
+                all.addAll(generated);
+            }
+
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(all).hasSize(threads * idsPerThread);
+    }
+
+    @Test
+    void derivesCreationTimeOfTodosFromId() {
+
+        var first = new Todo("First");
+        var second = new Todo("Second");
+
+        assertThat(first.getCreated()).isEqualTo(TimeOrderedIdGenerator.timestamp(first.getId()));
+        assertThat(first.getId()).isLessThan(second.getId());
+        assertThat(first.getCreated()).isBeforeOrEqualTo(second.getCreated());
+    }
+}
@@ -0,0 +1,140 @@
+package example.todomvc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Sort;
+
+class TitleIndexTests {
+
+    private TodoChanges changes = new TodoChanges();
+
+    private Todos todos = new PublishingTodos(new InMemoryTodos(), changes);
+
+    private Todo milk = todos.save(new Todo("Buy  Milk"));
+
+    private Todo bread = todos.save(new Todo("Bake bread").toggleCompletion());
+
+    private TitleIndex index = TitleIndex.of(todos, changes, Runnable::run);
+
+    @AfterEach
+    void close() {
+        index.close();
+    }
+
+    @Test
+    void findsSubstringsIgnoringCase() {
+        assertThat(index.search("MILK", null, 10)).containsExactly(milk.getId());
+        assertThat(index.search("buy milk", null, 10)).containsExactly(milk.getId());
+        assertThat(index.search("b", null, 10)).isEmpty();
+        assertThat(index.search("ilk buy", null, 10)).isEmpty();
+    }
+
+    @Test
+    void matchesShortQueriesAtTheStartOfWords() {
+        assertThat(index.search("br", null, 10)).containsExactly(bread.getId());
+        assertThat(index.search("re", null, 10)).isEmpty();
+    }
+
+    @Test
+    void restrictsResultsToCompletionState() {
+        assertThat(index.search("b", null, 10)).isEmpty();
+        assertThat(index.search("ba", true, 10)).containsExactly(bread.getId());
+        assertThat(index.search("ba", false, 10)).isEmpty();
+        assertThat(index.search("bu", false, 10)).containsExactly(milk.getId());
+    }
+
+    @Test
+    void followsChanges() {
+
+        var renamed = todos.save(new Todo(milk.getId(), "Buy oat drink", false, milk.getCreated(), milk.getVersion()));
+        var created = todos.save(new Todo("Drink more water"));
+        todos.delete(bread);
+
+        assertThat(index.search("milk", null, 10)).isEmpty();
+        assertThat(index.search("drink", null, 10)).containsExactly(renamed.getId(), created.getId());
+        assertThat(index.search("bread", null, 10)).isEmpty();
+    }
+
+    @Test
+    void ignoresSavesPublishedAfterTheDeletionOfTheTodo() {
+
+        changes.publish(TodoChange.deleted(milk));
+        changes.publish(TodoChange.saved(milk));
+
+        assertThat(index.search("milk", null, 10)).isEmpty();
+
+        var recreated = milk.withVersion(milk.getVersion() + 1);
+
+        changes.publish(TodoChange.saved(recreated));
+
+        assertThat(index.search("milk", null, 10)).containsExactly(milk.getId());
+    }
+
+    @Test
+    void ignoresDeletionsPublishedAfterALaterSave() {
+
+        var renamed = new Todo(bread.getId(), "Bake cake", true, bread.getCreated(), bread.getVersion() + 1);
+
+        changes.publish(TodoChange.saved(renamed));
+        changes.publish(TodoChange.deleted(bread));
+
+        assertThat(index.search("cake", null, 10)).containsExactly(bread.getId());
+    }
+
+    @Test
+    void appliesChangesOnTheExecutorInBatches() {
+
+        var tasks = new ArrayList<Runnable>();
+
+        try (var deferred = TitleIndex.of(todos, changes, tasks::add)) {
+
+            var first = todos.save(new Todo("Drink water"));
+            var second = todos.save(new Todo("Drink tea"));
+
+            assertThat(deferred.search("drink", null, 10)).isEmpty();
+            assertThat(tasks).hasSize(1);
+
+            tasks.remove(0).run();
+
+            assertThat(deferred.search("drink", null, 10)).containsExactly(first.getId(), second.getId());
+        }
+    }
+
+    @Test
+    void compactsDeadDocuments() {
+
+        var ids = new ArrayList<UUID>();
+
+        for (int i = 0; i < 5000; i++) {
+            ids.add(todos.save(new Todo("Todo " + i)).getId());
+        }
+
+        todos.findAll(Sort.unsorted()).stream()
+                .filter(todo -> todo.getTitle().startsWith("Todo "))
+                .limit(4000)
+                .toList()
+                .forEach(todos::delete);
+
+        assertThat(index.search("todo 4999", null, 10)).containsExactly(ids.get(4999));
+        assertThat(index.search("todo", null, 2000)).hasSize(1000).isEqualTo(ids.subList(4000, 5000));
+        assertThat(index.search("todo 12", null, 10)).isEmpty();
+    }
+
+    @Test
+    void boundsResults() {
+
+        for (int i = 0; i < 100; i++) {
+            todos.save(new Todo("Milk " + i));
+        }
+
+        List<UUID> results = index.search("milk", null, 10);
+
+        assertThat(results).hasSize(10).startsWith(milk.getId());
+    }
+}
@@ -0,0 +1,274 @@
+package example.todomvc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Sort;
+
+import example.todomvc.TodoProperties.Replication;
+
+class TodoReplicationTests {
+
+    private final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+
+    @AfterEach
+    void close() {
+        nodes.forEach(ConfigurableApplicationContext::close);
+    }
+
+    @Test
+    void appliesLaterVersionsOnly() {
+
+        var todos = replica();
+        var todo = todos.save(new Todo("Todo"));
+        var toggled = todos.save(todo.toggleCompletion());
+
+        assertThat(todos.apply(TodoChange.saved(renamed(todo, "Stale")), true)).isFalse();
+        assertThat(todos.apply(TodoChange.saved(toggled.withVersion(2)), true)).isTrue();
+        assertThat(todos.apply(TodoChange.saved(toggled.withVersion(5)), true)).isTrue();
+
+        assertThat(todos.findById(todo.getId())).hasValueSatisfying(it -> {
+            assertThat(it.getVersion()).isEqualTo(5);
+            assertThat(it.isCompleted()).isTrue();
+        });
+        assertThat(todos.count()).isEqualTo(1);
+    }
+
+    @Test
+    void adoptsLaterVersionsWithoutDeletingTheTodo() {
+
+        var changes = new TodoChanges();
+        var published = new ArrayList<TodoChange>();
+        var todos = replica(new PublishingTodos(new InMemoryTodos(), changes));
+        var todo = todos.save(new Todo("Todo"));
+
+        changes.changes().subscribe(published::add);
+
+        assertThat(todos.apply(TodoChange.saved(renamed(todo, "Renamed").withVersion(5)), true)).isTrue();
+
+        assertThat(published).singleElement().satisfies(it -> {
+            assertThat(it.deleted()).isFalse();
+            assertThat(it.todo().getVersion()).isEqualTo(5);
+        });
+    }
+
+    @Test
+    void resolvesConcurrentSavesInFavourOfTheHigherNode() {
+
+        var todos = replica();
+        var todo = todos.save(new Todo("Todo"));
+        var local = todos.save(todo.toggleCompletion());
+        var remote = renamed(todo, "Renamed").withVersion(local.getVersion());
+
+        assertThat(todos.apply(TodoChange.saved(remote), false)).isFalse();
+        assertThat(todos.findById(todo.getId()).get().getTitle()).isEqualTo("Todo");
+
+        assertThat(todos.apply(TodoChange.saved(remote), true)).isTrue();
+        assertThat(todos.findById(todo.getId())).hasValueSatisfying(it -> {
+            assertThat(it.getTitle()).isEqualTo("Renamed");
+            assertThat(it.isCompleted()).isFalse();
+            assertThat(it.getVersion()).isEqualTo(local.getVersion());
+        });
+    }
+
+    @Test
+    void deletesTodosUnlessChangedLocallySince() {
+
+        var todos = replica();
+        var todo = todos.save(new Todo("Todo"));
+        var changed = todos.save(todo.toggleCompletion());
+
+        assertThat(todos.apply(TodoChange.deleted(todo), true)).isFalse();
+        assertThat(todos.apply(TodoChange.deleted(changed), false)).isTrue();
+        assertThat(todos.findById(todo.getId())).isEmpty();
+    }
+
+    @Test
+    void ignoresSavesCrossingADeletionOfTheSameVersion() {
+
+        var todos = replica();
+        var todo = todos.save(new Todo("Todo"));
+        var local = todos.save(todo.toggleCompletion());
+
+        // The other node saved its own change of version 2 while this one deleted it
+        var remote = renamed(todo, "Renamed").withVersion(local.getVersion());
+
+        assertThat(todos.deleteById(todo.getId())).isPresent();
+        assertThat(todos.apply(TodoChange.saved(remote), true)).isFalse();
+        assertThat(todos.findById(todo.getId())).isEmpty();
+
+        assertThat(todos.apply(TodoChange.saved(remote.withVersion(local.getVersion() + 1)), true)).isTrue();
+        assertThat(todos.findById(todo.getId()))
+                .hasValueSatisfying(it -> assertThat(it.getTitle()).isEqualTo("Renamed"));
+    }
+
+    @Test
+    void ignoresSavesOfTodosDeletedBeforeTheyArrived() {
+
+        var todos = replica();
+        var todo = new Todo("Todo");
+
+        assertThat(todos.apply(TodoChange.deleted(todo.withVersion(2)), true)).isFalse();
+        assertThat(todos.apply(TodoChange.saved(todo.withVersion(1)), true)).isFalse();
+        assertThat(todos.apply(TodoChange.saved(todo.withVersion(2)), true)).isFalse();
+        assertThat(todos.count()).isZero();
+    }
+
+    @Test
+    void replicatesChangesOfAllTenantsBetweenNodes() {
+
+        var first = node();
+        var second = node(first);
+
+        var todo = todos(first, Tenants.DEFAULT).save(new Todo("Replicated"));
+        todos(second, "acme").save(new Todo("Acme's"));
+
+        eventually(() -> {
+            assertThat(todos(second, Tenants.DEFAULT).findById(todo.getId())).isPresent();
+            assertThat(titles(first, "acme")).containsExactly("Acme's");
+        });
+
+        todos(second, Tenants.DEFAULT).update(todo.getId(), Todo::toggleCompletion);
+
+        eventually(() -> assertThat(todos(first, Tenants.DEFAULT).countByCompleted(true)).isEqualTo(1));
+
+        todos(first, Tenants.DEFAULT).deleteAllByCompleted(true);
+
+        eventually(() -> assertThat(todos(second, Tenants.DEFAULT).count()).isZero());
+    }
+
+    @Test
+    void ignoresChangesOfUnknownTenantsByDefault() {
+
+        var first = node();
+        var second = node(List.of("todos.replication.create-tenants=false"), first);
+
+        todos(first, "acme").save(new Todo("Acme's"));
+        var todo = todos(first, Tenants.DEFAULT).save(new Todo("Replicated"));
+
+        eventually(() -> assertThat(todos(second, Tenants.DEFAULT).findById(todo.getId())).isPresent());
+
+        // Sent after all todos held on connecting, including those of the other tenant
+        var later = todos(first, Tenants.DEFAULT).save(new Todo("Later"));
+
+        eventually(() -> assertThat(todos(second, Tenants.DEFAULT).findById(later.getId())).isPresent());
+
+        assertThat(second.getBean(Tenants.class).size()).isEqualTo(1);
+    }
+
+    @Test
+    void rejectsPeersWithoutTheSecret() {
+
+        var first = node(List.of("todos.replication.secret=first"));
+        var second = node(List.of("todos.replication.secret=second"), first);
+
+        todos(first, Tenants.DEFAULT).save(new Todo("Kept apart"));
+
+        LockSupport.parkNanos(Duration.ofMillis(500).toNanos());
+
+        assertThat(first.getBean(TodoReplication.class).connected()).isZero();
+        assertThat(todos(second, Tenants.DEFAULT).count()).isZero();
+    }
+
+    @Test
+    void requiresASecretToListenOnOtherAddresses() {
+
+        var replication = new TodoReplication(new Replication(true, "0.0.0.0", 0, List.of(), null, false), __ -> null);
+
+        assertThatIllegalStateException().isThrownBy(replication::start);
+    }
+
+    @Test
+    void bringsNodesJoiningLaterUpToDate() {
+
+        var first = node();
+        var second = node(first);
+
+        for (int i = 0; i < 10_000; i++) {
+            todos(first, Tenants.DEFAULT).save(new Todo("Todo " + i));
+        }
+
+        var third = node(first, second);
+
+        eventually(() -> assertThat(todos(third, Tenants.DEFAULT).count()).isEqualTo(10_000));
+
+        todos(third, Tenants.DEFAULT).save(new Todo("From the third node"));
+
+        eventually(() -> assertThat(todos(first, Tenants.DEFAULT).count()).isEqualTo(10_001));
+    }
+
+    private static Todo renamed(Todo todo, String title) {
+        return new Todo(todo.getId(), title, todo.isCompleted(), todo.getCreated(), todo.getVersion());
+    }
+
+    private static ReplicatedTodos replica() {
+        return replica(new InMemoryTodos());
+    }
+
+    private static ReplicatedTodos replica(Todos todos) {
+        return new TodoReplication(new Replication(true, "127.0.0.1", 0, List.of(), null, false), __ -> null)
+                .replicate(Tenants.DEFAULT, todos);
+    }
+
+    private ConfigurableApplicationContext node(ConfigurableApplicationContext... peers) {
+        return node(List.of(), peers);
+    }
+
+    private ConfigurableApplicationContext node(List<String> properties, ConfigurableApplicationContext... peers) {
+
+        var addresses = new ArrayList<String>();
+
+        for (var peer : peers) {
+            addresses.add("localhost:" + peer.getBean(TodoReplication.class).port());
+        }
+
+        var node = new SpringApplicationBuilder(Application.class)
+                .properties("server.port=0", "logging.level.org.springframework.web=warn", "logging.level.example=info",
+                        "todos.replication.enabled=true", "todos.replication.port=0",
+                        "todos.replication.create-tenants=true",
+                        "todos.replication.peers=" + String.join(",", addresses))
+                .properties(properties.toArray(String[]::new))
+                .run();
+
+        nodes.add(node);
+
+        return node;
+    }
+
+    private static Todos todos(ConfigurableApplicationContext node, String tenant) {
+        return node.getBean(Tenants.class).get(tenant).todos();
+    }
+
+    private static List<String> titles(ConfigurableApplicationContext node, String tenant) {
+        return todos(node, tenant).findAll(Sort.unsorted()).map(Todo::getTitle).toList();
+    }
+
+    private static void eventually(Runnable assertion) {
+
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+
+        while (true) {
+
+            try {
+                assertion.run();
+                return;
+            } catch (AssertionError e) {
+
+                if (System.nanoTime() > deadline) {
+                    throw e;
+                }
+
+                LockSupport.parkNanos(Duration.ofMillis(10).toNanos());
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package example.todomvc.web;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import example.todomvc.web.AdaptiveLimit.Permit;
+import example.todomvc.web.AdaptiveLimit.Priority;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+class AdaptiveLimitTests {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final VirtualTimeScheduler timer = VirtualTimeScheduler.create();
+
+    @Test
+    void admitsUpToTheLimitAndBulkChangesUpToTheirShare() {
+
+        var limit = limit(4, 10);
+
+        assertThat(acquire(limit, Priority.BULK).admitted()).isTrue();
+        assertThat(acquire(limit, Priority.BULK).admitted()).isFalse();
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(acquire(limit, Priority.READ).admitted()).isTrue();
+        }
+
+        assertThat(limit.inFlight()).isEqualTo(4);
+    }
+
+    @Test
+    void admitsQueuedReadsAheadOfWrites() {
+
+        var limit = limit(4, 10);
+        var permits = new ArrayList<Permit>();
+
+        for (int i = 0; i < 4; i++) {
+            permits.add(acquire(limit, Priority.READ));
+        }
+
+        var write = subscribe(limit, Priority.WRITE);
+        var read = subscribe(limit, Priority.READ);
+
+        assertThat(limit.queued()).isEqualTo(2);
+
+        permits.get(0).release();
+
+        assertThat(read.get().admitted()).isTrue();
+        assertThat(write.get()).isNull();
+
+        permits.get(1).release();
+        permits.get(2).release();
+
+        assertThat(write.get().admitted()).isTrue();
+        assertThat(limit.queued()).isZero();
+    }
+
+    @Test
+    void rejectsWaitersOnTimeoutOrWhenTheQueueIsFull() {
+
+        var limit = limit(1, 1);
+        var permit = acquire(limit, Priority.READ);
+
+        var first = subscribe(limit, Priority.READ);
+        var second = subscribe(limit, Priority.WRITE);
+
+        assertThat(acquire(limit, Priority.READ).admitted()).isFalse();
+
+        timer.advanceTimeBy(Duration.ofSeconds(1));
+
+        assertThat(first.get().admitted()).isFalse();
+        assertThat(second.get().admitted()).isFalse();
+        assertThat(limit.queued()).isZero();
+
+        permit.release();
+
+        assertThat(limit.inFlight()).isZero();
+    }
+
+    @Test
+    void releasesPermitsOnlyOnce() {
+
+        var limit = limit(4, 10);
+        var permit = acquire(limit, Priority.READ);
+
+        acquire(limit, Priority.READ);
+
+        permit.release();
+        permit.release();
+
+        assertThat(limit.inFlight()).isEqualTo(1);
+    }
+
+    @Test
+    void shrinksOnceForSlowRequestsThatRanAtTheSameTime() {
+
+        var limit = limit(10, 20);
+        var permits = new ArrayList<Permit>();
+
+        for (int i = 0; i < 5; i++) {
+            permits.add(acquire(limit, Priority.READ));
+        }
+
+        clock.addAndGet(Duration.ofMillis(200).toNanos());
+        permits.forEach(Permit::release);
+
+        assertThat(limit.limit()).isEqualTo(9);
+
+        var later = acquire(limit, Priority.READ);
+
+        clock.addAndGet(Duration.ofMillis(200).toNanos());
+        later.release();
+
+        assertThat(limit.limit()).isEqualTo(8);
+    }
+
+    @Test
+    void growsWhileFastRequestsUseTheLimit() {
+
+        var limit = limit(4, 6);
+
+        for (int round = 0; round < 100; round++) {
+
+            var permits = new ArrayList<Permit>();
+
+            for (int i = 0; i < limit.limit(); i++) {
+                permits.add(acquire(limit, Priority.READ));
+            }
+
+            clock.addAndGet(Duration.ofMillis(10).toNanos());
+            permits.forEach(Permit::release);
+        }
+
+        assertThat(limit.limit()).isEqualTo(6);
+    }
+
+    private AdaptiveLimit limit(int initial, int max) {
+        return new AdaptiveLimit(initial, 1, max, Duration.ofMillis(100), 2, Duration.ofSeconds(1), timer, clock::get);
+    }
+
+    private static Permit acquire(AdaptiveLimit limit, Priority priority) {
+        return limit.acquire(priority).block();
+    }
+
+    private static AtomicReference<Permit> subscribe(AdaptiveLimit limit, Priority priority) {
+
+        var result = new AtomicReference<Permit>();
+
+        limit.acquire(priority).subscribe(result::set);
+
+        return result;
+    }
+}
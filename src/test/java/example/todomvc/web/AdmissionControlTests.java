@@ -0,0 +1,112 @@
+package example.todomvc.web;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+
+import example.todomvc.TodoProperties;
+import example.todomvc.TodoProperties.Admission;
+import example.todomvc.TodoProperties.Execution;
+import example.todomvc.TodoProperties.Journal;
+import example.todomvc.TodoProperties.Replication;
+import example.todomvc.TodoProperties.Storage;
+import example.todomvc.TodoProperties.Tenancy;
+import example.todomvc.web.AdaptiveLimit.Priority;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+class AdmissionControlTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final AdmissionControl admission = new AdmissionControl(new TodoProperties(Execution.INLINE, Storage.MAP,
+            100, 10000, new Journal(false, Path.of("data"), 100000),
+            new Admission(true, 1, 1, 1, Duration.ofMillis(100), 10, Duration.ofSeconds(5), Duration.ofSeconds(2)),
+            new Replication(false, "127.0.0.1", 9100, List.of(), null, false), new Tenancy(List.of(), 1000)),
+            registry);
+
+    @Test
+    void rejectsBulkChangesWhileTheLimitIsUsed() {
+
+        var pending = Sinks.<Void>empty();
+        var running = htmx(MockServerHttpRequest.get("/"));
+
+        admission.filter(running, __ -> pending.asMono()).subscribe();
+
+        var rejected = htmx(MockServerHttpRequest.delete("/completed"));
+
+        admission.filter(rejected, __ -> Mono.error(new IllegalStateException("Should not be admitted"))).block();
+
+        assertThat(rejected.getResponse().getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+        assertThat(rejected.getResponse().getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("2");
+        assertThat(registry.get("todos.admission.rejected").tag("priority", "bulk").counter().count()).isEqualTo(1);
+
+        pending.tryEmitEmpty();
+
+        assertThat(admission.limit().inFlight()).isZero();
+    }
+
+    @Test
+    void admitsQueuedRequestsOnceTheLimitFreesUp() {
+
+        var pending = Sinks.<Void>empty();
+
+        admission.filter(htmx(MockServerHttpRequest.get("/")), __ -> pending.asMono()).subscribe();
+
+        var queued = htmx(MockServerHttpRequest.put("/{id}/toggle", "42"));
+        var handled = Sinks.<Boolean>one();
+
+        admission.filter(queued, __ -> Mono.fromRunnable(() -> handled.tryEmitValue(true))).subscribe();
+
+        assertThat(admission.limit().queued()).isEqualTo(1);
+
+        pending.tryEmitEmpty();
+
+        assertThat(handled.asMono().block(Duration.ofSeconds(1))).isTrue();
+        assertThat(queued.getResponse().getStatusCode()).isNull();
+        assertThat(admission.limit().inFlight()).isZero();
+    }
+
+    @Test
+    void ignoresRequestsNotMadeByHtmx() {
+
+        var pending = Sinks.<Void>empty();
+
+        admission.filter(htmx(MockServerHttpRequest.get("/")), __ -> pending.asMono()).subscribe();
+
+        var exchange = MockServerWebExchange.from(MockServerHttpRequest.delete("/completed"));
+
+        admission.filter(exchange, __ -> Mono.empty()).block();
+
+        assertThat(exchange.getResponse().getStatusCode()).isNull();
+    }
+
+    @Test
+    void prioritisesReadsOverChanges() {
+
+        assertThat(priority(MockServerHttpRequest.get("/"))).isEqualTo(Priority.READ);
+        assertThat(priority(MockServerHttpRequest.get("/search"))).isEqualTo(Priority.READ);
+        assertThat(priority(MockServerHttpRequest.post("/"))).isEqualTo(Priority.WRITE);
+        assertThat(priority(MockServerHttpRequest.delete("/{id}", "42"))).isEqualTo(Priority.WRITE);
+        assertThat(priority(MockServerHttpRequest.put("/toggle-all"))).isEqualTo(Priority.BULK);
+        assertThat(priority(MockServerHttpRequest.delete("/completed"))).isEqualTo(Priority.BULK);
+    }
+
+    private static Priority priority(MockServerHttpRequest.BaseBuilder<?> request) {
+        return AdmissionControl.priority(request.build());
+    }
+
+    private static ServerWebExchange htmx(MockServerHttpRequest.BaseBuilder<?> request) {
+        return MockServerWebExchange.from(request.header("HX-Request", "true"));
+    }
+}
@@ -0,0 +1,89 @@
+package example.todomvc.web;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import example.todomvc.Todo;
+import example.todomvc.Todos;
+import reactor.blockhound.BlockHound;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+/**
+ * Drives requests through the controllers, the store and Thymeleaf with
+ * BlockHound installed, so that blocking calls on the event loop answer with
+ * errors. Runs in a surefire execution of its own, see the {@code blockhound}
+ * tag.
+ */
+@Tag("blockhound")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = { "logging.level.org.springframework.web=info", "logging.level.example=info" })
+class BlockHoundTests {
+
+    private static boolean installed;
+
+    @Autowired
+    private WebTestClient webClient;
+
+    @Autowired
+    private Todos todos;
+
+    @BeforeEach
+    void install() {
+
+        if (installed) {
+            return;
+        }
+
+        // Load templates and classes once before looking for blocking calls
+        interact();
+
+        BlockHound.install();
+        installed = true;
+    }
+
+    @Test
+    void detectsBlockingCalls() {
+        StepVerifier.create(Flux.just(1).doOnNext(__ -> {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }).subscribeOn(Schedulers.parallel())).verifyErrorSatisfies(
+                error -> assertThat(error).hasMessageContaining("Blocking call"));
+    }
+
+    @Test
+    void doesNotBlockTheEventLoop() {
+        interact();
+    }
+
+    private void interact() {
+
+        todos.findAll(Sort.unsorted()).forEach(todos::delete);
+
+        var todo = todos.save(new Todo("Incomplete"));
+        todos.save(new Todo("Completed").toggleCompletion());
+
+        this.webClient.get().uri("/").exchange().expectStatus().isOk();
+        this.webClient.get().uri("/").header("HX-Request", "true").exchange().expectStatus().isOk();
+        this.webClient.get().uri("/search?q=complete").header("HX-Request", "true").exchange().expectStatus().isOk();
+        this.webClient.post().uri("/").contentType(MediaType.APPLICATION_FORM_URLENCODED).bodyValue("title=Foo")
+                .header("HX-Request", "true").exchange().expectStatus().isOk();
+        this.webClient.put().uri("/{id}/toggle", todo.getId()).header("HX-Request", "true").exchange()
+                .expectStatus().isOk();
+        this.webClient.put().uri("/toggle-all?completed=true").header("HX-Request", "true").exchange()
+                .expectStatus().isOk();
+        this.webClient.delete().uri("/completed").header("HX-Request", "true").exchange().expectStatus().isOk();
+    }
+}
@@ -0,0 +1,166 @@
+package example.todomvc.web;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.reactive.result.view.View;
+import org.springframework.web.server.ServerWebExchange;
+import org.thymeleaf.spring6.view.reactive.ThymeleafReactiveViewResolver;
+
+import example.todomvc.web.CompiledFragments.Skeleton;
+import example.todomvc.web.TemplateModel.TodoDto;
+import reactor.core.publisher.Mono;
+
+@SpringBootTest
+class CompiledFragmentsTests {
+
+    @Autowired
+    private ThymeleafReactiveViewResolver resolver;
+
+    @Autowired
+    private CompiledFragments compiled;
+
+    private TodoDto todo = new TodoDto(UUID.randomUUID(), "<script>alert('Tom & \"Jerry\"')</script>", true, 0);
+
+    @Test
+    void splitsRepeatedSlots() {
+
+        var skeleton = Skeleton.split("<ul>[a]\n\t[b]</ul><a href=\"?after=xx\">",
+                Map.of("items", List.of("[a]", "[b]"), "cursor", List.of("xx")));
+
+        assertThat(skeleton.fill(Map.of("items", List.of("1", "2", "3"), "cursor", List.of("yy"))))
+                .isEqualTo("<ul>1\n\t2\n\t3</ul><a href=\"?after=yy\">");
+        assertThat(skeleton.fill(Map.of("items", List.of(), "cursor", List.of("yy"))))
+                .isEqualTo("<ul></ul><a href=\"?after=yy\">");
+    }
+
+    @Test
+    void writesOutputSizedInBytes() {
+
+        var skeleton = Skeleton.split("<label>[a]</label>", Map.of("title", List.of("[a]")));
+        var buffer = skeleton.write(DefaultDataBufferFactory.sharedInstance, Map.of("title", List.of("Prøbe ✓")));
+
+        assertThat(buffer.readableByteCount()).isEqualTo("<label>Prøbe ✓</label>".getBytes(UTF_8).length);
+        assertThat(buffer.toString(UTF_8)).isEqualTo("<label>Prøbe ✓</label>");
+    }
+
+    @Test
+    void rendersUpdatedTodoLikeThymeleaf() {
+        assertSameOutput("fragments :: update-todo", Map.of("todo", todo, "filter", "completed"));
+    }
+
+    @Test
+    void rendersRemovedTodoLikeThymeleaf() {
+        assertSameOutput("fragments :: remove-todo", Map.of("todo", todo));
+    }
+
+    @Test
+    void rendersListLikeThymeleaf() {
+
+        var todos = List.of(todo, new TodoDto(UUID.randomUUID(), "Ünïcødé", false, 0),
+                new TodoDto(UUID.randomUUID(), "Third", false, 0));
+
+        assertSameOutput("index :: todos", Map.of("todos", todos, "filter", "", "action", "true", "next", "AbC-_9"));
+        assertSameOutput("index :: todos", Map.of("todos", List.of(), "filter", "active", "action", "true"));
+    }
+
+    @Test
+    void rendersReferenceDataLikeThymeleaf() {
+
+        var counts = Map.of("numberOfTodos", 3L, "numberOfIncomplete", 0L, "filter", "active");
+        var empty = Map.of("numberOfTodos", 0L, "numberOfIncomplete", 0L, "filter", "");
+
+        assertSameOutput("index :: toggle-all", counts);
+        assertSameOutput("index :: foot", counts);
+        assertSameOutput("index :: foot", empty);
+        assertSameOutput("index :: todo-count", Map.of("numberOfIncomplete", 12345L));
+    }
+
+    @Test
+    void fallsBackForUnknownFilters() {
+
+        long compiledRenders = compiled.compiledRenders();
+
+        assertSameOutput("fragments :: update-todo", Map.of("todo", todo, "filter", "<inactive>"), false);
+        assertThat(compiled.compiledRenders()).isEqualTo(compiledRenders);
+    }
+
+    @Test
+    void compilesAgainAfterFailure() {
+
+        var name = "index :: todo-count";
+        var model = Map.of("numberOfIncomplete", 7L);
+        var view = resolver.resolveViewName(name, Locale.getDefault()).block();
+        var expected = render(view, model, "/retry");
+        var attempts = new AtomicInteger();
+
+        View flaky = new View() {
+
+            @Override
+            public List<MediaType> getSupportedMediaTypes() {
+                return view.getSupportedMediaTypes();
+            }
+
+            @Override
+            public Mono<Void> render(Map<String, ?> model, MediaType contentType, ServerWebExchange exchange) {
+                return attempts.getAndIncrement() == 0 ? Mono.error(new IllegalStateException("Flaky"))
+                        : view.render(model, contentType, exchange);
+            }
+        };
+
+        long compiledRenders = compiled.compiledRenders();
+        long fallbacks = compiled.fallbacks();
+
+        assertThat(render(compiled.compile(name, flaky), model, "/retry")).isEqualTo(expected);
+        assertThat(compiled.fallbacks()).isEqualTo(fallbacks + 1);
+
+        assertThat(render(compiled.compile(name, flaky), model, "/retry")).isEqualTo(expected);
+        assertThat(compiled.fallbacks()).isEqualTo(fallbacks + 1);
+        assertThat(compiled.compiledRenders()).isEqualTo(compiledRenders + 1);
+    }
+
+    private void assertSameOutput(String name, Map<String, ?> model) {
+        assertSameOutput(name, model, true);
+    }
+
+    private void assertSameOutput(String name, Map<String, ?> model, boolean compilable) {
+
+        var view = resolver.resolveViewName(name, Locale.getDefault()).block();
+        var expected = render(view, model, "");
+        long compiledRenders = compiled.compiledRenders();
+        long fallbacks = compiled.fallbacks();
+
+        assertThat(compiled.compile(name, view)).isNotSameAs(view);
+        // once to compile, once from the skeleton
+        assertThat(render(compiled.compile(name, view), model, "")).isEqualTo(expected);
+        assertThat(render(compiled.compile(name, view), model, "")).isEqualTo(expected);
+        assertThat(compiled.fallbacks()).isEqualTo(fallbacks);
+
+        if (compilable) {
+            assertThat(compiled.compiledRenders()).isEqualTo(compiledRenders + 2);
+        }
+    }
+
+    private String render(View view, Map<String, ?> model, String contextPath) {
+
+        var exchange = MockServerWebExchange
+                .from(MockServerHttpRequest.get(contextPath + "/").contextPath(contextPath));
+
+        view.render(model, MediaType.TEXT_HTML, exchange).block();
+
+        return exchange.getResponse().getBodyAsString().block();
+    }
+}
@@ -2,15 +2,22 @@ package example.todomvc.web;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.util.concurrent.TimeUnit;
+
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.ScrollPosition;
 import org.springframework.data.domain.Sort;
 import org.springframework.test.web.reactive.server.WebTestClient;
 
+import example.todomvc.Tenants;
 import example.todomvc.Todo;
 import example.todomvc.Todos;
+import io.micrometer.core.instrument.MeterRegistry;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 class HtmxTodoControllerTests {
@@ -21,12 +28,20 @@ class HtmxTodoControllerTests {
     @Autowired
     private Todos todos;
 
+    @Autowired
+    private Tenants tenants;
+
+    @Autowired
+    private MeterRegistry registry;
+
     private Todo todo = new Todo("Incomplete");
 
+    private Todo completed = new Todo("Completed").toggleCompletion();
+
     @BeforeEach
     void init() {
         todos.findAll(Sort.unsorted()).forEach(todo -> todos.delete(todo));
-        todos.save(new Todo("Completed").toggleCompletion());
+        todos.save(completed);
         todos.save(todo);
     }
 
@@ -39,7 +54,20 @@ class HtmxTodoControllerTests {
                     assertThat(value).contains("hx-swap-oob=\"true\"");
                     assertThat(value).contains("Incomplete");
                     assertThat(value).contains("class=\"completed\"");
-                    assertThat(value).contains("id=\"foot\"");
+                    assertThat(value).contains("id=\"toggle-all-form\"");
+                    assertThat(value).contains("id=\"todo-count\"");
+                    assertThat(value).doesNotContain("id=\"foot\"");
+                });
+    }
+
+    @Test
+    void testToggleRemovesTodoHiddenByFilter() throws Exception {
+        this.webClient.put().uri("/{id}/toggle?filter=completed", completed.getId()).header("HX-Request", "true")
+                .exchange().expectStatus().isOk().expectBody(String.class).value(value -> {
+                    assertThat(value).contains("id=\"todo-" + completed.getId() + "\"></li>");
+                    assertThat(value).doesNotContain("<label>Completed</label>");
+                    assertThat(value).doesNotContain("id=\"toggle-all-form\"");
+                    assertThat(value).contains("id=\"todo-count\"");
                 });
     }
 
@@ -50,7 +78,8 @@ class HtmxTodoControllerTests {
                     assertThat(value).contains("id=\"todo-" + todo.getId() + "\"");
                     assertThat(value).contains("<li hx-swap-oob=\"true\"");
                     assertThat(value).contains("></li>"); // empty list item
-                    assertThat(value).contains("id=\"foot\"");
+                    assertThat(value).contains("id=\"todo-count\"");
+                    assertThat(value).doesNotContain("id=\"foot\"");
                 });
     }
 
@@ -64,18 +93,172 @@ class HtmxTodoControllerTests {
                     assertThat(value).contains("<form id=\"new-todo\"");
                     assertThat(value).doesNotContain("htmx-swap-oob");
                     assertThat(value).contains("value=\"\"");
-                    assertThat(value).contains("<ul id=\"todos\" class=\"todo-list\" hx-swap-oob=\"beforeend\">");
+                    assertThat(value).contains("<ul id=\"todos\" class=\"todo-list\" hx-swap-oob=\"beforeend:#todos:not(:has(li.more))\">");
                     assertThat(value).contains("<label>Foo</label>");
-                    assertThat(value).contains("id=\"foot\"");
+                    assertThat(value).contains("id=\"todo-count\"");
+                    assertThat(value).doesNotContain("id=\"toggle-all-form\"");
                 });
         assertThat(todos.findAll(Sort.unsorted()).toSet()).hasSize(3);
     }
 
+    @Test
+    void testTenantsSeeOnlyTheirOwnTodos() throws Exception {
+        var tenant = tenants.get("tenant-a");
+        tenant.todos().findAll(Sort.unsorted()).forEach(todo -> tenant.todos().delete(todo));
+        this.webClient.post().uri("/").bodyValue("title=Private")
+                .header("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8").header("HX-Request", "true")
+                .header("X-Tenant", "tenant-a").exchange().expectStatus().isOk();
+        assertThat(tenant.todos().count()).isEqualTo(1);
+        assertThat(todos.findAll(Sort.unsorted()).toSet()).hasSize(2);
+        this.webClient.get().uri("/").header("HX-Request", "true").cookie("tenant", "tenant-a").exchange()
+                .expectStatus().isOk().expectBody(String.class).value(value -> {
+                    assertThat(value).contains("<label>Private</label>");
+                    assertThat(value).doesNotContain("<label>Incomplete</label>");
+                });
+        this.webClient.get().uri("/").header("HX-Request", "true").exchange().expectStatus().isOk()
+                .expectBody(String.class).value(value -> {
+                    assertThat(value).doesNotContain("<label>Private</label>");
+                    assertThat(value).contains("<label>Incomplete</label>");
+                });
+    }
+
+    @Test
+    void testInvalidTenant() throws Exception {
+        this.webClient.get().uri("/").header("HX-Request", "true").header("X-Tenant", "../etc").exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void testToggleAll() throws Exception {
+        this.webClient.put().uri("/toggle-all?completed=true").header("HX-Request", "true").exchange().expectStatus()
+                .isOk().expectBody(String.class).value(value -> {
+                    assertThat(value).doesNotContain("id=\"todos\"");
+                    assertThat(value).contains("id=\"todo-" + todo.getId() + "\"");
+                    assertThat(value).doesNotContain("id=\"todo-" + completed.getId() + "\"");
+                    assertThat(value).contains("id=\"toggle-all-form\"");
+                    assertThat(value).contains("id=\"todo-count\"");
+                });
+        assertThat(todos.countByCompleted(true)).isEqualTo(2);
+        assertThat(todos.findById(todo.getId())).hasValueSatisfying(it -> assertThat(it.isCompleted()).isTrue());
+    }
+
+    @Test
+    void testDeleteCompleted() throws Exception {
+        this.webClient.delete().uri("/completed").header("HX-Request", "true").exchange().expectStatus()
+                .isOk().expectBody(String.class).value(value -> {
+                    assertThat(value).contains("id=\"todo-" + completed.getId() + "\"></li>");
+                    assertThat(value).doesNotContain("Incomplete");
+                    assertThat(value).doesNotContain("id=\"todo-count\"");
+                    assertThat(value).doesNotContain("id=\"toggle-all-form\"");
+                });
+        assertThat(todos.findAll(Sort.unsorted()).toList()).extracting(Todo::getTitle).containsExactly("Incomplete");
+    }
+
+    @Test
+    void testDeleteCompletedEmptiesCompletedList() throws Exception {
+        this.webClient.delete().uri("/completed?filter=completed").header("HX-Request", "true").exchange()
+                .expectStatus().isOk().expectBody(String.class).value(value -> {
+                    assertThat(value).contains("<ul id=\"todos\" class=\"todo-list\" hx-swap-oob=\"true\">");
+                    assertThat(value).doesNotContain("<label>");
+                });
+    }
+
+    @Test
+    void testSearch() throws Exception {
+        // The index follows the store asynchronously
+        var index = tenants.get(Tenants.DEFAULT).index();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (index.search("complete", null, 10).size() < 2 && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        this.webClient.get().uri("/search?q=COMPLETE").header("HX-Request", "true").exchange().expectStatus().isOk()
+                .expectBody(String.class).value(value -> {
+                    assertThat(value).contains("<ul id=\"todos\" class=\"todo-list\" hx-swap-oob=\"true\">");
+                    assertThat(value).contains("<label>Incomplete</label>");
+                    assertThat(value).contains("<label>Completed</label>");
+                    assertThat(value).contains("class=\"more\"");
+                });
+        this.webClient.get().uri("/search?q=complete&filter=active").header("HX-Request", "true").exchange()
+                .expectStatus().isOk().expectBody(String.class).value(value -> {
+                    assertThat(value).contains("<label>Incomplete</label>");
+                    assertThat(value).doesNotContain("<label>Completed</label>");
+                });
+        this.webClient.get().uri("/search?q=c").header("HX-Request", "true").exchange().expectStatus().isOk()
+                .expectBody(String.class).value(value -> {
+                    assertThat(value).contains("<label>Incomplete</label>");
+                    assertThat(value).doesNotContain("class=\"more\"");
+                });
+    }
+
+    @Test
+    void testMoreTodos() throws Exception {
+        var first = todos.findAll(ScrollPosition.keyset(), Limit.of(1));
+        assertThat(first.hasNext()).isTrue();
+        var cursor = TodoCursor.encode((KeysetScrollPosition) first.positionAt(0));
+        this.webClient.get().uri("/?after={cursor}", cursor).header("HX-Request", "true").exchange().expectStatus()
+                .isOk().expectBody(String.class).value(value -> {
+                    assertThat(value).contains("<label>Incomplete</label>");
+                    assertThat(value).doesNotContain("<label>Completed</label>");
+                    assertThat(value).doesNotContain("class=\"more\"");
+                });
+    }
+
+    @Test
+    void testInvalidCursor() throws Exception {
+        this.webClient.get().uri("/?after=garbage").header("HX-Request", "true").exchange().expectStatus()
+                .isBadRequest();
+    }
+
+    @Test
+    void testRecordsTemplateAndFragmentTimers() throws Exception {
+        this.webClient.get().uri("/?filter=active").header("HX-Request", "true").exchange().expectStatus().isOk()
+                .expectBody(String.class).value(value -> assertThat(value).contains("id=\"foot\""));
+        assertThat(registry.get("todos.template").tag("method", "prepareReferenceData").tag("filter", "active")
+                .timer().count()).isPositive();
+        assertThat(registry.get("todos.fragments").tag("fragment", "index :: foot").tag("endpoint", "GET /")
+                .timer().count()).isPositive();
+        assertThat(registry.get("todos.store").tag("operation", "countByCompleted").timer().count()).isPositive();
+        this.webClient.get().uri("/?filter=nonsense").header("HX-Request", "true").exchange().expectStatus().isOk();
+        assertThat(registry.find("todos.template").tag("filter", "nonsense").timers()).isEmpty();
+    }
+
+    @Test
+    void testCachedTodos() throws Exception {
+        var hits = registry.get("cache.gets").tag("cache", "todoFragments").tag("result", "hit").functionCounter();
+        var before = hits.count();
+        for (int i = 0; i < 2; i++) {
+            this.webClient.get().uri("/").header("HX-Request", "true").exchange().expectStatus().isOk()
+                    .expectBody(String.class)
+                    .value(value -> assertThat(value).contains("<label>Completed</label>")
+                            .contains("id=\"todo-" + todo.getId() + "\""));
+        }
+        assertThat(hits.count()).isGreaterThanOrEqualTo(before + 2);
+    }
+
+    @Test
+    void testNotModified() throws Exception {
+        var etag = this.webClient.get().uri("/").header("HX-Request", "true").exchange().expectStatus().isOk()
+                .expectHeader().valueEquals("Vary", "HX-Request")
+                .returnResult(String.class).getResponseHeaders().getETag();
+        assertThat(etag).isNotNull();
+        this.webClient.get().uri("/").header("HX-Request", "true").ifNoneMatch(etag).exchange().expectStatus()
+                .isNotModified().expectBody().isEmpty();
+        this.webClient.get().uri("/").ifNoneMatch(etag).exchange().expectStatus().isOk();
+        todos.save(new Todo("Another"));
+        this.webClient.get().uri("/").header("HX-Request", "true").ifNoneMatch(etag).exchange().expectStatus()
+                .isOk();
+    }
+
     @Test
     void testIndex() throws Exception {
         this.webClient.get().uri("/").header("HX-Request", "true").exchange().expectStatus().isOk()
                 .expectBody(String.class)
-                .value(value -> assertThat(value).contains("Completed"));
+                .value(value -> {
+                    assertThat(value).contains("<ul id=\"todos\" class=\"todo-list\" hx-swap-oob=\"true\">");
+                    assertThat(value).contains("<ul hx-swap-oob=\"beforeend:#todos\">");
+                    assertThat(value).contains("<label>Completed</label>");
+                    assertThat(value.indexOf("<label>Completed</label>")).isLessThan(value.indexOf("id=\"foot\""));
+                });
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,92 @@
+package example.todomvc.web;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class StaticAssetsTests {
+
+    @Autowired
+    private WebTestClient webClient;
+
+    @Autowired
+    private StaticAssets assets;
+
+    @Test
+    void linksToHashedUrls() {
+
+        var url = assets.url("/webjars/htmx.org/dist/htmx.js");
+
+        assertThat(url).matches("/assets/htmx\\.org/dist/htmx-[0-9a-f]{32}\\.js");
+
+        this.webClient.get().uri("/").exchange().expectStatus().isOk().expectBody(String.class).value(value -> {
+            assertThat(value).contains("<script src=\"" + url + "\"></script>");
+            assertThat(value).doesNotContain("/webjars/");
+        });
+    }
+
+    @Test
+    void servesGzippedAssetsThatNeverChange() throws IOException {
+
+        var url = assets.url("/webjars/todomvc-app-css/index.css");
+
+        var plain = this.webClient.get().uri(url).header(HttpHeaders.ACCEPT_ENCODING, "identity").exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueMatches(HttpHeaders.CACHE_CONTROL, ".*immutable.*")
+                .expectHeader().doesNotExist(HttpHeaders.CONTENT_ENCODING)
+                .expectBody(byte[].class).returnResult().getResponseBody();
+
+        var gzipped = this.webClient.get().uri(url).header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate").exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .expectHeader().valueEquals(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .expectBody(byte[].class).returnResult().getResponseBody();
+
+        assertThat(gzipped.length).isLessThan(plain.length);
+        assertThat(new GZIPInputStream(new ByteArrayInputStream(gzipped)).readAllBytes()).isEqualTo(plain);
+    }
+
+    @Test
+    void answersRevalidationWithNotModified() {
+
+        var url = assets.url("/webjars/todomvc-common/base.css");
+        var etag = this.webClient.get().uri(url).exchange().expectStatus().isOk().returnResult(byte[].class)
+                .getResponseHeaders().getETag();
+
+        this.webClient.get().uri(url).ifNoneMatch(etag).exchange().expectStatus().isNotModified();
+    }
+
+    @Test
+    void tagsGzippedAndIdentityRepresentationsApart() {
+
+        var url = assets.url("/webjars/todomvc-app-css/index.css");
+        var plain = this.webClient.get().uri(url).header(HttpHeaders.ACCEPT_ENCODING, "identity").exchange()
+                .expectStatus().isOk().returnResult(byte[].class).getResponseHeaders().getETag();
+        var gzipped = this.webClient.get().uri(url).header(HttpHeaders.ACCEPT_ENCODING, "gzip").exchange()
+                .expectStatus().isOk().returnResult(byte[].class).getResponseHeaders().getETag();
+
+        assertThat(gzipped).isNotEqualTo(plain).endsWith("-gzip\"");
+
+        this.webClient.get().uri(url).header(HttpHeaders.ACCEPT_ENCODING, "gzip").ifNoneMatch(gzipped).exchange()
+                .expectStatus().isNotModified();
+        this.webClient.get().uri(url).header(HttpHeaders.ACCEPT_ENCODING, "identity").ifNoneMatch(gzipped)
+                .exchange().expectStatus().isOk().expectHeader().doesNotExist(HttpHeaders.CONTENT_ENCODING);
+        this.webClient.get().uri(url).header(HttpHeaders.ACCEPT_ENCODING, "gzip").ifNoneMatch(plain).exchange()
+                .expectStatus().isOk().expectHeader().valueEquals(HttpHeaders.CONTENT_ENCODING, "gzip");
+    }
+
+    @Test
+    void leavesUnknownAssetsAlone() {
+        this.webClient.get().uri("/assets/htmx.org/dist/htmx-0123.js").exchange().expectStatus().isNotFound();
+        this.webClient.get().uri("/webjars/htmx.org/dist/htmx.js").exchange().expectStatus().isOk();
+    }
+}
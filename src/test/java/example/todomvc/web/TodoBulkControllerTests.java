@@ -0,0 +1,105 @@
+package example.todomvc.web;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import example.todomvc.Todo;
+import example.todomvc.Todos;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class TodoBulkControllerTests {
+
+    @Autowired
+    private WebTestClient webClient;
+
+    @Autowired
+    private Todos todos;
+
+    @BeforeEach
+    void init() {
+        todos.findAll(Sort.unsorted()).forEach(todo -> todos.delete(todo));
+    }
+
+    @Test
+    void exportsTodosAsLines() {
+
+        var completed = todos.save(new Todo("Completed").toggleCompletion());
+        var incomplete = todos.save(new Todo("Incomplete"));
+
+        this.webClient.get().uri("/todos").accept(MediaType.APPLICATION_NDJSON).exchange().expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .expectBody(String.class).value(value -> {
+                    var lines = value.split("\n");
+                    assertThat(lines).hasSize(2);
+                    assertThat(lines[0]).contains("\"id\":\"" + completed.getId() + "\"", "\"title\":\"Completed\"",
+                            "\"completed\":true");
+                    assertThat(lines[1]).contains("\"id\":\"" + incomplete.getId() + "\"", "\"completed\":false");
+                });
+    }
+
+    @Test
+    void exportsMoreThanAPage() {
+
+        for (int i = 0; i < TodoBulkController.PAGE_SIZE + 10; i++) {
+            todos.save(new Todo("Todo " + i));
+        }
+
+        this.webClient.get().uri("/todos").accept(MediaType.APPLICATION_NDJSON).exchange().expectStatus().isOk()
+                .expectBody(String.class)
+                .value(value -> assertThat(value.split("\n")).hasSize(TodoBulkController.PAGE_SIZE + 10));
+    }
+
+    @Test
+    void importsLinesAndSkipsExistingTodos() {
+
+        var existing = todos.save(new Todo("Existing"));
+        var body = """
+                {"title":"New"}
+                {"id":"%s","title":"Changed"}
+                {"title":"Done","completed":true}
+                """.formatted(existing.getId());
+
+        this.webClient.post().uri("/todos").contentType(MediaType.APPLICATION_NDJSON).bodyValue(body).exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.imported").isEqualTo(2)
+                .jsonPath("$.skipped").isEqualTo(1);
+
+        assertThat(todos.findAll(Sort.unsorted()).toList()).extracting(Todo::getTitle)
+                .containsExactlyInAnyOrder("Existing", "New", "Done");
+        assertThat(todos.countByCompleted(true)).isEqualTo(1);
+    }
+
+    @Test
+    void roundTripsAnExport() {
+
+        var todo = todos.save(new Todo("Exported").toggleCompletion());
+        var export = this.webClient.get().uri("/todos").accept(MediaType.APPLICATION_NDJSON).exchange()
+                .expectBody(String.class).returnResult().getResponseBody();
+
+        todos.delete(todo);
+
+        this.webClient.post().uri("/todos").contentType(MediaType.APPLICATION_NDJSON).bodyValue(export).exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.imported").isEqualTo(1);
+
+        assertThat(todos.findById(todo.getId())).hasValueSatisfying(it -> {
+            assertThat(it.getTitle()).isEqualTo("Exported");
+            assertThat(it.isCompleted()).isTrue();
+            assertThat(it.getCreated()).isEqualTo(todo.getCreated());
+        });
+    }
+
+    @Test
+    void rejectsTodosWithoutTitle() {
+        this.webClient.post().uri("/todos").contentType(MediaType.APPLICATION_NDJSON).bodyValue("{\"title\":\" \"}\n")
+                .exchange().expectStatus().isBadRequest();
+    }
+}
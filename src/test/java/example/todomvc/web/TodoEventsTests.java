@@ -0,0 +1,103 @@
+package example.todomvc.web;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+
+import example.todomvc.Tenants;
+import example.todomvc.Todo;
+import example.todomvc.Todos;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+@SpringBootTest
+class TodoEventsTests {
+
+    @Autowired
+    private TodoEvents events;
+
+    @Autowired
+    private Todos todos;
+
+    @Autowired
+    private Tenants tenants;
+
+    private Todo todo = new Todo("Incomplete");
+
+    @BeforeEach
+    void init() {
+        todos.findAll(Sort.unsorted()).forEach(todo -> todos.delete(todo));
+        todos.save(todo);
+    }
+
+    @Test
+    void pushesChangesAsFragments() {
+
+        var created = new Todo("Created elsewhere");
+
+        StepVerifier.create(subscribe("").filter(event -> "todos".equals(event.event())))
+                .then(() -> todos.save(created))
+                .assertNext(event -> {
+                    assertThat(event.data()).contains("<label>Created elsewhere</label>");
+                    assertThat(event.data()).contains("hx-swap-oob=\"beforeend:#todos:not(:has(li.more)):not(:has(#todo-"
+                            + created.getId() + "))\"");
+                    assertThat(event.data()).contains("id=\"toggle-all-form\"");
+                    assertThat(event.data()).contains("<strong>2</strong>");
+                })
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void coalescesBurstsOfChanges() {
+
+        var events = subscribe("active").filter(event -> "todos".equals(event.event()))
+                .take(TodoEvents.COALESCE_WINDOW.multipliedBy(6))
+                .collectList();
+
+        StepVerifier.create(events)
+                .then(() -> {
+                    todos.update(todo.getId(), Todo::toggleCompletion);
+                    todos.update(todo.getId(), Todo::toggleCompletion);
+                    todos.update(todo.getId(), Todo::toggleCompletion);
+                })
+                .assertNext(list -> {
+                    // Usually a single event, two if the burst happened to straddle a window
+                    assertThat(list).isNotEmpty().hasSizeLessThan(3);
+                    // Completed in the end, so it's removed from the active list
+                    assertThat(list.get(list.size() - 1).data())
+                            .contains("id=\"todo-" + todo.getId() + "\"></li>")
+                            .doesNotContain("<label>Incomplete</label>");
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void onlyPushesChangesOfTheSameTenant() {
+
+        var other = tenants.get("events-other");
+        var events = subscribe("").filter(event -> "todos".equals(event.event()))
+                .take(TodoEvents.COALESCE_WINDOW.multipliedBy(6))
+                .collectList();
+
+        StepVerifier.create(events)
+                .then(() -> other.todos().save(new Todo("Elsewhere")))
+                .assertNext(list -> assertThat(list).isEmpty())
+                .verifyComplete();
+    }
+
+    private Flux<ServerSentEvent<String>> subscribe(String filter) {
+        return events.subscribe(tenants.get(Tenants.DEFAULT), Optional.of(filter),
+                MockServerWebExchange.from(MockServerHttpRequest.get("/events?filter={filter}", filter)));
+    }
+}
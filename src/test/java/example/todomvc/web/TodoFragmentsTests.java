@@ -0,0 +1,100 @@
+package example.todomvc.web;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Locale;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.thymeleaf.spring6.context.webflux.SpringWebFluxContext;
+
+import example.todomvc.Tenants;
+import example.todomvc.Todo;
+import example.todomvc.Todos;
+import example.todomvc.web.TemplateModel.TodoDto;
+import io.micrometer.core.instrument.MeterRegistry;
+
+@SpringBootTest
+class TodoFragmentsTests {
+
+    @Autowired
+    private TodoFragments fragments;
+
+    @Autowired
+    private Todos todos;
+
+    @Autowired
+    private Tenants tenants;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Test
+    void rendersLinksAgainstContextPath() {
+
+        var todo = TodoDto.of(new Todo("Todo"));
+
+        assertThat(fragments.render(context(""), todo, "")).contains("action=\"/" + todo.id());
+        assertThat(fragments.render(context("/app"), todo, "")).contains("action=\"/app/" + todo.id());
+    }
+
+    @Test
+    void rendersNewerVersionsOnly() {
+
+        var todo = new Todo("Before");
+        var renamed = new Todo(todo.getId(), "After", false, todo.getCreated(), todo.getVersion() + 1);
+
+        assertThat(fragments.render(context(""), TodoDto.of(todo), "")).contains("Before");
+        assertThat(fragments.render(context(""), TodoDto.of(renamed), "")).contains("After");
+        assertThat(fragments.render(context(""), TodoDto.of(todo), "")).contains("Before");
+        assertThat(fragments.render(context(""), TodoDto.of(renamed), "")).contains("After");
+    }
+
+    @Test
+    void keepsTodosOfTenantsWithTheSameIdAndVersionApart() {
+
+        var alice = tenants.get("alice").todos().save(new Todo("Alice's"));
+        var bob = tenants.get("bob").todos()
+                .save(new Todo(alice.getId(), "Bob's", true, alice.getCreated(), alice.getVersion()));
+
+        assertThat(bob.getVersion()).isEqualTo(alice.getVersion());
+
+        for (int i = 0; i < 2; i++) {
+            assertThat(fragments.render(context(""), TodoDto.of(alice), "")).contains("Alice's").doesNotContain("Bob's");
+            assertThat(fragments.render(context(""), TodoDto.of(bob), "")).contains("Bob's").doesNotContain("Alice's");
+        }
+    }
+
+    @Test
+    void evictsDeletedTodos() {
+
+        var todo = TodoDto.of(todos.save(new Todo("Deleted")));
+
+        fragments.render(context(""), todo, "");
+        fragments.render(context(""), todo, "");
+
+        double misses = misses();
+
+        fragments.render(context(""), todo, "");
+        assertThat(misses()).isEqualTo(misses);
+
+        todos.findById(todo.id()).ifPresent(todos::delete);
+
+        fragments.render(context(""), todo, "");
+        assertThat(misses()).isEqualTo(misses + 1);
+    }
+
+    private double misses() {
+        return registry.get("cache.gets").tag("cache", "todoFragments").tag("result", "miss").functionCounter().count();
+    }
+
+    private static SpringWebFluxContext context(String contextPath) {
+
+        var request = MockServerHttpRequest.get(contextPath + "/").contextPath(contextPath);
+
+        return new SpringWebFluxContext(MockServerWebExchange.from(request), Locale.getDefault());
+    }
+}